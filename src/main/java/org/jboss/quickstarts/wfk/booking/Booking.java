@@ -34,6 +34,7 @@ import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
 import javax.validation.constraints.Future;
 import javax.validation.constraints.NotNull;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -47,6 +48,9 @@ import org.jboss.quickstarts.wfk.hotel.Hotel;
  *
  * <p>The class also specifies how a bookings are retrieved from the database (with @NamedQueries), and acceptable values
  * for Booking fields (with @NotNull, @Pattern etc...)<p/>
+ *
+ * <p>A hotel can only be booked once on a date. The database enforces this with a unique index on hotelId and
+ * bookingDate, so two bookings made at the same moment cannot both succeed.</p>
  * 
  * @author Geoffrey Prytherch
  */
@@ -57,16 +61,20 @@ import org.jboss.quickstarts.wfk.hotel.Hotel;
 @Entity
 @NamedQueries({
     @NamedQuery(name = Booking.FIND_ALL, query = "SELECT c FROM Booking c ORDER BY c.hotel.id ASC, c.customer.id ASC, c.bookingDate ASC"),
-    @NamedQuery(name = Booking.FIND_BY_ID_AND_DATE, query = "SELECT c FROM Booking c WHERE c.hotel.id = :hotelId AND c.bookingDate = :bookingDate")
+    @NamedQuery(name = Booking.FIND_BY_ID_AND_DATE, query = "SELECT c FROM Booking c WHERE c.hotel.id = :hotelId AND c.bookingDate = :bookingDate"),
+    @NamedQuery(name = Booking.FIND_SLOTS, query = "SELECT c.id, c.hotel.id, c.bookingDate FROM Booking c"),
+    @NamedQuery(name = Booking.FIND_CUSTOMER_AND_HOTEL, query = "SELECT c.id, h.id FROM Customer c, Hotel h WHERE c.id = :customerId AND h.id = :hotelId")
 })
 @XmlRootElement
-@Table(name = "Booking")//, uniqueConstraints = @UniqueConstraint(columnNames = "email"))
+@Table(name = "Booking", uniqueConstraints = @UniqueConstraint(columnNames = {"hotelId", "bookingDate"}))
 public class Booking implements Serializable {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
     
     public static final String FIND_ALL = "Booking.findAll";
     public static final String FIND_BY_ID_AND_DATE = "Booking.findByIdAndDate";
+    public static final String FIND_SLOTS = "Booking.findSlots";
+    public static final String FIND_CUSTOMER_AND_HOTEL = "Booking.findCustomerAndHotel";
 
     /*
      * The  error messages match the ones in the UI so that the user isn't confused by two similar error messages for
@@ -0,0 +1,262 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.booking;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * <p>Keeps in memory which dates each hotel is booked on, so that a new or changed {@link Booking} can be checked
+ * against the existing ones without a query.</p>
+ *
+ * <p>Each hotel has a {@link BitSet} with a bit for each day since 1970-01-01 (the epoch day of the booking date, in
+ * the server's time zone), and each booking is mapped to the hotel and day it holds, so that a booking can be moved or
+ * cancelled and is not reported as clashing with itself. The index is read from the database when the application
+ * starts, and is then kept up to date by the {@link BookingService} as bookings are created, updated and deleted. A
+ * change made in a transaction that is rolled back is undone when it is.</p>
+ *
+ * <p>The same bits answer whether a hotel is free over a range of dates, for the availability search of the
+ * {@link org.jboss.quickstarts.wfk.hotel.HotelRESTService}.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see BookingValidator
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class BookingIndex {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private EntityManager em;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
+    private final ConcurrentMap<Long, BitSet> hotels = new ConcurrentHashMap<Long, BitSet>();
+
+    private final ConcurrentMap<Long, Slot> bookings = new ConcurrentHashMap<Long, Slot>();
+
+    /**
+     * <p>Reads every booking from the database into the index.</p>
+     */
+    @PostConstruct
+    public void rebuild() {
+        hotels.clear();
+        bookings.clear();
+        for (Object[] row : em.createNamedQuery(Booking.FIND_SLOTS, Object[].class).getResultList()) {
+            Slot slot = new Slot((Long) row[1], dayOf((Date) row[2]));
+            bookings.put((Long) row[0], slot);
+            set(slot, true);
+        }
+        log.info("BookingIndex - indexed " + bookings.size() + " bookings of " + hotels.size() + " hotels");
+    }
+
+    /**
+     * <p>Checks whether a hotel is booked on a date by any booking other than the given one.</p>
+     *
+     * @param hotelId The id of the Hotel
+     * @param bookingDate The date
+     * @param bookingId The id of the Booking being checked, which does not count against itself, or null for a new one
+     * @return true if another booking holds the hotel on the date
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public boolean isBooked(Long hotelId, Date bookingDate, Long bookingId) {
+        Slot slot = new Slot(hotelId, dayOf(bookingDate));
+        if (!get(slot)) {
+            return false;
+        }
+        return bookingId == null || !slot.equals(bookings.get(bookingId));
+    }
+
+    /**
+     * <p>Checks whether a hotel is free on every day from one date to another.</p>
+     *
+     * @param hotelId The id of the Hotel
+     * @param from The first date
+     * @param to The last date, not before the first
+     * @return true if no booking holds the hotel on any of the dates
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public boolean isFree(Long hotelId, Date from, Date to) {
+        BitSet days = hotels.get(hotelId);
+        if (days == null) {
+            return true;
+        }
+        int first = Math.max(dayOf(from), 0);
+        int last = dayOf(to);
+        synchronized (days) {
+            int booked = days.nextSetBit(first);
+            return booked < 0 || booked > last;
+        }
+    }
+
+    /**
+     * <p>Records that a booking holds its hotel on its date, in place of wherever it was held before.</p>
+     *
+     * @param booking The Booking that has been created or updated
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void booked(Booking booking) {
+        final Long id = booking.getId();
+        final Slot slot = new Slot(booking.getHotel().getId(), dayOf(booking.getBookingDate()));
+        final Slot previous = move(id, slot);
+        afterRollback(new Runnable() {
+            @Override
+            public void run() {
+                move(id, previous);
+            }
+        });
+    }
+
+    /**
+     * <p>Records that a booking no longer holds its hotel on its date.</p>
+     *
+     * @param booking The Booking that has been deleted
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void cancelled(Booking booking) {
+        final Long id = booking.getId();
+        final Slot previous = move(id, null);
+        afterRollback(new Runnable() {
+            @Override
+            public void run() {
+                move(id, previous);
+            }
+        });
+    }
+
+    /**
+     * <p>Moves a booking to a slot, or out of the index if the slot is null, and returns the slot it held.</p>
+     */
+    private Slot move(Long id, Slot slot) {
+        Slot previous = slot != null ? bookings.put(id, slot) : bookings.remove(id);
+        if (previous != null && !previous.equals(slot)) {
+            set(previous, false);
+        }
+        if (slot != null) {
+            set(slot, true);
+        }
+        return previous;
+    }
+
+    private void afterRollback(final Runnable undo) {
+        if (transactions.getTransactionKey() == null) {
+            return;
+        }
+        transactions.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    undo.run();
+                }
+            }
+        });
+    }
+
+    private boolean get(Slot slot) {
+        BitSet days = hotels.get(slot.hotelId);
+        if (days == null || slot.day < 0) {
+            return false;
+        }
+        synchronized (days) {
+            return days.get(slot.day);
+        }
+    }
+
+    private void set(Slot slot, boolean booked) {
+        if (slot.day < 0) {
+            // Before 1970, so never a date a booking can be made for.
+            return;
+        }
+        BitSet days = hotels.get(slot.hotelId);
+        if (days == null) {
+            BitSet created = new BitSet();
+            days = hotels.putIfAbsent(slot.hotelId, created);
+            if (days == null) {
+                days = created;
+            }
+        }
+        synchronized (days) {
+            days.set(slot.day, booked);
+        }
+    }
+
+    /**
+     * <p>Returns the number of days from 1970-01-01 to a date, in the time zone the dates of bookings are kept in.</p>
+     */
+    static int dayOf(Date date) {
+        long time = date.getTime();
+        return (int) Math.floor((double) (time + TimeZone.getDefault().getOffset(time)) / DAY);
+    }
+
+    /**
+     * <p>A hotel on a day.</p>
+     */
+    private static final class Slot {
+        private final Long hotelId;
+        private final int day;
+
+        private Slot(Long hotelId, int day) {
+            this.hotelId = hotelId;
+            this.day = day;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Slot)) {
+                return false;
+            }
+            Slot other = (Slot) o;
+            return hotelId.equals(other.hotelId) && day == other.day;
+        }
+
+        @Override
+        public int hashCode() {
+            return hotelId.hashCode() * 31 + day;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.booking;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * <p>Serialises the writes of bookings for the same hotel and date, so that checking a date is free and taking it
+ * cannot be interleaved with another booking doing the same, while bookings of other hotels and dates go ahead in
+ * parallel.</p>
+ *
+ * <p>Each hotel and date maps to one of a fixed number of locks, set with the system property
+ * <code>bookings.lock.stripes</code> (default 16 per core, rounded up to a power of two). Two slots may share a lock,
+ * which only costs them some waiting, but a slot never has two. A lock is held until the transaction that took it has
+ * committed or rolled back, so that the next booking of the slot is checked against what this one wrote. It is a
+ * {@link Semaphore} rather than a Lock as the transaction may end on another thread, such as the transaction reaper's
+ * when it times out. As the locks are not taken in any order, a transaction should write a single booking.</p>
+ *
+ * <p>The locks only cover this server. When <code>bookings.lock.mode</code> is <code>db</code>, as it should be when
+ * several servers share the database, the {@link BookingService} also locks the Hotel row with
+ * <code>SELECT ... FOR UPDATE</code> until the transaction ends, serialising the bookings of a hotel across the
+ * cluster, and the clash check and the search for free hotels query the database rather than the {@link BookingIndex}
+ * of this server.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see BookingService
+ */
+public final class BookingLocks {
+
+    /** Whether bookings also lock the row of their Hotel in the database. */
+    public static final boolean CLUSTERED = "db".equals(System.getProperty("bookings.lock.mode"));
+
+    private static final Semaphore[] STRIPES = new Semaphore[stripes()];
+
+    static {
+        for (int i = 0; i < STRIPES.length; i++) {
+            STRIPES[i] = new Semaphore(1);
+        }
+    }
+
+    private BookingLocks() {
+    }
+
+    /**
+     * <p>Takes the lock of a hotel on a date, unless the current transaction already holds it, and holds it until the
+     * transaction ends.</p>
+     *
+     * @param hotelId The id of the Hotel, may be null
+     * @param bookingDate The date, may be null
+     * @param transactions The registry of the current transaction
+     * @throws IllegalStateException If there is no transaction to hold the lock for
+     */
+    public static void lockUntilCompletion(Long hotelId, Date bookingDate,
+            TransactionSynchronizationRegistry transactions) {
+        if (transactions.getTransactionKey() == null) {
+            throw new IllegalStateException("A booking must be written in a transaction");
+        }
+        @SuppressWarnings("unchecked")
+        Set<Semaphore> held = (Set<Semaphore>) transactions.getResource(BookingLocks.class);
+        if (held == null) {
+            held = new HashSet<Semaphore>();
+            transactions.putResource(BookingLocks.class, held);
+        }
+        final Semaphore stripe = forSlot(hotelId, bookingDate);
+        if (held.contains(stripe)) {
+            return;
+        }
+        stripe.acquireUninterruptibly();
+        try {
+            transactions.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    stripe.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            // The transaction is already ending, so nothing would release the lock.
+            stripe.release();
+            throw e;
+        }
+        held.add(stripe);
+    }
+
+    /**
+     * <p>Returns the lock of a hotel on a date.</p>
+     */
+    static Semaphore forSlot(Long hotelId, Date bookingDate) {
+        int hash = (hotelId != null ? hotelId.hashCode() : 0) * 31
+                + (bookingDate != null ? BookingIndex.dayOf(bookingDate) : 0);
+        // Spread the high bits down, as consecutive dates and ids differ only in the low ones.
+        hash ^= hash >>> 16;
+        return STRIPES[hash & (STRIPES.length - 1)];
+    }
+
+    private static int stripes() {
+        int wanted = Integer.getInteger("bookings.lock.stripes", Runtime.getRuntime().availableProcessors() * 16);
+        int stripes = 1;
+        while (stripes < wanted && stripes < (1 << 16)) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
@@ -24,15 +24,20 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -42,6 +47,8 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.jboss.quickstarts.wfk.util.IdempotencyStore;
+
 /**
  * <p>This class exposes the functionality of {@link BookingService} over HTTP endpoints as a RESTful resource via
  * JAX-RS.</p>
@@ -69,11 +76,16 @@ import javax.ws.rs.core.Response;
 @Produces(MediaType.APPLICATION_JSON)
 @Stateless
 public class BookingRESTService {
+    private static final String CREATE_SCOPE = "POST /bookings";
+
     @Inject
     private @Named("logger") Logger log;
     
     @Inject
     private BookingService service;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
     
     /**
      * <p>Search for and return all the Bookings.  They are sorted alphabetically by name.</p>
@@ -148,17 +160,30 @@ public class BookingRESTService {
     /**
      * <p>Creates a new booking from the values provided. Performs validation and will return a JAX-RS response with either 200 (ok)
      * or with a map of fields, and related errors.</p>
+     *
+     * <p>A request sent again with the same Idempotency-Key header as one that created a booking is given the original
+     * 201 (created) response, without creating another booking (see {@link IdempotencyStore}). The response is only
+     * remembered once the booking has been committed, so a retry is never given a booking that was rolled back. The
+     * same key sent with a different customer, hotel or date is answered 422 (unprocessable entity).</p>
      * 
      * @param booking The Booking object, constructed automatically from JSON input, to be <i>created</i> via {@link BookingService#create(Booking)}
+     * @param idempotencyKey The optional Idempotency-Key header, identifying retries of the same request
      * @return A Response indicating the outcome of the create operation
      */
     @SuppressWarnings("unused")
     @POST
-    public Response createBooking(Booking booking) {
+    public Response createBooking(Booking booking, @HeaderParam(IdempotencyStore.HEADER) String idempotencyKey) {
         log.info("createBooking started. Booking = customer: " + booking.getCustomer().getId() + " hotel: " + booking.getHotel().getId() + " on " + booking.getBookingDate());
         if (booking == null) {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
+
+        Response replay = IdempotencyStore.claim(CREATE_SCOPE, idempotencyKey, IdempotencyStore.fingerprint(
+                booking.getCustomer().getId(), booking.getHotel().getId(), booking.getBookingDate()));
+        if (replay != null) {
+            log.info("createBooking repeated. Idempotency-Key = " + idempotencyKey);
+            return replay;
+        }
         
         Response.ResponseBuilder builder = null;
 
@@ -197,7 +222,36 @@ public class BookingRESTService {
             builder = Response.status(Response.Status.BAD_REQUEST).entity(responseObj);
         }
 
-        return builder.build();
+        Response response = builder.build();
+        completeAfterCommit(idempotencyKey, response);
+        return response;
+    }
+
+    /**
+     * <p>Records the response to a request with an Idempotency-Key once its transaction has ended: the response if the
+     * transaction committed, or nothing, releasing the key, if it rolled back.</p>
+     *
+     * @param idempotencyKey The Idempotency-Key header of the request, may be null
+     * @param response The Response given to the request
+     */
+    private void completeAfterCommit(final String idempotencyKey, final Response response) {
+        if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+            return;
+        }
+        transactions.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    IdempotencyStore.complete(CREATE_SCOPE, idempotencyKey, response);
+                } else {
+                    IdempotencyStore.release(CREATE_SCOPE, idempotencyKey);
+                }
+            }
+        });
     }
 
     /**
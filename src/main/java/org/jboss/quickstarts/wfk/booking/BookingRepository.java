@@ -25,6 +25,7 @@ import java.util.logging.Logger;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -32,6 +33,8 @@ import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
+import org.jboss.quickstarts.wfk.hotel.Hotel;
+
 /**
  * <p>This is a Repository class and connects the Service/Control layer (see {@link BookingService} with the
  * Domain/Entity Object (see {@link Booking}).<p/>
@@ -87,6 +90,50 @@ public class BookingRepository {
         return query.getSingleResult();
     }
 
+    /**
+     * <p>Checks in the database whether a hotel is booked on a date by any booking other than the given one.</p>
+     *
+     * @param hotelId The id of the Hotel
+     * @param bookingDate The date
+     * @param bookingId The id of the Booking being checked, which does not count against itself, or null for a new one
+     * @return true if another booking holds the hotel on the date
+     */
+    boolean isBooked(Long hotelId, Date bookingDate, Long bookingId) {
+        TypedQuery<Booking> query = em.createNamedQuery(Booking.FIND_BY_ID_AND_DATE, Booking.class);
+        query = query.setParameter("hotelId", hotelId);
+        query = query.setParameter("bookingDate", bookingDate);
+        for (Booking booking : query.getResultList()) {
+            if (!booking.getId().equals(bookingId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Checks in a single query that both the Customer and the Hotel of a booking exist.</p>
+     *
+     * @param customerId The id of the Customer
+     * @param hotelId The id of the Hotel
+     * @return true if both exist, false if either does not
+     */
+    boolean customerAndHotelExist(Long customerId, Long hotelId) {
+        TypedQuery<Object[]> query = em.createNamedQuery(Booking.FIND_CUSTOMER_AND_HOTEL, Object[].class);
+        query = query.setParameter("customerId", customerId);
+        query = query.setParameter("hotelId", hotelId);
+        return !query.setMaxResults(1).getResultList().isEmpty();
+    }
+
+    /**
+     * <p>Locks the row of a Hotel with <code>SELECT ... FOR UPDATE</code> until the current transaction ends, so that
+     * no other server books the hotel in the meantime.</p>
+     *
+     * @param hotelId The id of the Hotel to lock
+     */
+    void lockHotel(Long hotelId) {
+        em.find(Hotel.class, hotelId, LockModeType.PESSIMISTIC_WRITE);
+    }
+
     /**
      * <p>Returns a List of Booking objects, specified by a long CustomerId.<p/>
      *
@@ -118,8 +165,9 @@ public class BookingRepository {
     Booking create(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
         log.info("BookingRepository.create() - Creating " + booking.getCustomer().getId() + " customer booking hotel: " + booking.getHotel().getId());
         
-        // Write the booking to the database.
+        // Write the booking to the database now, so that a clash with another booking is reported here.
         em.persist(booking);
+        em.flush();
         
         return booking;
     }
@@ -140,8 +188,9 @@ public class BookingRepository {
     Booking update(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
         log.info("BookingRepository.update() - Updating booking number " + booking.getId());
         
-        // Either update the booking or add it if it can't be found.
+        // Either update the booking or add it if it can't be found, writing it now so that a clash is reported here.
         em.merge(booking);
+        em.flush();
         
         return booking;
     }
@@ -18,13 +18,17 @@
 package org.jboss.quickstarts.wfk.booking;
 
 
+import java.sql.SQLException;
 import java.util.List;
 import java.util.logging.Logger;
 
+import javax.annotation.Resource;
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.validation.ConstraintViolationException;
+import javax.persistence.PersistenceException;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.validation.ValidationException;
 
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -38,6 +42,9 @@ import org.apache.http.impl.client.CloseableHttpClient;
  * <p>There are no access modifiers on the methods, making them 'package' scope.  They should only be accessed by a
  * Boundary / Web Service class with public methods.</p>
  *
+ * <p>A booking is checked and written while holding the {@link BookingLocks} lock of its hotel and date, which is
+ * released when the transaction ends.</p>
+ *
  * @author Geoffrey Prytherch
  * @see BookingValidator
  * @see BookingRepository
@@ -56,6 +63,12 @@ public class BookingService {
     @Inject
     private BookingRepository crud;
 
+    @Inject
+    private BookingIndex index;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
     @Inject
     private @Named("httpClient") CloseableHttpClient httpClient;
     
@@ -100,11 +113,20 @@ public class BookingService {
     Booking create(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
     	log.info("BookingService.create() - Creating " + booking.getCustomer().getId() + " customer booking hotel: " + booking.getHotel().getId());
         
+        lock(booking);
+
         // Check to make sure the data fits with the parameters in the Booking model and passes validation.
         validator.validateBooking(booking);
 
-        // Write the booking to the database.
-        return crud.create(booking);
+        // Write the booking to the database, and mark the hotel as taken on the date.
+        Booking created;
+        try {
+            created = crud.create(booking);
+        } catch (PersistenceException e) {
+            throw clashOrRethrow(e);
+        }
+        index.booked(created);
+        return created;
     }
 
     /**
@@ -119,11 +141,20 @@ public class BookingService {
     Booking update(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
     	log.info("BookingService.update() - Updating booking number " + booking.getId());
         
+        lock(booking);
+
         // Check to make sure the data fits with the parameters in the Booking model and passes validation.
         validator.validateBooking(booking);
 
-        // Either update the booking or add it if it can't be found.
-        return crud.update(booking);
+        // Either update the booking or add it if it can't be found, and move it in the index.
+        Booking updated;
+        try {
+            updated = crud.update(booking);
+        } catch (PersistenceException e) {
+            throw clashOrRethrow(e);
+        }
+        index.booked(updated);
+        return updated;
     }
 
     /**
@@ -140,6 +171,7 @@ public class BookingService {
         
         if (booking.getId() != null) {
             deletedBooking = crud.delete(booking);
+            index.cancelled(deletedBooking);
         } else {
             log.info("BookingService.delete() - No ID was found so can't Delete.");
         }
@@ -147,4 +179,39 @@ public class BookingService {
         return deletedBooking;
     }
 
+    /**
+     * <p>Takes the {@link BookingLocks} lock of the hotel and date of a Booking, so that no other booking of them is
+     * checked or written until the transaction writing this one has ended, and in clustered mode locks the Hotel row
+     * until then too.</p>
+     *
+     * @param booking The Booking about to be checked and written
+     */
+    private void lock(Booking booking) {
+        Long hotelId = booking.getHotel() != null ? booking.getHotel().getId() : null;
+        BookingLocks.lockUntilCompletion(hotelId, booking.getBookingDate(), transactions);
+        if (BookingLocks.CLUSTERED && hotelId != null) {
+            crud.lockHotel(hotelId);
+        }
+    }
+
+    /**
+     * <p>Turns the violation of the unique index on hotelId and bookingDate, hit when another booking took the hotel on
+     * the date after this one was validated, into the same ValidationException the validator raises. Any other failure
+     * is passed on as it is.</p>
+     *
+     * @param e The failure to write a Booking
+     * @return The exception to throw
+     */
+    private RuntimeException clashOrRethrow(PersistenceException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            // SQL state class 23 is an integrity constraint violation, and the hotel and customer have been checked.
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                    && ((SQLException) cause).getSQLState().startsWith("23")) {
+                log.info("BookingService - Date/Hotel combination taken concurrently: " + cause.getMessage());
+                return new ValidationException("Date/Hotel combination already exists");
+            }
+        }
+        return e;
+    }
+
 }
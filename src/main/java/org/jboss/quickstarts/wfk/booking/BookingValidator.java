@@ -48,6 +48,9 @@ public class BookingValidator {
 
     @Inject
     private BookingRepository crud;
+
+    @Inject
+    private BookingIndex index;
     
     @Inject 
     private CustomerRepository custRep;
@@ -81,21 +84,29 @@ public class BookingValidator {
             throw new ValidationException("Date/Hotel combination already exists");
         }
         
-         //Make sure there is an associated Customer to the provided customerId
-       if(!customerExists(booking.getCustomer().getId()))
-        {
-        	throw new ValidationException("Customer ID does not exist in the database");
-        }
-        
-         //Make sure there is an associated Hotel to the provided hotelId
-        if(!hotelExists(booking.getHotel().getId()))
-        {
-        	throw new ValidationException("Hotel ID does not exist in the database");
+        // Make sure there is an associated Customer and Hotel, checking both with one query. Only when one is missing
+        // are they looked up again, to tell which.
+        if (!crud.customerAndHotelExist(booking.getCustomer().getId(), booking.getHotel().getId())) {
+            //Make sure there is an associated Customer to the provided customerId
+            if (!customerExists(booking.getCustomer().getId())) {
+                throw new ValidationException("Customer ID does not exist in the database");
+            }
+
+            //Make sure there is an associated Hotel to the provided hotelId
+            if (!hotelExists(booking.getHotel().getId())) {
+                throw new ValidationException("Hotel ID does not exist in the database");
+            }
         }
     }
 
     /**
      * <p>Checks if a booking with the same hotelId and bookingDate is already registered.</p>
+     *
+     * <p>The check is made against the {@link BookingIndex} held in memory, rather than with a query. It turns away
+     * nearly every clash early; one made by a booking written at the same moment is caught by the unique index on the
+     * Booking table (see {@link BookingService}). When <code>bookings.lock.mode</code> is <code>db</code> the index
+     * does not see the bookings written by other servers, so the check is made with a query instead, while the Hotel
+     * row is locked (see {@link BookingLocks}).</p>
      * 
      * @param hotelId The hotelId of the new Booking
      * @param bookingDate The date of the new Booking
@@ -103,25 +114,10 @@ public class BookingValidator {
      * @return boolean which represents whether the combination of parameters was found, and if so if it belongs to the user with id
      */
     boolean bookingAlreadyExists(Long hotelId, Date bookingDate, Long id) {
-        Booking booking = null;
-        Booking bookingWithID = null;
-        try {
-            booking = crud.findByIdAndDate(hotelId, bookingDate);
-        } catch (NoResultException e) {
-            // ignore
+        if (BookingLocks.CLUSTERED) {
+            return crud.isBooked(hotelId, bookingDate, id);
         }
-
-        if (booking != null && id != null) {
-            try {
-                bookingWithID = crud.findById(id);
-                if (bookingWithID != null && bookingWithID.getHotel().getId().equals(hotelId) && bookingWithID.getBookingDate().equals(bookingDate)) {
-                    booking = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
-            }
-        }
-        return booking != null;
+        return index.isBooked(hotelId, bookingDate, id);
     }
     
     /**
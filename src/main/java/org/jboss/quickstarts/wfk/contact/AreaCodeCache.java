@@ -0,0 +1,156 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Remembers the state of each area code (NPA) looked up remotely, so that only the first contact written with an
+ * area code waits on the remote lookup.</p>
+ *
+ * <p>There are only a few hundred area codes, so after warming up nearly every lookup is answered from memory. An area
+ * code the lookup does not know is remembered too, for <code>contacts.areacodes.cache.negativeTtl</code> ms (default
+ * 3600000), so that a bad number is not looked up again on every write but a newly opened area code is picked up. A
+ * lookup that fails is not remembered. The least recently used entries are dropped once the cache holds
+ * <code>contacts.areacodes.cache.maxSize</code> (default 500). Two writes missing on the same area code at once may
+ * both look it up; the answer is the same either way.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see ContactService
+ * @see AreaCodeDirectory
+ */
+public final class AreaCodeCache {
+
+    private static final int MAX_SIZE = Integer.getInteger("contacts.areacodes.cache.maxSize", 500);
+    private static final long NEGATIVE_TTL = Long.getLong("contacts.areacodes.cache.negativeTtl", 3600000L);
+
+    private static final Map<Integer, Cached> ENTRIES = new LinkedHashMap<Integer, Cached>(16, 0.75f, true) {
+        /** Default value included to remove warning. Remove or modify at will. **/
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Cached> eldest) {
+            if (size() > MAX_SIZE) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    // Guarded by ENTRIES.
+    private static long hits;
+    private static long negativeHits;
+    private static long misses;
+    private static long evictions;
+
+    private AreaCodeCache() {
+    }
+
+    /**
+     * <p>Returns the state of an area code, looking it up through the given Loader only when it is not remembered.</p>
+     *
+     * @param npa The area code
+     * @param loader Looks the area code up
+     * @return The two letter code of the state, or null if the area code is not known
+     * @throws Exception If the area code is not remembered and the lookup fails
+     */
+    public static String get(int npa, Loader loader) throws Exception {
+        return get(npa, loader, System.currentTimeMillis());
+    }
+
+    /**
+     * <p>Returns the state of an area code as {@link #get(int, Loader)} does, taking the time as given.</p>
+     */
+    static String get(int npa, Loader loader, long now) throws Exception {
+        Integer key = Integer.valueOf(npa);
+        synchronized (ENTRIES) {
+            Cached entry = ENTRIES.get(key);
+            if (entry != null && entry.state != null) {
+                hits++;
+                return entry.state;
+            }
+            if (entry != null && now - entry.loaded < NEGATIVE_TTL) {
+                negativeHits++;
+                return null;
+            }
+            misses++;
+        }
+
+        String state = loader.load(npa);
+        synchronized (ENTRIES) {
+            ENTRIES.put(key, new Cached(state, now));
+        }
+        return state;
+    }
+
+    /**
+     * <p>Forgets every area code, so the next lookup of each is made again.</p>
+     */
+    public static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+    }
+
+    /**
+     * <p>Returns the number of area codes remembered, and of lookups answered, answered as unknown, and missed, and of
+     * entries dropped to make room.</p>
+     *
+     * @return A Map of statistic name to value
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        synchronized (ENTRIES) {
+            long lookups = hits + negativeHits + misses;
+            stats.put("size", ENTRIES.size());
+            stats.put("maxSize", MAX_SIZE);
+            stats.put("hits", hits);
+            stats.put("negativeHits", negativeHits);
+            stats.put("misses", misses);
+            stats.put("evictions", evictions);
+            stats.put("hitRate", lookups == 0 ? 0 : (double) (hits + negativeHits) / lookups);
+        }
+        return stats;
+    }
+
+    /**
+     * <p>Looks up an area code that is not remembered.</p>
+     */
+    public interface Loader {
+        /**
+         * @param npa The area code
+         * @return The two letter code of the state, or null if the area code is not known
+         * @throws Exception If the lookup fails, in which case nothing is remembered
+         */
+        String load(int npa) throws Exception;
+    }
+
+    private static final class Cached {
+        private final String state;
+        private final long loaded;
+
+        private Cached(String state, long loaded) {
+            this.state = state;
+            this.loaded = loaded;
+        }
+    }
+}
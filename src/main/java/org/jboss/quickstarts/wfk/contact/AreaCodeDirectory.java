@@ -0,0 +1,214 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * <p>Maps the area code (NPA) of a North American phone number to the state, territory or province it serves, without
+ * leaving the server.</p>
+ *
+ * <p>The table is read from <code>areacodes.csv</code> on the classpath, one <code>npa,state</code> pair per line, or
+ * from the file named by the system property <code>contacts.areacodes.file</code> when it is set. An area code is three
+ * digits, so the table is an array indexed by it, holding the position of the state in a list of the distinct states.
+ * {@link #refresh()} reads the table again and swaps it in whole, so lookups never see it half loaded.</p>
+ *
+ * <p>The table is what {@link ContactService} uses unless <code>contacts.areacodes.source</code> is set to
+ * <code>remote</code>, in which case area codes are looked up with allareacodes.com and remembered in the
+ * {@link AreaCodeCache}.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see ContactService
+ * @see AreaCodeCache
+ * @see AreaCodeRESTService
+ */
+public final class AreaCodeDirectory {
+
+    private static final Logger log = Logger.getLogger(AreaCodeDirectory.class.getName());
+
+    private static final String RESOURCE = "/areacodes.csv";
+
+    private static volatile Table table;
+
+    static {
+        try {
+            refresh();
+        } catch (IOException e) {
+            log.severe("AreaCodeDirectory - could not load the area codes: " + e);
+            table = new Table(new short[1000], new String[] {null}, "none");
+        }
+    }
+
+    private AreaCodeDirectory() {
+    }
+
+    /**
+     * <p>Returns the state served by the area code of a phone number in the form (NPA) NXX-XXXX.</p>
+     *
+     * @param phoneNumber The phone number
+     * @return The two letter code of the state, or null if the area code is not known
+     */
+    public static String stateOf(String phoneNumber) {
+        return stateOf(npaOf(phoneNumber));
+    }
+
+    /**
+     * <p>Returns the area code of a phone number in the form (NPA) NXX-XXXX.</p>
+     *
+     * @param phoneNumber The phone number
+     * @return The area code, or -1 if the phone number does not start with one
+     */
+    public static int npaOf(String phoneNumber) {
+        if (phoneNumber == null || phoneNumber.length() < 4 || phoneNumber.charAt(0) != '(') {
+            return -1;
+        }
+        int npa = 0;
+        for (int i = 1; i < 4; i++) {
+            char c = phoneNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            npa = npa * 10 + (c - '0');
+        }
+        return npa;
+    }
+
+    /**
+     * <p>Returns the state served by an area code.</p>
+     *
+     * @param npa The area code
+     * @return The two letter code of the state, or null if the area code is not known
+     */
+    public static String stateOf(int npa) {
+        Table current = table;
+        if (npa < 0 || npa >= current.states.length) {
+            return null;
+        }
+        return current.names[current.states[npa]];
+    }
+
+    /**
+     * <p>Reads the table of area codes again, from the file named by <code>contacts.areacodes.file</code> if it is set,
+     * otherwise from the classpath. The table in use is kept if the new one cannot be read.</p>
+     *
+     * @return The number of area codes read
+     * @throws IOException If the table cannot be read, or has a line that is not an area code and a state
+     */
+    public static synchronized int refresh() throws IOException {
+        String file = System.getProperty("contacts.areacodes.file");
+        InputStream in = file != null ? new FileInputStream(file)
+                : AreaCodeDirectory.class.getResourceAsStream(RESOURCE);
+        if (in == null) {
+            throw new IOException(RESOURCE + " is not on the classpath");
+        }
+        Table loaded;
+        try {
+            loaded = read(in, file != null ? file : "classpath:" + RESOURCE);
+        } finally {
+            in.close();
+        }
+        table = loaded;
+        log.info("AreaCodeDirectory - read " + loaded.size + " area codes from " + loaded.source);
+        return loaded.size;
+    }
+
+    /**
+     * <p>Returns where the table was read from, when, and how many area codes and states it holds.</p>
+     *
+     * @return A Map of statistic name to value
+     */
+    public static Map<String, Object> getStats() {
+        Table current = table;
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        stats.put("source", current.source);
+        stats.put("loaded", current.loaded);
+        stats.put("areaCodes", current.size);
+        stats.put("states", current.names.length - 1);
+        return stats;
+    }
+
+    private static Table read(InputStream in, String source) throws IOException {
+        short[] states = new short[1000];
+        List<String> names = new ArrayList<String>();
+        // Position 0 stands for an area code with no state.
+        names.add(null);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            int comma = line.indexOf(',');
+            int npa;
+            try {
+                npa = comma > 0 ? Integer.parseInt(line.substring(0, comma).trim()) : -1;
+            } catch (NumberFormatException e) {
+                npa = -1;
+            }
+            String state = comma > 0 ? line.substring(comma + 1).trim() : "";
+            if (npa < 200 || npa > 999 || state.length() == 0) {
+                throw new IOException(source + " line " + lineNumber + " is not an area code and a state: " + line);
+            }
+            int index = names.indexOf(state);
+            if (index < 0) {
+                index = names.size();
+                names.add(state);
+            }
+            states[npa] = (short) index;
+        }
+        return new Table(states, names.toArray(new String[names.size()]), source);
+    }
+
+    /**
+     * <p>One reading of the table, never changed once built.</p>
+     */
+    private static final class Table {
+        private final short[] states;
+        private final String[] names;
+        private final String source;
+        private final Date loaded = new Date();
+        private final int size;
+
+        private Table(short[] states, String[] names, String source) {
+            this.states = states;
+            this.names = names;
+            this.source = source;
+            int count = 0;
+            for (short state : states) {
+                if (state != 0) {
+                    count++;
+                }
+            }
+            this.size = count;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Exposes the {@link AreaCodeDirectory} that gives each contact its state, and the {@link AreaCodeCache} used in
+ * its place when area codes are looked up remotely, and lets the table be read again without a redeployment.</p>
+ *
+ * <p>Full path for accessing the directory is rest/management/areacodes .</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see AreaCodeDirectory
+ */
+@Path("/management/areacodes")
+@Produces(MediaType.APPLICATION_JSON)
+@Stateless
+public class AreaCodeRESTService {
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    /**
+     * <p>Returns where the table of area codes was read from, when, and how many area codes and states it holds, and
+     * how well the cache of remote lookups is doing.</p>
+     *
+     * @return A Response containing the directory and cache statistics
+     */
+    @GET
+    public Response retrieveAreaCodeStats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("table", AreaCodeDirectory.getStats());
+        stats.put("cache", AreaCodeCache.getStats());
+        return Response.ok(stats).build();
+    }
+
+    /**
+     * <p>Reads the table of area codes again, and forgets the area codes looked up remotely. If the table cannot be
+     * read the one in use is kept, and a 500 (internal server error) is returned with the reason.</p>
+     *
+     * @return A Response containing the statistics of the table now in use
+     */
+    @POST
+    @Path("/refresh")
+    public Response refreshAreaCodes() {
+        AreaCodeCache.clear();
+        try {
+            AreaCodeDirectory.refresh();
+        } catch (IOException e) {
+            log.info("AreaCodeRESTService - refresh failed: " + e);
+            Map<String, String> responseObj = new HashMap<String, String>();
+            responseObj.put("error", e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(responseObj).build();
+        }
+        return Response.ok(AreaCodeDirectory.getStats()).build();
+    }
+}
@@ -61,6 +61,9 @@ public class ContactService {
     @Inject
     private ContactValidator validator;
 
+    /** Whether area codes are looked up with allareacodes.com rather than in the bundled table. */
+    private static final boolean REMOTE_AREA_CODES = "remote".equals(System.getProperty("contacts.areacodes.source"));
+
     @Inject
     private ContactRepository crud;
 
@@ -137,23 +140,8 @@ public class ContactService {
         // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
 
-        //Perform a rest call to get the state of the contact from the allareacodes.com API
-        URI uri = new URIBuilder()
-                .setScheme("http")
-                .setHost("www.allareacodes.com")
-                .setPath("/api/1.0/api.json")
-                .setParameter("npa", contact.getPhoneNumber().substring(1,4))
-                .setParameter("tracking_email", "h.firth@ncl.ac.uk")
-                .setParameter("tracking_url", "http://www.ncl.ac.uk/undergraduate/modules/module/CSC8104")
-                .build();
-        HttpGet req = new HttpGet(uri);
-        CloseableHttpResponse response = httpClient.execute(req);
-        String responseBody = EntityUtils.toString(response.getEntity());
-        JSONObject responseJson = new JSONObject(responseBody);
-        JSONArray areaCodes = responseJson.getJSONArray("area_codes");
-        contact.setState(areaCodes.getJSONObject(0).getString("state"));
-        HttpClientUtils.closeQuietly(response);
-
+        // Look up the state of the contact from the area code of their phone number.
+        contact.setState(stateOf(contact));
 
         // Write the contact to the database.
         return crud.create(contact);
@@ -174,22 +162,8 @@ public class ContactService {
         // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
 
-        //Perform a rest call to get the state of the contact from the allareacodes.com API
-        URI uri = new URIBuilder()
-                .setScheme("http")
-                .setHost("www.allareacodes.com")
-                .setPath("/api/1.0/api.json")
-                .setParameter("npa", contact.getPhoneNumber().substring(1,4))
-                .setParameter("tracking_email", "h.firth@ncl.ac.uk")
-                .setParameter("tracking_url", "http://www.ncl.ac.uk/undergraduate/modules/module/CSC8104")
-                .build();
-        HttpGet req = new HttpGet(uri);
-        CloseableHttpResponse response = httpClient.execute(req);
-        String responseBody = EntityUtils.toString(response.getEntity());
-        JSONObject responseJson = new JSONObject(responseBody);
-        JSONArray areaCodes = responseJson.getJSONArray("area_codes");
-        contact.setState(areaCodes.getJSONObject(0).getString("state"));
-        HttpClientUtils.closeQuietly(response);
+        // Look up the state of the contact from the area code of their phone number.
+        contact.setState(stateOf(contact));
 
         // Either update the contact or add it if it can't be found.
         return crud.update(contact);
@@ -216,4 +190,65 @@ public class ContactService {
         return deletedContact;
     }
 
+    /**
+     * <p>Returns the state served by the area code of the Contact's phone number, from the
+     * {@link AreaCodeDirectory}, or when <code>contacts.areacodes.source</code> is <code>remote</code> from
+     * allareacodes.com through the {@link AreaCodeCache}.</p>
+     *
+     * @param contact The Contact to find the state of
+     * @return The two letter code of the state
+     * @throws IllegalArgumentException If the area code is not a known one
+     * @throws Exception If the area code had to be looked up remotely and the lookup failed
+     */
+    private String stateOf(Contact contact) throws Exception {
+        String state;
+        int npa = AreaCodeDirectory.npaOf(contact.getPhoneNumber());
+        if (npa < 0) {
+            // Not a phone number with an area code, so nothing to look up or remember.
+            state = null;
+        } else if (REMOTE_AREA_CODES) {
+            state = AreaCodeCache.get(npa, new AreaCodeCache.Loader() {
+                @Override
+                public String load(int npa) throws Exception {
+                    return lookUpState(npa);
+                }
+            });
+        } else {
+            state = AreaCodeDirectory.stateOf(npa);
+        }
+        if (state == null) {
+            throw new IllegalArgumentException("Unknown area code in " + contact.getPhoneNumber());
+        }
+        return state;
+    }
+
+    /**
+     * <p>Asks the allareacodes.com API for the state of an area code.</p>
+     *
+     * @param npa The area code
+     * @return The two letter code of the state, or null if the API does not know the area code
+     * @throws Exception If the API cannot be reached or its answer cannot be read
+     */
+    private String lookUpState(int npa) throws Exception {
+        URI uri = new URIBuilder()
+                .setScheme("http")
+                .setHost("www.allareacodes.com")
+                .setPath("/api/1.0/api.json")
+                .setParameter("npa", String.valueOf(npa))
+                .setParameter("tracking_email", "h.firth@ncl.ac.uk")
+                .setParameter("tracking_url", "http://www.ncl.ac.uk/undergraduate/modules/module/CSC8104")
+                .build();
+        CloseableHttpResponse response = httpClient.execute(new HttpGet(uri));
+        try {
+            JSONObject responseJson = new JSONObject(EntityUtils.toString(response.getEntity()));
+            JSONArray areaCodes = responseJson.optJSONArray("area_codes");
+            if (areaCodes == null || areaCodes.length() == 0) {
+                return null;
+            }
+            return areaCodes.getJSONObject(0).getString("state");
+        } finally {
+            HttpClientUtils.closeQuietly(response);
+        }
+    }
+
 }
@@ -42,7 +42,11 @@ import javax.xml.bind.annotation.XmlRootElement;
 @Entity
 @NamedQueries({
     @NamedQuery(name = Hotel.FIND_ALL, query = "SELECT c FROM Hotel c ORDER BY c.name ASC"),
-    @NamedQuery(name = Hotel.FIND_BY_PHONE_NUMBER, query = "SELECT c FROM Hotel c WHERE c.phoneNumber = :phoneNumber")
+    @NamedQuery(name = Hotel.FIND_ALL_BY_NAME_AND_ID, query = "SELECT c FROM Hotel c ORDER BY c.name ASC, c.id ASC"),
+    @NamedQuery(name = Hotel.FIND_BY_POSTCODE, query = "SELECT c FROM Hotel c WHERE c.postcode = :postcode ORDER BY c.name ASC, c.id ASC"),
+    @NamedQuery(name = Hotel.FIND_BY_PHONE_NUMBER, query = "SELECT c FROM Hotel c WHERE c.phoneNumber = :phoneNumber"),
+    @NamedQuery(name = Hotel.FIND_BOOKED, query = "SELECT DISTINCT b.hotel.id FROM Booking b WHERE b.hotel IN :hotels"
+            + " AND b.bookingDate BETWEEN :from AND :to")
 })
 @XmlRootElement
 @Table(name = "Hotel", uniqueConstraints = @UniqueConstraint(columnNames = "phoneNumber"))
@@ -52,6 +56,9 @@ public class Hotel implements Serializable {
     
     public static final String FIND_ALL = "Hotel.findAll";
     public static final String FIND_BY_PHONE_NUMBER = "Hotel.findByPhoneNumber";
+    public static final String FIND_ALL_BY_NAME_AND_ID = "Hotel.findAllByNameAndId";
+    public static final String FIND_BY_POSTCODE = "Hotel.findByPostcode";
+    public static final String FIND_BOOKED = "Hotel.findBooked";
 
     /*
      * The  error messages match the ones in the UI so that the user isn't confused by two similar error messages for
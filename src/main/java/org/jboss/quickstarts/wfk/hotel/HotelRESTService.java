@@ -18,7 +18,11 @@
  */
 package org.jboss.quickstarts.wfk.hotel;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,12 +36,14 @@ import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.WebApplicationException;
@@ -74,6 +80,9 @@ public class HotelRESTService {
     
     @Inject
     private HotelService service;
+
+    /** The most Hotels returned in one page of an availability search. */
+    private static final int MAX_PAGE_SIZE = 100;
     
     /**
      * <p>Search for and return all the Hotels.  They are sorted alphabetically by name.</p>
@@ -108,6 +117,51 @@ public class HotelRESTService {
         return Response.ok(Hotel).build();
     }*/
     
+    /**
+     * <p>Search for and return the Hotels that are free on every day from one date to another, optionally only those
+     * with a given postcode. They are sorted alphabetically by name and returned a page at a time.</p>
+     *
+     * <p>The response holds the page of "hotels", the "offset" and "limit" it was asked for with, and whether there are
+     * "more" after it. A missing or malformed date, or a last date before the first, gives a 400 (bad request).</p>
+     *
+     * @param from The first date, as yyyy-MM-dd
+     * @param to The last date, as yyyy-MM-dd, by default the first
+     * @param postcode The postcode of the Hotels to return, or all if not given
+     * @param offset The number of free Hotels to skip
+     * @param limit The most Hotels to return, up to 100
+     * @return A Response containing a page of free Hotels
+     */
+    @GET
+    @Path("/available")
+    public Response retrieveAvailableHotels(@QueryParam("from") String from, @QueryParam("to") String to,
+            @QueryParam("postcode") String postcode, @QueryParam("offset") @DefaultValue("0") int offset,
+            @QueryParam("limit") @DefaultValue("20") int limit) {
+        Date first;
+        Date last;
+        try {
+            first = parseDate("from", from);
+            last = to == null ? first : parseDate("to", to);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+        if (last.before(first)) {
+            return badRequest("to must not be before from");
+        }
+        if (offset < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return badRequest("offset must not be negative, and limit must be from 1 to " + MAX_PAGE_SIZE);
+        }
+
+        // Ask for one more than the page so that we know whether there is another.
+        List<Hotel> hotels = service.findAvailable(first, last, postcode, offset, limit + 1);
+        boolean more = hotels.size() > limit;
+        Map<String, Object> page = new LinkedHashMap<String, Object>();
+        page.put("hotels", more ? hotels.subList(0, limit) : hotels);
+        page.put("offset", offset);
+        page.put("limit", limit);
+        page.put("more", more);
+        return Response.ok(page).build();
+    }
+
     /**
      * <p>Search for and return a Hotel identified by id.</p>
      * 
@@ -266,5 +320,22 @@ public class HotelRESTService {
         return Response.status(Response.Status.BAD_REQUEST).entity(responseObj);
     }
 
+    private static Date parseDate(String name, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException(name + " is required, as yyyy-MM-dd");
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setLenient(false);
+        try {
+            return format.parse(value);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(name + " must be a date, as yyyy-MM-dd");
+        }
+    }
 
+    private static Response badRequest(String error) {
+        Map<String, String> responseObj = new HashMap<String, String>();
+        responseObj.put("error", error);
+        return Response.status(Response.Status.BAD_REQUEST).entity(responseObj).build();
+    }
 }
@@ -21,6 +21,7 @@ package org.jboss.quickstarts.wfk.hotel;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.TemporalType;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -28,7 +29,10 @@ import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -60,6 +64,41 @@ public class HotelRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns one page of the persisted {@link Hotel} objects, sorted alphabetically by name and then by id so that
+     * the pages do not overlap.</p>
+     *
+     * @param postcode The postcode of the Hotels to return, or null for all
+     * @param first The position of the first Hotel to return
+     * @param max The most Hotels to return
+     * @return List of Hotel objects
+     */
+    List<Hotel> findPage(String postcode, int first, int max) {
+        TypedQuery<Hotel> query = postcode == null
+                ? em.createNamedQuery(Hotel.FIND_ALL_BY_NAME_AND_ID, Hotel.class)
+                : em.createNamedQuery(Hotel.FIND_BY_POSTCODE, Hotel.class).setParameter("postcode", postcode);
+        return query.setFirstResult(first).setMaxResults(max).getResultList();
+    }
+
+    /**
+     * <p>Returns the ids of those of the given Hotels that are booked on any day from one date to another.</p>
+     *
+     * @param hotels The Hotels to check
+     * @param from The first date
+     * @param to The last date
+     * @return The ids of the booked Hotels
+     */
+    Set<Long> findBooked(List<Hotel> hotels, Date from, Date to) {
+        if (hotels.isEmpty()) {
+            return new HashSet<Long>();
+        }
+        TypedQuery<Long> query = em.createNamedQuery(Hotel.FIND_BOOKED, Long.class);
+        query = query.setParameter("hotels", hotels);
+        query = query.setParameter("from", from, TemporalType.DATE);
+        query = query.setParameter("to", to, TemporalType.DATE);
+        return new HashSet<Long>(query.getResultList());
+    }
+
     /**
      * <p>Returns a single Hotel object, specified by a Long id.<p/>
      *
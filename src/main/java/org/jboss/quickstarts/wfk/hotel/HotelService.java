@@ -26,7 +26,13 @@ import javax.inject.Named;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
+import org.jboss.quickstarts.wfk.booking.BookingIndex;
+import org.jboss.quickstarts.wfk.booking.BookingLocks;
+
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import java.util.logging.Logger;
 
@@ -48,6 +54,9 @@ import java.util.logging.Logger;
 @Dependent
 public class HotelService {
 
+    /** The number of hotels read at a time when looking for free ones. */
+    private static final int AVAILABILITY_CHUNK = 100;
+
     @Inject
     private @Named("logger") Logger log;
 
@@ -57,6 +66,9 @@ public class HotelService {
     @Inject
     private HotelRepository crud;
 
+    @Inject
+    private BookingIndex bookings;
+
     @Inject
     private @Named("httpClient") CloseableHttpClient httpClient;
     
@@ -69,6 +81,46 @@ public class HotelService {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Returns the Hotels with no booking on any day from one date to another, sorted alphabetically by name.<p/>
+     *
+     * <p>Hotels are read a page at a time and checked against the {@link BookingIndex}, so no bookings are read and
+     * only as many hotels as it takes to fill the page. When <code>bookings.lock.mode</code> is <code>db</code> the
+     * index does not see the bookings written by other servers, so each page is checked with a query instead.<p/>
+     *
+     * @param from The first date
+     * @param to The last date
+     * @param postcode The postcode of the Hotels to return, or null for all
+     * @param offset The number of free Hotels to skip
+     * @param max The most Hotels to return
+     * @return List of free Hotel objects
+     */
+    List<Hotel> findAvailable(Date from, Date to, String postcode, int offset, int max) {
+        List<Hotel> available = new ArrayList<Hotel>(max);
+        int skipped = 0;
+        int first = 0;
+        int chunk = Math.max(max, AVAILABILITY_CHUNK);
+        while (available.size() < max) {
+            List<Hotel> page = crud.findPage(postcode, first, chunk);
+            Set<Long> booked = BookingLocks.CLUSTERED ? crud.findBooked(page, from, to) : null;
+            for (Hotel hotel : page) {
+                if (booked != null ? booked.contains(hotel.getId()) : !bookings.isFree(hotel.getId(), from, to)) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                } else if (available.size() < max) {
+                    available.add(hotel);
+                }
+            }
+            if (page.size() < chunk) {
+                break;
+            }
+            first += chunk;
+        }
+        return available;
+    }
+
     /**
      * <p>Returns a single Hotel object, specified by a Long id.<p/>
      * 
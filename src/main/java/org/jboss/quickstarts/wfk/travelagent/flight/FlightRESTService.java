@@ -29,11 +29,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
-import javax.ws.rs.WebApplicationException;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierClient;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierPayload;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SuspendedResponseCallback;
+import org.jboss.resteasy.annotations.Suspend;
+import org.jboss.resteasy.spi.AsynchronousResponse;
 
 /**
  * <p>This class exposes the functionality of {@link CustomerService} over HTTP endpoints as a RESTful resource via
@@ -69,37 +70,32 @@ public class FlightRESTService {
     private FlightService service;    
     
     /**
-     * <p>Search for and return all the Customers.  They are sorted alphabetically by name.</p>
+     * <p>Search for and return all the Flights.</p>
+     *
+     * <p>The request is suspended while the flight supplier is called, so no request thread is held waiting on it. The
+     * supplier's response is passed through unparsed.</p>
      * 
-     * @return A Response containing a list of Customers
+     * @param response The suspended response, resumed with the list of Flights
      */
     @GET
-    public Response retrieveAllFlights() {
-        JSONArray flights = service.findAllOrderedByName();
-        
-        if (flights == null) {
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-        return Response.ok(flights.toString()).build();
-        
+    public void retrieveAllFlights(@Suspend(SupplierClient.SUSPEND_TIMEOUT) AsynchronousResponse response) {
+        service.findAllOrderedByName(new SuspendedResponseCallback<SupplierPayload>(response));
     }
     
     /**
-     * <p>Search for and return a Hotel identified by id.</p>
+     * <p>Search for and return a Flight identified by id.</p>
+     *
+     * <p>The request is suspended while the flight supplier is called, so no request thread is held waiting on it. The
+     * supplier's response is passed through unparsed.</p>
      * 
-     * @param id The long parameter value provided as a Hotel's id
-     * @return A Response containing a single Hotel
+     * @param id The long parameter value provided as a Flight's id
+     * @param response The suspended response, resumed with a single Flight
      */
     @GET
     @Path("/{id:[0-9]+}")
-    public Response retrieveFlightById(@PathParam("id") long id) {
-        JSONObject flight = service.findById(id);
-        if (flight == null) {
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-        //log.info("findById " + id + ": found Hotel = " + Hotel.getName() + " " + Hotel.getPostcode() + " " + Hotel.getPhoneNumber() + " " + Hotel.getId());
-        
-        return Response.ok(flight.toString()).build();
+    public void retrieveFlightById(@PathParam("id") long id,
+            @Suspend(SupplierClient.SUSPEND_TIMEOUT) AsynchronousResponse response) {
+        service.findById(id, new SuspendedResponseCallback<SupplierPayload>(response));
     }
     
     
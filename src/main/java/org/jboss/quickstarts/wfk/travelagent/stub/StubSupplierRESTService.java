@@ -0,0 +1,265 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.stub;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.jboss.quickstarts.wfk.util.IdempotencyStore;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>A stand-in for the hotel, flight and taxi suppliers, so that the travel agent can be run and load tested without
+ * calling out to the public suppliers.</p>
+ *
+ * <p>It answers the same calls the travel agent makes of a real supplier: the catalog, a single item by id, and the
+ * creation and cancellation of bookings, which are held in memory. An item can only be booked once on any date, a
+ * second booking is refused with a 409 (conflict) as the real suppliers do. A booking sent again with the same
+ * <code>Idempotency-Key</code> is given the original booking back.</p>
+ *
+ * <p>The stub is off, answering 404, unless the system property <code>travel.supplier.stub.enabled</code> is true.
+ * Full path for the stub of a supplier is rest/stub/{supplier} , for example rest/stub/hotel , which is what the
+ * {@link org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRegistry} should be pointed at.
+ * <code>travel.supplier.stub.items</code> sets how many items each catalog holds (10 by default) and
+ * <code>travel.supplier.stub.latency</code> adds a delay, in ms, to every answer.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRegistry
+ */
+@Path("/stub/{supplier:hotel|flight|taxi}/rest")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class StubSupplierRESTService {
+
+    private static final boolean ENABLED = Boolean.getBoolean("travel.supplier.stub.enabled");
+
+    private static final int ITEMS = Integer.getInteger("travel.supplier.stub.items", 10);
+
+    private static final long LATENCY = Long.getLong("travel.supplier.stub.latency", 0L);
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /* The bookings of each supplier by id, and the id of the booking holding each item on each date. */
+    private final ConcurrentMap<String, ConcurrentMap<Long, JSONObject>> bookings =
+            new ConcurrentHashMap<String, ConcurrentMap<Long, JSONObject>>();
+    private final ConcurrentMap<String, Long> booked = new ConcurrentHashMap<String, Long>();
+
+    /* The booking made for each Idempotency-Key, kept after it is cancelled as a real supplier would. */
+    private final ConcurrentMap<String, JSONObject> byKey = new ConcurrentHashMap<String, JSONObject>();
+
+    /**
+     * <p>Returns the whole catalog of the supplier.</p>
+     *
+     * @param supplier The supplier being stood in for
+     * @return A Response containing the items of the catalog
+     */
+    @GET
+    @Path("/{items:hotels|flights|taxis}")
+    public Response retrieveAllItems(@PathParam("supplier") String supplier) {
+        if (!answer()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        JSONArray items = new JSONArray();
+        for (long id = 1; id <= ITEMS; id++) {
+            items.put(item(supplier, id));
+        }
+        return Response.ok(items.toString()).build();
+    }
+
+    /**
+     * <p>Returns a single item of the catalog.</p>
+     *
+     * @param supplier The supplier being stood in for
+     * @param id The id of the item
+     * @return A Response containing the item, or a 404 if the catalog does not hold it
+     */
+    @GET
+    @Path("/{items:hotels|flights|taxis}/{by:id/|}{id:[0-9]+}")
+    public Response retrieveItemById(@PathParam("supplier") String supplier, @PathParam("id") long id) {
+        if (!answer() || id < 1 || id > ITEMS) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(item(supplier, id).toString()).build();
+    }
+
+    /**
+     * <p>Books an item of the catalog on a date.</p>
+     *
+     * @param supplier The supplier being stood in for
+     * @param idempotencyKey The optional Idempotency-Key header, identifying repeats of the same booking
+     * @param json The booking, as the travel agent sends it to the supplier
+     * @return A Response containing the id of the booking, a 400 if it cannot be read, or a 409 if the item is
+     * already booked on that date
+     */
+    @POST
+    @Path("/bookings")
+    public Response createBooking(@PathParam("supplier") String supplier,
+            @HeaderParam(IdempotencyStore.HEADER) String idempotencyKey, String json) {
+        if (!answer()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        JSONObject original = idempotencyKey != null ? byKey.get(supplier + "/" + idempotencyKey) : null;
+        if (original != null) {
+            return Response.status(Response.Status.CREATED).entity(original.toString()).build();
+        }
+        JSONObject booking;
+        String item;
+        try {
+            booking = new JSONObject(json);
+            item = supplier + "/" + itemId(supplier, booking) + "/" + booking.getString("bookingDate");
+        } catch (JSONException e) {
+            return error(Response.Status.BAD_REQUEST, e.getMessage());
+        }
+
+        Long id = nextId.getAndIncrement();
+        if (booked.putIfAbsent(item, id) != null) {
+            return error(Response.Status.CONFLICT, "That item is already booked on that date");
+        }
+        try {
+            booking.put("id", id);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        bookingsOf(supplier).put(id, booking);
+        if (idempotencyKey != null) {
+            byKey.put(supplier + "/" + idempotencyKey, booking);
+        }
+        log.fine("StubSupplierRESTService - " + supplier + " booking #" + id + " created");
+        return Response.status(Response.Status.CREATED).entity(booking.toString()).build();
+    }
+
+    /**
+     * <p>Returns a single booking.</p>
+     *
+     * @param supplier The supplier being stood in for
+     * @param id The id of the booking
+     * @return A Response containing the booking, or a 404 if there is none with that id
+     */
+    @GET
+    @Path("/bookings/{id:[0-9]+}")
+    public Response retrieveBookingById(@PathParam("supplier") String supplier, @PathParam("id") Long id) {
+        JSONObject booking = answer() ? bookingsOf(supplier).get(id) : null;
+        if (booking == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(booking.toString()).build();
+    }
+
+    /**
+     * <p>Cancels a booking, freeing the item on its date.</p>
+     *
+     * @param supplier The supplier being stood in for
+     * @param id The id of the booking
+     * @return A 204 (no content), or a 404 if there is no booking with that id
+     */
+    @DELETE
+    @Path("/bookings/{id:[0-9]+}")
+    public Response deleteBooking(@PathParam("supplier") String supplier, @PathParam("id") Long id) {
+        JSONObject booking = answer() ? bookingsOf(supplier).remove(id) : null;
+        if (booking == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        try {
+            booked.remove(supplier + "/" + itemId(supplier, booking) + "/" + booking.getString("bookingDate"), id);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return Response.noContent().build();
+    }
+
+    /**
+     * <p>Checks the stub is enabled and, when a latency is set, waits it out as a remote supplier would.</p>
+     */
+    private static boolean answer() {
+        if (!ENABLED) {
+            return false;
+        }
+        if (LATENCY > 0) {
+            try {
+                Thread.sleep(LATENCY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return true;
+    }
+
+    private ConcurrentMap<Long, JSONObject> bookingsOf(String supplier) {
+        ConcurrentMap<Long, JSONObject> of = bookings.get(supplier);
+        if (of == null) {
+            bookings.putIfAbsent(supplier, new ConcurrentHashMap<Long, JSONObject>());
+            of = bookings.get(supplier);
+        }
+        return of;
+    }
+
+    /**
+     * <p>Reads the id of the item booked, which each supplier sends in its own shape.</p>
+     */
+    private static long itemId(String supplier, JSONObject booking) throws JSONException {
+        if ("hotel".equals(supplier)) {
+            return booking.getJSONObject("hotel").getLong("id");
+        }
+        return booking.getLong(supplier + "Id");
+    }
+
+    private static JSONObject item(String supplier, long id) {
+        Map<String, Object> item = new HashMap<String, Object>();
+        item.put("id", id);
+        item.put("name", "Stub " + supplier + " " + id);
+        if ("hotel".equals(supplier)) {
+            item.put("postcode", "NE1" + (char) ('A' + (id % 26)) + "A");
+            item.put("phoneNumber", "0" + (1000000000L + id));
+        }
+        return new JSONObject(item);
+    }
+
+    private static Response error(Response.Status status, String message) {
+        Map<String, String> responseObj = new HashMap<String, String>();
+        responseObj.put("error", message);
+        return Response.status(status).entity(responseObj).build();
+    }
+}
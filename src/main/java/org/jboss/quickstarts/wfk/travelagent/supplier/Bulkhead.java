@@ -0,0 +1,126 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Bounds the number of calls in flight to one supplier host, so that a supplier that has stopped answering cannot
+ * tie up every connection and waiting thread of the server.</p>
+ *
+ * <p>A call beyond the bound is rejected straight away rather than queued. The bound is set with the system property
+ * <code>travel.supplier.bulkhead.maxConcurrent.&lt;host&gt;</code>, falling back to
+ * <code>travel.supplier.bulkhead.maxConcurrent</code> (default 50).</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierClient
+ * @see CircuitBreaker
+ */
+public class Bulkhead {
+
+    private static final int MAX_CONCURRENT = Integer.getInteger("travel.supplier.bulkhead.maxConcurrent", 50);
+
+    private static final ConcurrentMap<String, Bulkhead> BULKHEADS = new ConcurrentHashMap<String, Bulkhead>();
+
+    private final int maxConcurrent;
+
+    private final Semaphore permits;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * <p>Creates a bulkhead of its own, rather than the one shared by the calls to a host.</p>
+     *
+     * @param maxConcurrent The most calls that may be in flight at once
+     */
+    Bulkhead(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * <p>Returns the bulkhead of a supplier host, creating it on first use.</p>
+     *
+     * @param host The supplier host
+     * @return The Bulkhead shared by every call to the host
+     */
+    public static Bulkhead forHost(String host) {
+        Bulkhead bulkhead = BULKHEADS.get(host);
+        if (bulkhead == null) {
+            Bulkhead created = new Bulkhead(
+                    Integer.getInteger("travel.supplier.bulkhead.maxConcurrent." + host, MAX_CONCURRENT));
+            bulkhead = BULKHEADS.putIfAbsent(host, created);
+            if (bulkhead == null) {
+                bulkhead = created;
+            }
+        }
+        return bulkhead;
+    }
+
+    /**
+     * <p>Takes a place for a call, without waiting. Every place taken must be given back with {@link #release()}.</p>
+     *
+     * @return true if the call may go ahead, false if the host already has as many calls in flight as allowed
+     */
+    public boolean tryAcquire() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * <p>Gives back the place of a call that has finished.</p>
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * <p>Returns the bound of the bulkhead, the calls in flight and the calls rejected.</p>
+     *
+     * @return A Map of statistic name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("inFlight", maxConcurrent - permits.availablePermits());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+
+    /**
+     * <p>Returns the statistics of every bulkhead, by host.</p>
+     *
+     * @return A Map of host to the statistics of its bulkhead
+     */
+    public static Map<String, Map<String, Object>> getAllStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<String, Map<String, Object>>();
+        for (Map.Entry<String, Bulkhead> entry : BULKHEADS.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * <p>A circuit breaker guarding the calls to one supplier host.</p>
+ *
+ * <p>The breaker keeps the outcome of the last calls made while it is CLOSED. Once enough have been made, and either
+ * the share that failed (could not connect, or answered with a 5xx) or the share that were slow reaches its threshold,
+ * the breaker OPENs and calls to the host fail straight away. After a while it lets a few trial calls through
+ * (HALF_OPEN): if they all succeed promptly it closes again, otherwise it re-opens.</p>
+ *
+ * <p>The thresholds can be tuned with the system properties <code>travel.supplier.breaker.window</code> (calls
+ * remembered, default 20), <code>travel.supplier.breaker.minimumCalls</code> (default 10),
+ * <code>travel.supplier.breaker.failureRate</code> (percent, default 50),
+ * <code>travel.supplier.breaker.slowCallRate</code> (percent, default 50),
+ * <code>travel.supplier.breaker.slowCallDuration</code> (ms, default 5000),
+ * <code>travel.supplier.breaker.openDuration</code> (ms, default 30000) and
+ * <code>travel.supplier.breaker.halfOpenCalls</code> (default 3).</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierClient
+ * @see Bulkhead
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private static final int WINDOW = Integer.getInteger("travel.supplier.breaker.window", 20);
+    private static final int MINIMUM_CALLS = Integer.getInteger("travel.supplier.breaker.minimumCalls", 10);
+    private static final int FAILURE_RATE = Integer.getInteger("travel.supplier.breaker.failureRate", 50);
+    private static final int SLOW_CALL_RATE = Integer.getInteger("travel.supplier.breaker.slowCallRate", 50);
+    private static final long SLOW_CALL_DURATION = Long.getLong("travel.supplier.breaker.slowCallDuration", 5000L);
+    private static final long OPEN_DURATION = Long.getLong("travel.supplier.breaker.openDuration", 30000L);
+    private static final int HALF_OPEN_CALLS = Integer.getInteger("travel.supplier.breaker.halfOpenCalls", 3);
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /** The states of a breaker. */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String host;
+
+    private final int window;
+    private final int minimumCalls;
+    private final int failureRate;
+    private final int slowCallRate;
+    private final long slowCallDuration;
+    private final long openDuration;
+    private final int halfOpenCalls;
+
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int calls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trialCalls;
+    private int trialSuccesses;
+    private long rejected;
+
+    private CircuitBreaker(String host) {
+        this(host, WINDOW, MINIMUM_CALLS, FAILURE_RATE, SLOW_CALL_RATE, SLOW_CALL_DURATION, OPEN_DURATION,
+                HALF_OPEN_CALLS);
+    }
+
+    /**
+     * <p>Creates a breaker of its own, with the given thresholds in place of the system properties.</p>
+     */
+    CircuitBreaker(String host, int window, int minimumCalls, int failureRate, int slowCallRate,
+            long slowCallDuration, long openDuration, int halfOpenCalls) {
+        this.host = host;
+        this.window = window;
+        this.minimumCalls = minimumCalls;
+        this.failureRate = failureRate;
+        this.slowCallRate = slowCallRate;
+        this.slowCallDuration = slowCallDuration;
+        this.openDuration = openDuration;
+        this.halfOpenCalls = halfOpenCalls;
+        this.failed = new boolean[window];
+        this.slow = new boolean[window];
+    }
+
+    /**
+     * <p>Returns the breaker of a supplier host, creating it on first use.</p>
+     *
+     * @param host The supplier host
+     * @return The CircuitBreaker shared by every call to the host
+     */
+    public static CircuitBreaker forHost(String host) {
+        CircuitBreaker breaker = BREAKERS.get(host);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(host);
+            breaker = BREAKERS.putIfAbsent(host, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * <p>Asks whether a call may be made to the host. Every call allowed must be followed by
+     * {@link #record(boolean, long)} or {@link #cancelled()}.</p>
+     *
+     * @return true if the call may go ahead, false if it is to fail straight away
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDuration) {
+                rejected++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialCalls = 0;
+            trialSuccesses = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialCalls >= halfOpenCalls) {
+                rejected++;
+                return false;
+            }
+            trialCalls++;
+        }
+        return true;
+    }
+
+    /**
+     * <p>Records the outcome of a call that was allowed.</p>
+     *
+     * @param failure Whether the call failed
+     * @param duration How long, in ms, the call took
+     */
+    public synchronized void record(boolean failure, long duration) {
+        boolean slowCall = duration >= slowCallDuration;
+        if (state == State.HALF_OPEN) {
+            if (failure || slowCall) {
+                open();
+            } else if (++trialSuccesses >= halfOpenCalls) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+
+        failed[next] = failure;
+        slow[next] = slowCall;
+        next = (next + 1) % window;
+        calls = Math.min(calls + 1, window);
+        if (calls >= minimumCalls && (rate(failed) >= failureRate || rate(slow) >= slowCallRate)) {
+            open();
+        }
+    }
+
+    /**
+     * <p>Records that a call that was allowed was abandoned without an outcome.</p>
+     */
+    public synchronized void cancelled() {
+        if (state == State.HALF_OPEN && trialCalls > 0) {
+            trialCalls--;
+        }
+    }
+
+    private void open() {
+        log.warning("CircuitBreaker - Opening the circuit to " + host + ", failure rate " + rate(failed)
+                + "%, slow call rate " + rate(slow) + "%");
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+    }
+
+    private void close() {
+        log.info("CircuitBreaker - Closing the circuit to " + host);
+        state = State.CLOSED;
+        next = 0;
+        calls = 0;
+    }
+
+    private int rate(boolean[] outcomes) {
+        if (calls == 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < calls; i++) {
+            if (outcomes[i]) {
+                count++;
+            }
+        }
+        return count * 100 / calls;
+    }
+
+    /**
+     * @return true while the breaker is open and would refuse a call, false once a trial call may be made
+     */
+    public synchronized boolean isRefusing() {
+        return state == State.OPEN && System.currentTimeMillis() - openedAt < openDuration;
+    }
+
+    /**
+     * @return The current state of the breaker
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * <p>Returns the state of the breaker and the rates it is judged on.</p>
+     *
+     * @return A Map of statistic name to value
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        stats.put("state", state.name());
+        stats.put("calls", calls);
+        stats.put("failureRate", rate(failed));
+        stats.put("slowCallRate", rate(slow));
+        stats.put("rejected", rejected);
+        return stats;
+    }
+
+    /**
+     * <p>Returns the statistics of every breaker, by host.</p>
+     *
+     * @return A Map of host to the statistics of its breaker
+     */
+    public static Map<String, Map<String, Object>> getAllStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<String, Map<String, Object>>();
+        for (CircuitBreaker breaker : BREAKERS.values()) {
+            stats.put(breaker.host, breaker.getStats());
+        }
+        return stats;
+    }
+}
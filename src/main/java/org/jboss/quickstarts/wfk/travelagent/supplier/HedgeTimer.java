@@ -0,0 +1,74 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * <p>Owns the timer that sends the hedges of every {@link RequestHedger}, so that it lives and dies with the
+ * application: it is started when the application is deployed and stopped when it is undeployed.</p>
+ *
+ * <p>A hedge is due a few ms after its call starts, far finer than an EJB timer is meant for, so the timer is a
+ * scheduled executor rather than the TimerService. It only ever starts a non-blocking call, so a single thread of its
+ * own serves every hedger. It is a daemon so that it never holds up the server stopping.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see RequestHedger
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class HedgeTimer {
+
+    private ScheduledExecutorService timer;
+
+    /**
+     * <p>Starts the timer and hands it to the hedgers.</p>
+     */
+    @PostConstruct
+    public void start() {
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "supplier-hedge-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        RequestHedger.useTimer(timer);
+    }
+
+    /**
+     * <p>Takes the timer back from the hedgers, which stop hedging, and stops it.</p>
+     */
+    @PreDestroy
+    public void stop() {
+        RequestHedger.useTimer(null);
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Counts latencies in buckets whose width grows with the value, in the manner of an HDR histogram, so that
+ * percentiles can be read off without keeping the samples.</p>
+ *
+ * <p>Values below 64 have a bucket each. Above that every power of two is split into 32 buckets, so a value is known to
+ * within about 3% however large it is. Values are in microseconds, and anything beyond about 76 hours is counted as
+ * that. Recording takes no lock, so a read taken while calls complete may be off by those calls.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierMetrics
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_SHIFT = 32;
+    static final long MAX_VALUE = (1L << (MAX_SHIFT + SUB_BUCKET_BITS)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + MAX_SHIFT * HALF);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * <p>Records one value.</p>
+     *
+     * @param value The value, in microseconds
+     */
+    public void record(long value) {
+        long v = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long highest = max.get();
+        while (v > highest && !max.compareAndSet(highest, v)) {
+            highest = max.get();
+        }
+    }
+
+    /**
+     * @return The number of values recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The mean of the values recorded, or 0 if there are none
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @return The largest value recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * <p>Returns the value that the given share of the values recorded are at or below, as the top of its bucket.</p>
+     *
+     * @param percentile The percentile, from 0 to 100
+     * @return The value at the percentile, or 0 if there are none
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return The bucket a value is counted in
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+    /**
+     * @return The largest value counted in a bucket
+     */
+    static long highestIn(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long mantissa = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
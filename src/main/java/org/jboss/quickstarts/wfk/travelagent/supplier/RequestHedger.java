@@ -0,0 +1,325 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * <p>Hedges idempotent supplier reads: if the first attempt has not answered once it has taken longer than most calls
+ * do, a second attempt is sent, the first answer to come back is the result, and the slower attempt is cancelled. One
+ * slow connection then no longer sets the latency of the call.</p>
+ *
+ * <p>The delay before hedging is a percentile of the recent latencies of the calls made through the hedger, set with
+ * the system property <code>travel.supplier.hedge.percentile</code> (default 95). No call is hedged until enough of
+ * them have been seen to judge by. So that hedging cannot double the load on a struggling supplier, hedges are limited
+ * to a fraction of the calls, <code>travel.supplier.hedge.maxRate</code> (default 0.1).</p>
+ *
+ * <p>Hedging is off unless <code>travel.supplier.hedge.enabled</code> is true, and must only ever be used for GETs:
+ * both attempts may reach the supplier. The hedges are sent by the {@link HedgeTimer}, and no call is hedged while the
+ * application is not deployed.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierClient
+ */
+public class RequestHedger {
+
+    private static final boolean ENABLED = Boolean.getBoolean("travel.supplier.hedge.enabled");
+
+    private static final int PERCENTILE = Integer.getInteger("travel.supplier.hedge.percentile", 95);
+
+    private static final double MAX_RATE =
+            Double.parseDouble(System.getProperty("travel.supplier.hedge.maxRate", "0.1"));
+
+    /** How many latencies are kept to take the percentile of, and how many are needed before any call is hedged. */
+    private static final int WINDOW = 1000;
+    private static final int MIN_SAMPLES = 50;
+
+    /** How many hedges may be saved up while calls are quick, so that a burst of slow calls can still be hedged. */
+    private static final double MAX_TOKENS = 10;
+
+    private static final ConcurrentMap<String, RequestHedger> HEDGERS = new ConcurrentHashMap<String, RequestHedger>();
+
+    /** The timer of the {@link HedgeTimer}, null while it is not running. */
+    private static volatile ScheduledExecutorService sharedTimer;
+
+    private final boolean enabled;
+    private final int percentile;
+    private final double maxRate;
+
+    /** The timer of this hedger alone, or null to use the {@link HedgeTimer}'s. */
+    private final ScheduledExecutorService ownTimer;
+
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+    private long delay = -1;
+
+    private double tokens = MAX_TOKENS;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    private RequestHedger() {
+        this(ENABLED, PERCENTILE, MAX_RATE, null);
+    }
+
+    /**
+     * <p>Creates a hedger of its own, with the given settings in place of the system properties, sending its hedges
+     * with the given timer.</p>
+     */
+    RequestHedger(boolean enabled, int percentile, double maxRate, ScheduledExecutorService timer) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.maxRate = maxRate;
+        this.ownTimer = timer;
+    }
+
+    /**
+     * <p>Returns the hedger of a kind of call, creating it on first use. Calls are only judged against others of
+     * their kind, so each read that is hedged should have its own.</p>
+     *
+     * @param name The kind of call, such as "flights by id"
+     * @return The RequestHedger shared by every call of that kind
+     */
+    public static RequestHedger forName(String name) {
+        RequestHedger hedger = HEDGERS.get(name);
+        if (hedger == null) {
+            RequestHedger created = new RequestHedger();
+            hedger = HEDGERS.putIfAbsent(name, created);
+            if (hedger == null) {
+                hedger = created;
+            }
+        }
+        return hedger;
+    }
+
+    /**
+     * <p>Makes a call, hedging it if the first attempt is slow.</p>
+     *
+     * @param attempt Starts one attempt at the call, which must be idempotent
+     * @param callback Notified with the first answer, or the failure once every attempt has failed, may be null
+     * @return A Future holding the first answer
+     */
+    public <V> Future<V> get(final Attempt<V> attempt, FutureCallback<V> callback) {
+        final BasicFuture<V> result = new BasicFuture<V>(callback);
+        final Race<V> race = new Race<V>(result);
+        calls.incrementAndGet();
+
+        race.start(attempt, false);
+        long hedgeAfter = hedgeDelay();
+        ScheduledExecutorService timer = ownTimer != null ? ownTimer : sharedTimer;
+        if (hedgeAfter >= 0 && timer != null && !result.isDone()) {
+            race.hedge = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!result.isDone() && tryHedge()) {
+                        hedged.incrementAndGet();
+                        race.start(attempt, true);
+                    }
+                }
+            }, hedgeAfter, TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+
+    /**
+     * @return The delay, in ms, after which a call is hedged, or -1 if calls are not being hedged
+     */
+    synchronized long hedgeDelay() {
+        if (!enabled || samples < MIN_SAMPLES) {
+            return -1;
+        }
+        tokens = Math.min(MAX_TOKENS, tokens + maxRate);
+        if (delay < 0) {
+            int size = Math.min(samples, WINDOW);
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            delay = sorted[Math.min(size - 1, size * percentile / 100)];
+        }
+        return delay;
+    }
+
+    /**
+     * @return true if a hedge may be sent, taking a token for it
+     */
+    synchronized boolean tryHedge() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    synchronized void recordLatency(long duration) {
+        latencies[samples % WINDOW] = duration;
+        samples++;
+        if (samples % (WINDOW / 10) == 0 || samples == MIN_SAMPLES) {
+            // Recompute the percentile now and then rather than on every call.
+            delay = -1;
+        }
+    }
+
+    /**
+     * @return The number of calls, how many were hedged, how many of those the hedge answered first, and the current
+     * hedging delay
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("calls", calls.get());
+        stats.put("hedged", hedged.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("delay", delay);
+        return stats;
+    }
+
+    /**
+     * @return A Map of each kind of hedged call to its statistics
+     */
+    public static Map<String, Map<String, Object>> getAllStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<String, Map<String, Object>>();
+        for (Map.Entry<String, RequestHedger> entry : HEDGERS.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * <p>Sets the timer every hedger without one of its own sends its hedges with, for the {@link HedgeTimer}.</p>
+     *
+     * @param timer The timer, or null to stop hedging
+     */
+    static void useTimer(ScheduledExecutorService timer) {
+        sharedTimer = timer;
+    }
+
+    /**
+     * <p>Starts one attempt at an idempotent call.</p>
+     */
+    public interface Attempt<V> {
+        Future<V> start(FutureCallback<V> callback);
+    }
+
+    /**
+     * <p>The attempts at one call. The first to answer wins and cancels the others; the call fails only when every
+     * attempt started has failed and no hedge is still to come.</p>
+     */
+    private final class Race<V> {
+        private final BasicFuture<V> result;
+        private volatile ScheduledFuture<?> hedge;
+        private Future<V> first;
+        private Future<V> second;
+        private int running;
+
+        private Race(BasicFuture<V> result) {
+            this.result = result;
+        }
+
+        private void start(Attempt<V> attempt, final boolean isHedge) {
+            final long started = System.currentTimeMillis();
+            synchronized (this) {
+                running++;
+            }
+            Future<V> future = attempt.start(new FutureCallback<V>() {
+                @Override
+                public void completed(V value) {
+                    recordLatency(System.currentTimeMillis() - started);
+                    if (result.completed(value)) {
+                        if (isHedge) {
+                            hedgeWins.incrementAndGet();
+                        }
+                        cancelOthers();
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    if (finished()) {
+                        result.failed(e);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    if (finished()) {
+                        result.cancel();
+                    }
+                }
+            });
+            synchronized (this) {
+                if (isHedge) {
+                    second = future;
+                } else {
+                    first = future;
+                }
+            }
+            if (result.isDone()) {
+                // The call was settled while this attempt was being started.
+                cancelOthers();
+            }
+        }
+
+        /**
+         * @return true if the attempt that just ended was the last one that could settle the call
+         */
+        private synchronized boolean finished() {
+            running--;
+            if (running > 0) {
+                return false;
+            }
+            ScheduledFuture<?> pending = hedge;
+            if (pending != null) {
+                // Every attempt made has failed: a hedge that is not yet due is not sent, the call fails now.
+                pending.cancel(false);
+            }
+            return true;
+        }
+
+        private void cancelOthers() {
+            ScheduledFuture<?> pending = hedge;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            Future<V> one;
+            Future<V> two;
+            synchronized (this) {
+                one = first;
+                two = second;
+            }
+            if (one != null && !one.isDone()) {
+                one.cancel(true);
+            }
+            if (two != null && !two.isDone()) {
+                two.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * <p>Collapses identical supplier lookups that are in flight at the same time into one upstream call.</p>
+ *
+ * <p>The first caller for a key starts the call, every caller that arrives for the same key before it has answered
+ * just waits on it, and all of them are given the same result. This stops a burst of requests for an uncached id from
+ * each sending its own GET to the supplier.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierCache
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, List<BasicFuture<V>>> inFlight = new HashMap<K, List<BasicFuture<V>>>();
+
+    /**
+     * <p>Loads a value, joining the call already in flight for the same key if there is one.</p>
+     *
+     * @param key The key of the value, for example the id of a Flight
+     * @param current The value already held for the key, passed to the loader, may be null
+     * @param loader Fetches the value from the supplier, only called when no call for the key is in flight
+     * @param callback Notified with the value, may be null
+     * @return A Future holding the value
+     */
+    public Future<V> get(final K key, V current, SupplierCache.Loader<V> loader, FutureCallback<V> callback) {
+        BasicFuture<V> future = new BasicFuture<V>(callback);
+        synchronized (inFlight) {
+            List<BasicFuture<V>> waiters = inFlight.get(key);
+            if (waiters != null) {
+                waiters.add(future);
+                return future;
+            }
+            waiters = new ArrayList<BasicFuture<V>>();
+            waiters.add(future);
+            inFlight.put(key, waiters);
+        }
+
+        final FutureCallback<V> shared = new FutureCallback<V>() {
+            @Override
+            public void completed(V value) {
+                for (BasicFuture<V> waiter : landed()) {
+                    waiter.completed(value);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                for (BasicFuture<V> waiter : landed()) {
+                    waiter.failed(e);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                for (BasicFuture<V> waiter : landed()) {
+                    waiter.cancel();
+                }
+            }
+
+            private List<BasicFuture<V>> landed() {
+                synchronized (inFlight) {
+                    return inFlight.remove(key);
+                }
+            }
+        };
+        try {
+            loader.load(current, shared);
+        } catch (RuntimeException e) {
+            // Release the waiters, or the key would stay in flight for good.
+            shared.failed(e);
+        }
+        return future;
+    }
+}
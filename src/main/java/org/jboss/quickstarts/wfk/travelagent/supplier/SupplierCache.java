@@ -0,0 +1,233 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * <p>An in-process cache of supplier lookups, such as the flight and taxi catalogs, which are read far more often than
+ * they change.</p>
+ *
+ * <p>An entry younger than the TTL is served straight from memory. Once it is older, it is still served, but a single
+ * background refresh is started for it and the entry is replaced when the supplier answers. Only an entry that has gone
+ * unrefreshed past the stale limit, or was never loaded, makes the caller wait on the supplier. The least recently
+ * used entries are dropped once the cache holds its maximum number. Concurrent loads of the same key, whether misses
+ * or refreshes, share a single supplier call through {@link SingleFlight}. A load is given the value already held, so
+ * that the supplier can be asked whether it has changed rather than to send it again.</p>
+ *
+ * <p>The limits can be tuned on the server with the system properties <code>travel.supplier.cache.ttl</code> (ms,
+ * default 60000), <code>travel.supplier.cache.maxStale</code> (ms an entry may be served past its TTL, default 300000)
+ * and <code>travel.supplier.cache.maxSize</code> (entries per cache, default 1000).</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierClient
+ */
+public class SupplierCache<K, V> {
+
+    private static final Logger log = Logger.getLogger(SupplierCache.class.getName());
+
+    private static final long TTL = Long.getLong("travel.supplier.cache.ttl", 60000L);
+    private static final long MAX_STALE = Long.getLong("travel.supplier.cache.maxStale", 300000L);
+    private static final int MAX_SIZE = Integer.getInteger("travel.supplier.cache.maxSize", 1000);
+
+    private final String name;
+
+    private final long ttl;
+
+    private final long maxStale;
+
+    private final Map<K, Cached<V>> entries;
+
+    private final SingleFlight<K, V> inFlight = new SingleFlight<K, V>();
+
+    /**
+     * @param name The name of the cache, used when logging
+     */
+    public SupplierCache(String name) {
+        this(name, MAX_SIZE);
+    }
+
+    /**
+     * @param name The name of the cache, used when logging
+     * @param maxSize The number of entries after which the least recently used is dropped
+     */
+    public SupplierCache(String name, int maxSize) {
+        this(name, maxSize, TTL, MAX_STALE);
+    }
+
+    /**
+     * @param name The name of the cache, used when logging
+     * @param maxSize The number of entries after which the least recently used is dropped
+     * @param ttl How long, in ms, an entry is served without being refreshed
+     * @param maxStale How long, in ms, an entry may be served past its TTL while it is refreshed
+     */
+    SupplierCache(String name, final int maxSize, long ttl, long maxStale) {
+        this.name = name;
+        this.ttl = ttl;
+        this.maxStale = maxStale;
+        this.entries = new LinkedHashMap<K, Cached<V>>(16, 0.75f, true) {
+            /** Default value included to remove warning. Remove or modify at will. **/
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Cached<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * <p>Looks up a value, calling the supplier through the given Loader only when the cache cannot answer.</p>
+     *
+     * @param key The key of the value, for example the id of a Flight
+     * @param loader Fetches the value from the supplier
+     * @param callback Notified with the value, may be null
+     * @return A Future holding the value
+     */
+    public Future<V> get(final K key, Loader<V> loader, FutureCallback<V> callback) {
+        long now = System.currentTimeMillis();
+        boolean expired = false;
+        boolean refresh = false;
+        Cached<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && now - entry.loaded > ttl + maxStale) {
+                expired = true;
+            } else if (entry != null && now - entry.loaded > ttl && !entry.refreshing) {
+                entry.refreshing = true;
+                refresh = true;
+            }
+        }
+
+        // The supplier is only called once the lock is released, so that other lookups are not held up by it.
+        if (entry == null) {
+            return inFlight.get(key, null, storing(key, loader), callback);
+        }
+        if (expired) {
+            // Too old to serve, but still worth revalidating rather than fetching in full.
+            return inFlight.get(key, entry.value, storing(key, loader), callback);
+        }
+
+        if (refresh) {
+            refresh(key, entry, loader);
+        }
+        BasicFuture<V> future = new BasicFuture<V>(callback);
+        future.completed(entry.value);
+        return future;
+    }
+
+    private void refresh(final K key, final Cached<V> stale, Loader<V> loader) {
+        inFlight.get(key, stale.value, storing(key, loader), new FutureCallback<V>() {
+            @Override
+            public void completed(V value) {
+            }
+
+            @Override
+            public void failed(Exception e) {
+                // Keep serving the stale value, the next read tries again.
+                log.info("SupplierCache " + name + " - refresh of " + key + " failed: " + e);
+                finished();
+            }
+
+            @Override
+            public void cancelled() {
+                finished();
+            }
+
+            private void finished() {
+                synchronized (entries) {
+                    stale.refreshing = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * <p>Wraps a Loader so that whatever it loads is put in the cache once, before any waiter is notified.</p>
+     */
+    private Loader<V> storing(final K key, final Loader<V> loader) {
+        return new Loader<V>() {
+            @Override
+            public Future<V> load(V current, final FutureCallback<V> callback) {
+                return loader.load(current, new FutureCallback<V>() {
+                    @Override
+                    public void completed(V value) {
+                        put(key, value);
+                        callback.completed(value);
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        callback.failed(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        callback.cancelled();
+                    }
+                });
+            }
+        };
+    }
+
+    private void put(K key, V value) {
+        synchronized (entries) {
+            entries.put(key, new Cached<V>(value, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * <p>Drops every entry, so the next lookup of each goes to the supplier.</p>
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * <p>Fetches a value from the supplier when the cache cannot answer.</p>
+     */
+    public interface Loader<V> {
+        /**
+         * @param current The value held by the cache, which the supplier may be asked to confirm is still current, or
+         *            null if there is none
+         * @param callback Notified with the value once the supplier has answered
+         * @return A Future holding the value
+         */
+        Future<V> load(V current, FutureCallback<V> callback);
+    }
+
+    private static final class Cached<V> {
+        private final V value;
+        private final long loaded;
+        private boolean refreshing;
+
+        private Cached(V value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.jboss.quickstarts.wfk.util.Deadline;
+import org.jboss.quickstarts.wfk.util.DeadlineExceededException;
+import org.jboss.quickstarts.wfk.util.HttpConnectionPool;
+import org.jboss.quickstarts.wfk.util.IdempotencyStore;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * <p>A non-blocking client for the travel agent's suppliers (hotel, flight and taxi), built on the shared NIO
+ * {@link CloseableHttpAsyncClient}.</p>
+ *
+ * <p>Every call returns straight away with a {@link Future}. The optional {@link FutureCallback} is notified from the
+ * client's I/O threads once the supplier has answered, so no application thread is held while waiting on the
+ * network.</p>
+ *
+ * <p>Each supplier host has its own {@link CircuitBreaker} and {@link Bulkhead}. A call they refuse fails straight away
+ * with a {@link SupplierRejectedException}, so a slow or dead supplier is not waited on by every caller.</p>
+ *
+ * <p>A call made for a request with a {@link Deadline} has its timeouts cut down to what is left of it, and is not
+ * made at all once it has passed.</p>
+ *
+ * <p>Every call is measured in the {@link SupplierMetrics} of its supplier and operation: book (POST), cancel (DELETE),
+ * findById (GET of a single resource) or find (any other GET).</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierException
+ */
+//@Dependent annotation designates the default scope, listed here so that you know what scope is being used.
+@Dependent
+public class SupplierClient {
+
+    /** How long, in ms, a suspended JAX-RS request waits for the suppliers before it is timed out. */
+    public static final long SUSPEND_TIMEOUT = 30000;
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private @Named("httpAsyncClient") CloseableHttpAsyncClient httpClient;
+
+    /**
+     * <p>GETs a resource from a supplier without parsing it, so that it can be passed on to our own clients as is.</p>
+     *
+     * <p>When a current copy with validators is given the GET is made conditional on it. If the supplier answers 304
+     * (not modified) that copy is the result, and the body is not downloaded again.</p>
+     *
+     * @param uri The resource to GET
+     * @param current The copy of the resource already held, may be null
+     * @param callback Notified with the result, may be null
+     * @return A Future holding the body, content type and validators of the resource
+     */
+    public Future<SupplierPayload> getPayload(URI uri, final SupplierPayload current,
+            FutureCallback<SupplierPayload> callback) {
+        HttpGet req = new HttpGet(uri);
+        if (current != null && current.getETag() != null) {
+            req.setHeader(HttpHeaders.IF_NONE_MATCH, current.getETag());
+        }
+        if (current != null && current.getLastModified() != null) {
+            req.setHeader(HttpHeaders.IF_MODIFIED_SINCE, current.getLastModified());
+        }
+        return execute(req, new ResponseParser<SupplierPayload>() {
+            @Override
+            public SupplierPayload parse(HttpResponse response) throws Exception {
+                return payload(response, current);
+            }
+        }, Deadline.NONE, callback);
+    }
+
+    /**
+     * <p>Reads the payload of a supplier's answer to a GET, which is the copy already held when the supplier answered
+     * 304 (not modified) to a GET made conditional on it.</p>
+     *
+     * @param response The supplier's response
+     * @param current The copy of the resource already held, may be null
+     * @return The SupplierPayload of the resource
+     * @throws Exception If the supplier did not answer with the resource
+     */
+    static SupplierPayload payload(HttpResponse response, SupplierPayload current) throws Exception {
+        if (current != null && current.isValidatable()
+                && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            return current;
+        }
+        expect(response, 200);
+        String eTag = value(response.getFirstHeader(HttpHeaders.ETAG));
+        String lastModified = value(response.getFirstHeader(HttpHeaders.LAST_MODIFIED));
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return new SupplierPayload(new byte[0], null, eTag, lastModified);
+        }
+        return new SupplierPayload(EntityUtils.toByteArray(entity), value(entity.getContentType()), eTag,
+                lastModified);
+    }
+
+    /**
+     * <p>GETs a JSON array from a supplier.</p>
+     *
+     * @param uri The resource to GET
+     * @param callback Notified with the result, may be null
+     * @return A Future holding the parsed JSONArray
+     */
+    public Future<JSONArray> getJSONArray(URI uri, FutureCallback<JSONArray> callback) {
+        return execute(new HttpGet(uri), new ResponseParser<JSONArray>() {
+            @Override
+            public JSONArray parse(HttpResponse response) throws Exception {
+                expect(response, 200);
+                return new JSONArray(EntityUtils.toString(response.getEntity()));
+            }
+        }, Deadline.NONE, callback);
+    }
+
+    /**
+     * <p>GETs a JSON object from a supplier.</p>
+     *
+     * @param uri The resource to GET
+     * @param callback Notified with the result, may be null
+     * @return A Future holding the parsed JSONObject
+     */
+    public Future<JSONObject> getJSONObject(URI uri, FutureCallback<JSONObject> callback) {
+        return execute(new HttpGet(uri), new ResponseParser<JSONObject>() {
+            @Override
+            public JSONObject parse(HttpResponse response) throws Exception {
+                expect(response, 200);
+                return new JSONObject(EntityUtils.toString(response.getEntity()));
+            }
+        }, Deadline.NONE, callback);
+    }
+
+    /**
+     * <p>POSTs a JSON document to a supplier, expecting it to create a resource and return it with its id.</p>
+     *
+     * <p>Only the id is read from the response. The async client has already buffered the whole body by the time it
+     * is parsed, but the rest of the document is skipped over rather than built into objects.</p>
+     *
+     * <p>When an idempotency key is given it is sent as the <code>Idempotency-Key</code> header, so that the POST can
+     * be sent again with the same key and body to learn what the first one created, without creating it twice.</p>
+     *
+     * @param uri The collection resource to POST to
+     * @param json The JSON body of the request
+     * @param idempotencyKey Identifies the request to the supplier across repeats of it, may be null
+     * @param deadline The time by which the supplier must have answered
+     * @param callback Notified with the result, may be null
+     * @return A Future holding the id of the created resource
+     */
+    public Future<Long> postForId(URI uri, String json, String idempotencyKey, Deadline deadline,
+            FutureCallback<Long> callback) {
+        HttpPost req = new HttpPost(uri);
+        req.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        if (idempotencyKey != null) {
+            req.setHeader(IdempotencyStore.HEADER, idempotencyKey);
+        }
+        return execute(req, new ResponseParser<Long>() {
+            @Override
+            public Long parse(HttpResponse response) throws Exception {
+                expect(response, 201);
+                InputStream in = response.getEntity().getContent();
+                try {
+                    return readId(in);
+                } finally {
+                    in.close();
+                }
+            }
+        }, deadline, callback);
+    }
+
+    /**
+     * <p>DELETEs a resource from a supplier.</p>
+     *
+     * @param uri The resource to DELETE
+     * @param callback Notified with the result, may be null
+     * @return A Future holding the status code the supplier responded with
+     */
+    public Future<Integer> delete(URI uri, FutureCallback<Integer> callback) {
+        return execute(new HttpDelete(uri), new ResponseParser<Integer>() {
+            @Override
+            public Integer parse(HttpResponse response) {
+                return response.getStatusLine().getStatusCode();
+            }
+        }, Deadline.NONE, callback);
+    }
+
+    private <T> Future<T> execute(final HttpRequestBase req, final ResponseParser<T> parser, Deadline deadline,
+            FutureCallback<T> callback) {
+        final SupplierFuture<T> future = new SupplierFuture<T>(callback);
+        String host = req.getURI().getHost();
+        final SupplierMetrics metrics = SupplierMetrics.forOperation(SupplierRegistry.nameOf(req.getURI()),
+                operation(req));
+        if (deadline != Deadline.NONE) {
+            if (deadline.isExpired()) {
+                metrics.rejected();
+                future.failed(new DeadlineExceededException("The request ran out of time before calling " + host));
+                return future;
+            }
+            req.setConfig(HttpConnectionPool.requestConfigWithin(deadline.remaining()));
+        }
+        final Bulkhead bulkhead = Bulkhead.forHost(host);
+        if (!bulkhead.tryAcquire()) {
+            metrics.rejected();
+            future.failed(new SupplierRejectedException("Too many calls in flight to " + host));
+            return future;
+        }
+        final CircuitBreaker breaker = CircuitBreaker.forHost(host);
+        if (!breaker.allowRequest()) {
+            bulkhead.release();
+            metrics.rejected();
+            future.failed(new SupplierRejectedException("The circuit to " + host + " is open"));
+            return future;
+        }
+
+        final long started = System.currentTimeMillis();
+        final long measured = metrics.start();
+        future.exchange = httpClient.execute(req, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                long duration = System.currentTimeMillis() - started;
+                boolean error = response.getStatusLine().getStatusCode() >= 500;
+                bulkhead.release();
+                metrics.stop(measured, error);
+                breaker.record(error, duration);
+                SupplierRegistry.recordLatency(req.getURI(), duration);
+                try {
+                    future.completed(parser.parse(response));
+                } catch (Exception e) {
+                    future.failed(e);
+                } finally {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                bulkhead.release();
+                metrics.stop(measured, true);
+                breaker.record(true, System.currentTimeMillis() - started);
+                log.info("SupplierClient - " + req.getMethod() + " " + req.getURI() + " failed: " + e);
+                future.failed(e);
+            }
+
+            @Override
+            public void cancelled() {
+                bulkhead.release();
+                metrics.stop(measured, false);
+                breaker.cancelled();
+                future.cancel();
+            }
+        });
+        if (future.isCancelled()) {
+            // Cancelled before the exchange was known, so it was not aborted then.
+            future.exchange.cancel(true);
+        }
+        return future;
+    }
+
+    /**
+     * <p>Pulls the top level id out of a JSON object with Jackson's streaming parser, skipping over everything else in
+     * it, so that the rest of the document is not built into objects. The stream is read from the body the async
+     * client has buffered, so this saves parsing and garbage, not memory for the body itself.</p>
+     */
+    private static long readId(InputStream in) throws IOException {
+        JsonParser parser = JacksonConfig.getObjectMapper().getJsonFactory().createJsonParser(in);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException("Expected a JSON object", parser.getCurrentLocation());
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("id".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                    return parser.getLongValue();
+                }
+                if ("id".equals(field) && value == JsonToken.VALUE_STRING) {
+                    return Long.parseLong(parser.getText());
+                }
+                parser.skipChildren();
+            }
+            throw new JsonParseException("No id in the JSON object", parser.getCurrentLocation());
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static String operation(HttpRequestBase req) {
+        String method = req.getMethod();
+        if (HttpPost.METHOD_NAME.equals(method)) {
+            return "book";
+        }
+        if (HttpDelete.METHOD_NAME.equals(method)) {
+            return "cancel";
+        }
+        String path = req.getURI().getPath();
+        return path != null && path.matches(".*/[0-9]+/?") ? "findById" : "find";
+    }
+
+    private static String value(Header header) {
+        return header != null ? header.getValue() : null;
+    }
+
+    private static void expect(HttpResponse response, int statusCode) throws SupplierException {
+        int actual = response.getStatusLine().getStatusCode();
+        if (actual != statusCode) {
+            throw new SupplierException("Supplier responded " + response.getStatusLine(), actual);
+        }
+    }
+
+    /**
+     * <p>The result of a call, which when cancelled also aborts the exchange with the supplier, so that the connection
+     * is given back rather than left waiting on an answer nobody wants.</p>
+     */
+    private static class SupplierFuture<T> extends BasicFuture<T> {
+        private volatile Future<HttpResponse> exchange;
+
+        SupplierFuture(FutureCallback<T> callback) {
+            super(callback);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            Future<HttpResponse> running = exchange;
+            if (running != null) {
+                running.cancel(true);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * <p>Turns a supplier's response into the result of a call.</p>
+     */
+    private interface ResponseParser<T> {
+        T parse(HttpResponse response) throws Exception;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.http.HttpHost;
+
+/**
+ * <p>One base URL at which a supplier can be reached, with the weight it is given and what has been learnt of it: the
+ * result of its last health check, and a moving average of how long it takes to answer.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierRegistry
+ */
+public class SupplierEndpoint {
+
+    /** How much of the moving average each new call makes up. */
+    private static final double LATENCY_DECAY = 0.2;
+
+    private final URI baseUri;
+
+    private final int weight;
+
+    private volatile boolean healthy = true;
+
+    private double latency;
+
+    /* The running weight of the smooth weighted round robin, guarded by the registry. */
+    int currentWeight;
+
+    public SupplierEndpoint(URI baseUri, int weight) {
+        this.baseUri = baseUri;
+        this.weight = weight;
+    }
+
+    /**
+     * <p>Builds the URI of a supplier resource at this endpoint.</p>
+     *
+     * @param path The path of the resource on the supplier, such as /rest/bookings
+     * @return The URI of the resource, under the endpoint's base path
+     */
+    public URI uri(String path) {
+        return baseUri.resolve(basePath() + path);
+    }
+
+    /**
+     * <p>Tells whether a URI is at this endpoint: it has the same scheme, host and port, and its path is the
+     * endpoint's base path or below it. The path is matched whole segments at a time, so an endpoint at /api does not
+     * take in /api2.</p>
+     *
+     * @param uri The URI a call is sent to
+     * @return true if the URI is at this endpoint
+     */
+    public boolean contains(URI uri) {
+        if (!baseUri.getScheme().equalsIgnoreCase(uri.getScheme())
+                || !baseUri.getHost().equalsIgnoreCase(uri.getHost())
+                || portOf(baseUri) != portOf(uri)) {
+            return false;
+        }
+        String basePath = basePath();
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        return basePath.isEmpty() || path.equals(basePath) || path.startsWith(basePath + "/");
+    }
+
+    /**
+     * @return The path of the base URI, without a trailing slash
+     */
+    private String basePath() {
+        String basePath = baseUri.getPath() == null ? "" : baseUri.getPath();
+        if (basePath.endsWith("/")) {
+            basePath = basePath.substring(0, basePath.length() - 1);
+        }
+        return basePath;
+    }
+
+    private static int portOf(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * @return The host, scheme and port of the endpoint
+     */
+    public HttpHost getHost() {
+        return new HttpHost(baseUri.getHost(), baseUri.getPort(), baseUri.getScheme());
+    }
+
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    /**
+     * @return The moving average, in ms, of the time the endpoint takes to answer; 0 until it has been called
+     */
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+    /**
+     * <p>Folds the duration of a call into the moving average.</p>
+     *
+     * @param duration How long, in ms, the call took
+     */
+    public synchronized void recordLatency(long duration) {
+        latency = latency == 0 ? duration : latency + LATENCY_DECAY * (duration - latency);
+    }
+
+    /**
+     * @return The weight, health and average latency of the endpoint
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        stats.put("weight", weight);
+        stats.put("healthy", healthy);
+        stats.put("latency", Math.round(getLatency()));
+        return stats;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+/**
+ * <p>Periodically checks every endpoint in the {@link SupplierRegistry}, so that calls are not sent to one that is
+ * down.</p>
+ *
+ * <p>An endpoint is healthy when a HEAD of its health path (by default the endpoint's base URL) answers with anything
+ * below 500. HEAD is used so that no body is downloaded, whatever path is checked.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierRegistry
+ */
+@Singleton
+public class SupplierHealthChecker {
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private @Named("httpClient") CloseableHttpClient httpClient;
+
+    /**
+     * <p>Runs every 30 seconds. The timer is not persistent, a missed run is simply picked up by the next one.</p>
+     */
+    @Schedule(second = "*/30", minute = "*", hour = "*", persistent = false)
+    public void check() {
+        for (Map.Entry<SupplierEndpoint, URI> check : SupplierRegistry.getHealthChecks().entrySet()) {
+            SupplierEndpoint endpoint = check.getKey();
+            boolean healthy = isHealthy(check.getValue());
+            if (healthy != endpoint.isHealthy()) {
+                log.info("SupplierHealthChecker - " + endpoint.getBaseUri() + " is now " + (healthy ? "up" : "down"));
+            }
+            endpoint.setHealthy(healthy);
+        }
+    }
+
+    private boolean isHealthy(URI uri) {
+        CloseableHttpResponse response = null;
+        try {
+            response = httpClient.execute(new HttpHead(uri));
+            return response.getStatusLine().getStatusCode() < 500;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            HttpClientUtils.closeQuietly(response);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>Measures the calls made to one operation of one supplier, such as booking a hotel or finding a flight by id, so
+ * that it can be told whether time is being lost in the travel agent or at the supplier.</p>
+ *
+ * <p>The time from sending a request to its answer is recorded in a {@link LatencyHistogram}, along with the number of
+ * calls, those that failed or were answered with a 5xx, those refused before being sent, those in flight, and the calls
+ * completed per second over the last minute. The same figures are published over JMX (see
+ * {@link SupplierMetricsMXBean}) while the application is deployed, by the {@link SupplierMetricsPublisher}.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierClient
+ */
+public class SupplierMetrics implements SupplierMetricsMXBean {
+
+    private static final Logger log = Logger.getLogger(SupplierMetrics.class.getName());
+
+    private static final String DOMAIN = "org.jboss.quickstarts.wfk.travelagent";
+
+    /** The seconds over which the rate of calls is worked out. */
+    private static final int WINDOW = 60;
+
+    private static final ConcurrentMap<String, SupplierMetrics> METRICS =
+            new ConcurrentHashMap<String, SupplierMetrics>();
+
+    /** Whether the metrics are published over JMX, guarded by the class. */
+    private static boolean published;
+
+    private final String supplier;
+    private final String operation;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The calls completed in each of the last {@link #WINDOW} seconds, a slot per second, each holding the second in its
+     * high 32 bits and the count in its low 32 bits, so that moving a slot on to a new second and counting a call in it
+     * is a single compare and set.
+     */
+    private final AtomicLongArray secondCounts = new AtomicLongArray(WINDOW);
+
+    private SupplierMetrics(String supplier, String operation) {
+        this.supplier = supplier;
+        this.operation = operation;
+    }
+
+    /**
+     * <p>Returns the metrics of an operation of a supplier, creating them on first use, and publishing them over JMX
+     * if the metrics are being published.</p>
+     *
+     * @param supplier The supplier, such as {@link SupplierRegistry#HOTEL}, or the host for one not in the registry
+     * @param operation The operation, such as book or findById
+     * @return The SupplierMetrics shared by every call of the operation
+     */
+    public static SupplierMetrics forOperation(String supplier, String operation) {
+        String key = supplier + "." + operation;
+        SupplierMetrics metrics = METRICS.get(key);
+        if (metrics == null) {
+            SupplierMetrics created = new SupplierMetrics(supplier, operation);
+            metrics = METRICS.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+                publishIfPublishing(created);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * <p>Counts a call as sent. Every call started must be finished with {@link #stop(long, boolean)}.</p>
+     *
+     * @return The time the call was started, to hand back to {@link #stop(long, boolean)}
+     */
+    public long start() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * <p>Records the end of a call, whether it was answered, failed or was cancelled.</p>
+     *
+     * @param started The time returned by {@link #start()}
+     * @param error Whether the call failed or was answered with a 5xx
+     */
+    public void stop(long started, boolean error) {
+        inFlight.decrementAndGet();
+        latency.record((System.nanoTime() - started) / 1000);
+        if (error) {
+            errors.incrementAndGet();
+        }
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % WINDOW);
+        long was;
+        long next;
+        do {
+            was = secondCounts.get(slot);
+            next = was >>> 32 == second ? was + 1 : second << 32 | 1;
+        } while (!secondCounts.compareAndSet(slot, was, next));
+    }
+
+    /**
+     * <p>Counts a call refused before it was sent, by the bulkhead, the circuit breaker or the deadline.</p>
+     */
+    public void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    @Override
+    public long getCalls() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public double getCallsPerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long calls = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            long slot = secondCounts.get(i);
+            if (now - (slot >>> 32) < WINDOW) {
+                calls += slot & 0xffffffffL;
+            }
+        }
+        return (double) calls / WINDOW;
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return millis(latency.getMean());
+    }
+
+    @Override
+    public double getP50Latency() {
+        return millis(latency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getP90Latency() {
+        return millis(latency.getValueAtPercentile(90));
+    }
+
+    @Override
+    public double getP99Latency() {
+        return millis(latency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getP999Latency() {
+        return millis(latency.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public double getMaxLatency() {
+        return millis(latency.getMax());
+    }
+
+    /**
+     * <p>Returns the calls, errors, rejections, calls in flight and per second, and the latency percentiles in ms.</p>
+     *
+     * @return A Map of statistic name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        stats.put("calls", getCalls());
+        stats.put("errors", getErrors());
+        stats.put("rejected", getRejected());
+        stats.put("inFlight", getInFlight());
+        stats.put("callsPerSecond", getCallsPerSecond());
+        Map<String, Object> latencies = new TreeMap<String, Object>();
+        latencies.put("mean", getMeanLatency());
+        latencies.put("p50", getP50Latency());
+        latencies.put("p90", getP90Latency());
+        latencies.put("p99", getP99Latency());
+        latencies.put("p999", getP999Latency());
+        latencies.put("max", getMaxLatency());
+        stats.put("latency", latencies);
+        return stats;
+    }
+
+    /**
+     * <p>Returns the statistics of every operation that has been called, by supplier.</p>
+     *
+     * @return A Map of supplier to a Map of operation to its statistics
+     */
+    public static Map<String, Map<String, Object>> getAllStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<String, Map<String, Object>>();
+        for (SupplierMetrics metrics : METRICS.values()) {
+            Map<String, Object> operations = stats.get(metrics.supplier);
+            if (operations == null) {
+                operations = new TreeMap<String, Object>();
+                stats.put(metrics.supplier, operations);
+            }
+            operations.put(metrics.operation, metrics.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * <p>Publishes every SupplierMetrics over JMX, and those created from now on as they are.</p>
+     */
+    static synchronized void publish() {
+        published = true;
+        for (SupplierMetrics metrics : METRICS.values()) {
+            register(metrics);
+        }
+    }
+
+    /**
+     * <p>Withdraws every SupplierMetrics from JMX, so that a redeployment can publish its own.</p>
+     */
+    static synchronized void unpublish() {
+        published = false;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (SupplierMetrics metrics : METRICS.values()) {
+            try {
+                ObjectName name = metrics.objectName();
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                log.info("SupplierMetrics - could not unregister " + metrics.supplier + "." + metrics.operation
+                        + ": " + e);
+            }
+        }
+    }
+
+    private static synchronized void publishIfPublishing(SupplierMetrics metrics) {
+        if (published) {
+            register(metrics);
+        }
+    }
+
+    private static void register(SupplierMetrics metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = metrics.objectName();
+            if (server.isRegistered(name)) {
+                // Left behind by an earlier deployment that was not shut down cleanly.
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            // The figures are still kept and served over REST.
+            log.info("SupplierMetrics - could not register " + metrics.supplier + "." + metrics.operation + ": " + e);
+        }
+    }
+
+    private ObjectName objectName() throws JMException {
+        return new ObjectName(DOMAIN + ":type=SupplierMetrics,supplier=" + supplier + ",operation=" + operation);
+    }
+
+    private static double millis(double micros) {
+        return Math.round(micros) / 1000.0;
+    }
+}
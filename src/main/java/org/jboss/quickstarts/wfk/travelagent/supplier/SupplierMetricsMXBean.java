@@ -0,0 +1,51 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+/**
+ * <p>The view of a {@link SupplierMetrics} published over JMX, under
+ * <code>org.jboss.quickstarts.wfk.travelagent:type=SupplierMetrics,supplier=&lt;name&gt;,operation=&lt;op&gt;</code>.
+ * Latencies are in milliseconds.</p>
+ *
+ * @author Geoffrey Prytherch
+ */
+public interface SupplierMetricsMXBean {
+
+    long getCalls();
+
+    long getErrors();
+
+    long getRejected();
+
+    int getInFlight();
+
+    double getCallsPerSecond();
+
+    double getMeanLatency();
+
+    double getP50Latency();
+
+    double getP90Latency();
+
+    double getP99Latency();
+
+    double getP999Latency();
+
+    double getMaxLatency();
+}
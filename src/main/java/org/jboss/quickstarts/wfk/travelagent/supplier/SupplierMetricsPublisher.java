@@ -0,0 +1,56 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * <p>Publishes the {@link SupplierMetrics} over JMX while the application is deployed: it starts publishing them when
+ * the application is deployed, and withdraws them when it is undeployed so that a redeployment can publish its
+ * own.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierMetrics
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SupplierMetricsPublisher {
+
+    /**
+     * <p>Publishes the metrics created so far, and those created from now on.</p>
+     */
+    @PostConstruct
+    public void start() {
+        SupplierMetrics.publish();
+    }
+
+    /**
+     * <p>Withdraws every metric from JMX.</p>
+     */
+    @PreDestroy
+    public void stop() {
+        SupplierMetrics.unpublish();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>The body of a supplier's response, kept as the bytes the supplier sent along with their content type and the
+ * ETag and Last-Modified validators, if any.</p>
+ *
+ * <p>Catalog lookups are passed through to our own clients unchanged, so the payload is never parsed into JSON and
+ * serialised again.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierClient#getPayload
+ */
+public class SupplierPayload {
+
+    private final byte[] body;
+
+    private final String contentType;
+
+    private final String eTag;
+
+    private final String lastModified;
+
+    public SupplierPayload(byte[] body, String contentType) {
+        this(body, contentType, null, null);
+    }
+
+    public SupplierPayload(byte[] body, String contentType, String eTag, String lastModified) {
+        this.body = body;
+        this.contentType = contentType != null ? contentType : MediaType.APPLICATION_JSON;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return The bytes of the response body, which must not be modified
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return The content type the supplier gave the body, or JSON if it gave none
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return The ETag the supplier gave the body, or null if it gave none
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return The Last-Modified date the supplier gave the body, or null if it gave none
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return Whether the supplier gave a validator with which it can be asked if the body has changed
+     */
+    public boolean isValidatable() {
+        return eTag != null || lastModified != null;
+    }
+
+    /**
+     * <p>Builds a 200 (OK) response writing the body exactly as the supplier sent it.</p>
+     *
+     * @return The Response.ResponseBuilder holding the body, its content type and length
+     */
+    public Response.ResponseBuilder toResponse() {
+        return Response.ok(body, contentType).header(HttpHeaders.CONTENT_LENGTH, body.length);
+    }
+
+    @Override
+    public String toString() {
+        return "SupplierPayload[" + contentType + ", " + body.length + " bytes]";
+    }
+}
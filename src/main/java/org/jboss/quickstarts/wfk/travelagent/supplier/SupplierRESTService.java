@@ -0,0 +1,75 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.ejb.Stateless;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Exposes the state of the {@link CircuitBreaker} and {@link Bulkhead} of each supplier host, of the endpoints
+ * in the {@link SupplierRegistry}, and of each {@link RequestHedger}, and the latency and throughput of each supplier
+ * operation measured by its {@link SupplierMetrics}.</p>
+ *
+ * <p>Full path for accessing the state is rest/management/suppliers , and the measurements
+ * rest/management/suppliers/metrics .</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierClient
+ */
+@Path("/management/suppliers")
+@Produces(MediaType.APPLICATION_JSON)
+@Stateless
+public class SupplierRESTService {
+
+    /**
+     * <p>Returns the breaker state, failure and slow call rates, and calls in flight and rejected, of each supplier
+     * host that has been called, the weight, health and average latency of each supplier endpoint, and how often
+     * calls have been hedged.</p>
+     *
+     * @return A Response containing the breaker, bulkhead, endpoint and hedging statistics
+     */
+    @GET
+    public Response retrieveSupplierStats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("breakers", CircuitBreaker.getAllStats());
+        stats.put("bulkheads", Bulkhead.getAllStats());
+        stats.put("endpoints", SupplierRegistry.getStats());
+        stats.put("hedging", RequestHedger.getAllStats());
+        return Response.ok(stats).build();
+    }
+
+    /**
+     * <p>Returns, for each operation of each supplier, the calls made, failed, refused and in flight, the calls per
+     * second over the last minute, and the mean, 50th, 90th, 99th and 99.9th percentile and maximum latency in ms.</p>
+     *
+     * @return A Response containing the metrics of every supplier operation called so far
+     */
+    @GET
+    @Path("/metrics")
+    public Response retrieveSupplierMetrics() {
+        return Response.ok(SupplierMetrics.getAllStats()).build();
+    }
+}
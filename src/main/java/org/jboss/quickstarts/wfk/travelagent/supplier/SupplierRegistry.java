@@ -0,0 +1,273 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.jboss.quickstarts.wfk.util.HttpConnectionPool;
+
+/**
+ * <p>Knows where each of the travel agent's suppliers (hotel, flight and taxi) can be reached, and picks the endpoint
+ * each call is sent to.</p>
+ *
+ * <p>A supplier may have several base URLs, set with the system property <code>travel.supplier.&lt;name&gt;.urls</code>
+ * as a comma separated list, each optionally followed by <code>|weight</code>, for example
+ * <code>http://a.example.com|3,http://b.example.com|1</code>. When it is not set the supplier's public host is used.
+ * <code>travel.supplier.&lt;name&gt;.selection</code> chooses how an endpoint is picked: <code>weighted</code> (the
+ * default) spreads calls in proportion to the weights, <code>leastLatency</code> sends each call to the endpoint that
+ * has been answering fastest.</p>
+ *
+ * <p>Each endpoint is checked with a HEAD of <code>travel.supplier.&lt;name&gt;.healthPath</code>, by default its base
+ * URL. Endpoints that failed their last health check (see {@link SupplierHealthChecker}), or whose
+ * {@link CircuitBreaker} is open, are passed over while any other endpoint of the supplier is available.</p>
+ *
+ * <p><code>travel.supplier.&lt;name&gt;.idempotent</code> records whether the supplier honours the
+ * <code>Idempotency-Key</code> of a booking, giving back the original booking when it is sent again rather than making
+ * a second one. Only the hotel supplier, which runs this application, does by default. A booking whose outcome was lost
+ * is only sent again to a supplier that does.</p>
+ *
+ * <p>To run against the {@link org.jboss.quickstarts.wfk.travelagent.stub.StubSupplierRESTService local stub supplier},
+ * point the URLs at it, for example
+ * <code>-Dtravel.supplier.hotel.urls=http://localhost:8080/&lt;context&gt;/rest/stub/hotel</code>.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierEndpoint
+ */
+public final class SupplierRegistry {
+
+    public static final String HOTEL = "hotel";
+    public static final String FLIGHT = "flight";
+    public static final String TAXI = "taxi";
+
+    private static final Logger log = Logger.getLogger(SupplierRegistry.class.getName());
+
+    private static final Map<String, Supplier> SUPPLIERS = new TreeMap<String, Supplier>();
+
+    /**
+     * The path checked by default, the endpoint's own base, which costs the supplier little and is only requested with
+     * HEAD, so nothing is downloaded.
+     */
+    private static final String DEFAULT_HEALTH_PATH = "/";
+
+    static {
+        register(HOTEL, "http://travel.gsp8181.co.uk", true);
+        register(FLIGHT, "http://jbosscontactsangularjs-110336260.rhcloud.com", false);
+        register(TAXI, "http://jbosscontactsangularjs-110060653.rhcloud.com", false);
+    }
+
+    private SupplierRegistry() {
+    }
+
+    private static void register(String name, String defaultUrl, boolean defaultIdempotent) {
+        String urls = System.getProperty("travel.supplier." + name + ".urls", defaultUrl);
+        List<SupplierEndpoint> endpoints = new ArrayList<SupplierEndpoint>();
+        for (String url : urls.split(",")) {
+            String[] parts = url.trim().split("\\|");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            SupplierEndpoint endpoint = new SupplierEndpoint(URI.create(parts[0].trim()), weight);
+            HttpConnectionPool.registerRoute(endpoint.getHost());
+            endpoints.add(endpoint);
+        }
+        boolean leastLatency = "leastLatency".equals(System.getProperty("travel.supplier." + name + ".selection"));
+        String healthPath = System.getProperty("travel.supplier." + name + ".healthPath", DEFAULT_HEALTH_PATH);
+        String idempotent = System.getProperty("travel.supplier." + name + ".idempotent");
+        boolean honoursKey = idempotent != null ? Boolean.parseBoolean(idempotent) : defaultIdempotent;
+        SUPPLIERS.put(name, new Supplier(endpoints, leastLatency, healthPath, honoursKey));
+        log.info("SupplierRegistry - " + name + " supplier at " + urls
+                + (leastLatency ? ", least latency" : ", weighted")
+                + (honoursKey ? ", honours Idempotency-Key" : ""));
+    }
+
+    /**
+     * <p>Builds the URI of a supplier resource at the endpoint picked for this call.</p>
+     *
+     * @param name The supplier, one of {@link #HOTEL}, {@link #FLIGHT} or {@link #TAXI}
+     * @param path The path of the resource on the supplier, such as /rest/bookings
+     * @return The URI of the resource
+     */
+    public static URI uri(String name, String path) {
+        return select(name).uri(path);
+    }
+
+    /**
+     * <p>Picks the endpoint of a supplier to send a call to.</p>
+     *
+     * @param name The supplier, one of {@link #HOTEL}, {@link #FLIGHT} or {@link #TAXI}
+     * @return The SupplierEndpoint picked
+     */
+    public static SupplierEndpoint select(String name) {
+        return supplier(name).select();
+    }
+
+    /**
+     * <p>Tells whether a supplier honours the <code>Idempotency-Key</code> of a booking, so that a booking sent again
+     * under the same key gives back the one already made rather than making another.</p>
+     *
+     * @param name The supplier, one of {@link #HOTEL}, {@link #FLIGHT} or {@link #TAXI}
+     * @return true if the supplier is registered as honouring the key
+     */
+    public static boolean honoursIdempotencyKey(String name) {
+        return supplier(name).honoursKey;
+    }
+
+    private static Supplier supplier(String name) {
+        Supplier supplier = SUPPLIERS.get(name);
+        if (supplier == null) {
+            throw new IllegalArgumentException("Unknown supplier " + name);
+        }
+        return supplier;
+    }
+
+    /**
+     * <p>Records how long a call to a supplier took, against the endpoint it was sent to.</p>
+     *
+     * @param uri The URI the call was sent to
+     * @param duration How long, in ms, the call took
+     */
+    public static void recordLatency(URI uri, long duration) {
+        for (Supplier supplier : SUPPLIERS.values()) {
+            for (SupplierEndpoint endpoint : supplier.endpoints) {
+                if (endpoint.contains(uri)) {
+                    endpoint.recordLatency(duration);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Names the supplier a URI belongs to.</p>
+     *
+     * @param uri The URI a call is sent to
+     * @return The supplier, one of {@link #HOTEL}, {@link #FLIGHT} or {@link #TAXI}, or the host of the URI if it is
+     *         not at any of their endpoints
+     */
+    public static String nameOf(URI uri) {
+        for (Map.Entry<String, Supplier> entry : SUPPLIERS.entrySet()) {
+            for (SupplierEndpoint endpoint : entry.getValue().endpoints) {
+                if (endpoint.contains(uri)) {
+                    return entry.getKey();
+                }
+            }
+        }
+        return uri.getHost();
+    }
+
+    /**
+     * <p>Returns the health check URI of every endpoint, for the {@link SupplierHealthChecker}.</p>
+     *
+     * @return A Map of each SupplierEndpoint to the URI to check it with
+     */
+    static Map<SupplierEndpoint, URI> getHealthChecks() {
+        Map<SupplierEndpoint, URI> checks = new LinkedHashMap<SupplierEndpoint, URI>();
+        for (Supplier supplier : SUPPLIERS.values()) {
+            for (SupplierEndpoint endpoint : supplier.endpoints) {
+                checks.put(endpoint, endpoint.uri(supplier.healthPath));
+            }
+        }
+        return checks;
+    }
+
+    /**
+     * <p>Returns the endpoints of every supplier and what is known of them.</p>
+     *
+     * @return A Map of supplier name to a Map of base URL to the statistics of the endpoint
+     */
+    public static Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<String, Map<String, Object>>();
+        for (Map.Entry<String, Supplier> entry : SUPPLIERS.entrySet()) {
+            Map<String, Object> endpoints = new TreeMap<String, Object>();
+            for (SupplierEndpoint endpoint : entry.getValue().endpoints) {
+                endpoints.put(endpoint.getBaseUri().toString(), endpoint.getStats());
+            }
+            stats.put(entry.getKey(), endpoints);
+        }
+        return stats;
+    }
+
+    /**
+     * <p>The endpoints of one supplier and how to pick between them.</p>
+     */
+    private static final class Supplier {
+        private final List<SupplierEndpoint> endpoints;
+        private final boolean leastLatency;
+        private final String healthPath;
+        private final boolean honoursKey;
+
+        private Supplier(List<SupplierEndpoint> endpoints, boolean leastLatency, String healthPath,
+                boolean honoursKey) {
+            this.endpoints = Collections.unmodifiableList(endpoints);
+            this.leastLatency = leastLatency;
+            this.healthPath = healthPath;
+            this.honoursKey = honoursKey;
+        }
+
+        private SupplierEndpoint select() {
+            if (endpoints.size() == 1) {
+                return endpoints.get(0);
+            }
+            List<SupplierEndpoint> available = new ArrayList<SupplierEndpoint>();
+            for (SupplierEndpoint endpoint : endpoints) {
+                if (endpoint.isHealthy() && !CircuitBreaker.forHost(endpoint.getHost().getHostName()).isRefusing()) {
+                    available.add(endpoint);
+                }
+            }
+            if (available.isEmpty()) {
+                // Better to try an endpoint that may have recovered than to fail every call outright.
+                available = endpoints;
+            }
+            return leastLatency ? fastest(available) : weighted(available);
+        }
+
+        private static SupplierEndpoint fastest(List<SupplierEndpoint> available) {
+            SupplierEndpoint fastest = available.get(0);
+            for (SupplierEndpoint endpoint : available) {
+                if (endpoint.getLatency() < fastest.getLatency()) {
+                    fastest = endpoint;
+                }
+            }
+            return fastest;
+        }
+
+        /**
+         * <p>Smooth weighted round robin: every endpoint gains its weight, the one furthest ahead is picked and falls
+         * back by the total, so the picks are spread out rather than bunched.</p>
+         */
+        private synchronized SupplierEndpoint weighted(List<SupplierEndpoint> available) {
+            int total = 0;
+            SupplierEndpoint best = null;
+            for (SupplierEndpoint endpoint : available) {
+                endpoint.currentWeight += endpoint.getWeight();
+                total += endpoint.getWeight();
+                if (best == null || endpoint.currentWeight > best.currentWeight) {
+                    best = endpoint;
+                }
+            }
+            best.currentWeight -= total;
+            return best;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.Response;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.jboss.quickstarts.wfk.util.DeadlineExceededException;
+import org.jboss.resteasy.spi.AsynchronousResponse;
+
+/**
+ * <p>Resumes a suspended JAX-RS request with the JSON fetched from a supplier. A {@link SupplierPayload} is
+ * written exactly as the supplier sent it.</p>
+ *
+ * <p>An id the supplier answered 404 (not found) for gives a 404 too. A supplier that cannot be reached, is refused by
+ * the circuit breaker or bulkhead, or answers 503 gives a 503 (service unavailable), and one that does not answer in
+ * time a 504 (gateway timeout). Any other failure, such as a 5xx or an answer that cannot be read, gives a 502 (bad
+ * gateway), so that an outage of the supplier is never mistaken for a missing resource.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierClient
+ */
+public class SuspendedResponseCallback<T> implements FutureCallback<T> {
+
+    private static final Logger log = Logger.getLogger(SuspendedResponseCallback.class.getName());
+
+    /** 502 (bad gateway), which JAX-RS 1.1 has no constant for. */
+    private static final int BAD_GATEWAY = 502;
+
+    private final AsynchronousResponse response;
+
+    public SuspendedResponseCallback(AsynchronousResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    public void completed(T result) {
+        if (result instanceof SupplierPayload) {
+            response.setResponse(((SupplierPayload) result).toResponse().build());
+        } else {
+            response.setResponse(Response.ok(result.toString()).build());
+        }
+    }
+
+    @Override
+    public void failed(Exception e) {
+        log.info("Supplier request failed - " + e.toString());
+        response.setResponse(Response.status(statusOf(e)).build());
+    }
+
+    /**
+     * <p>Returns the status code to answer a request with when the call to the supplier failed.</p>
+     *
+     * @param e The failure
+     * @return The HTTP status code
+     */
+    static int statusOf(Exception e) {
+        if (e instanceof SupplierException) {
+            int status = ((SupplierException) e).getStatusCode();
+            if (status == Response.Status.NOT_FOUND.getStatusCode()
+                    || status == Response.Status.SERVICE_UNAVAILABLE.getStatusCode()) {
+                return status;
+            }
+            return BAD_GATEWAY;
+        }
+        if (e instanceof IOException) {
+            return Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+        }
+        if (e instanceof DeadlineExceededException) {
+            return DeadlineExceededException.STATUS;
+        }
+        return BAD_GATEWAY;
+    }
+
+    @Override
+    public void cancelled() {
+        response.setResponse(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+    }
+}
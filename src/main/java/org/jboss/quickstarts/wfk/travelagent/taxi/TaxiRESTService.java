@@ -29,11 +29,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
-import javax.ws.rs.WebApplicationException;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierClient;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierPayload;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SuspendedResponseCallback;
+import org.jboss.resteasy.annotations.Suspend;
+import org.jboss.resteasy.spi.AsynchronousResponse;
 
 /**
  * <p>This class exposes the functionality of {@link CustomerService} over HTTP endpoints as a RESTful resource via
@@ -69,37 +70,32 @@ public class TaxiRESTService {
     private TaxiService service;    
     
     /**
-     * <p>Search for and return all the Customers.  They are sorted alphabetically by name.</p>
+     * <p>Search for and return all the Taxis.</p>
+     *
+     * <p>The request is suspended while the taxi supplier is called, so no request thread is held waiting on it. The
+     * supplier's response is passed through unparsed.</p>
      * 
-     * @return A Response containing a list of Customers
+     * @param response The suspended response, resumed with the list of Taxis
      */
     @GET
-    public Response retrieveAllTaxis() {
-        JSONArray taxis = service.findAllOrderedByName();
-        
-        if (taxis == null) {
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-        return Response.ok(taxis.toString()).build();
-        
+    public void retrieveAllTaxis(@Suspend(SupplierClient.SUSPEND_TIMEOUT) AsynchronousResponse response) {
+        service.findAllOrderedByName(new SuspendedResponseCallback<SupplierPayload>(response));
     }
     
     /**
      * <p>Search for and return a Taxi identified by id.</p>
+     *
+     * <p>The request is suspended while the taxi supplier is called, so no request thread is held waiting on it. The
+     * supplier's response is passed through unparsed.</p>
      * 
      * @param id The long parameter value provided as a Taxi's id
-     * @return A Response containing a single Taxi
+     * @param response The suspended response, resumed with a single Taxi
      */
     @GET
     @Path("/{id:[0-9]+}")
-    public Response retrieveTaxiById(@PathParam("id") long id) {
-        JSONObject taxi = service.findById(id);
-        if (taxi == null) {
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-        //log.info("findById " + id + ": found Taxi = " + Taxi.getName() + " " + Taxi.getPostcode() + " " + Taxi.getPhoneNumber() + " " + Taxi.getId());
-        
-        return Response.ok(taxi.toString()).build();
+    public void retrieveTaxiById(@PathParam("id") long id,
+            @Suspend(SupplierClient.SUSPEND_TIMEOUT) AsynchronousResponse response) {
+        service.findById(id, new SuspendedResponseCallback<SupplierPayload>(response));
     }
     
     
@@ -20,23 +20,21 @@ package org.jboss.quickstarts.wfk.travelagent.taxi;
 
 
 import java.net.URI;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
 
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.utils.HttpClientUtils;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
-import org.jboss.quickstarts.wfk.contact.Contact;
+import org.apache.http.concurrent.FutureCallback;
 import org.jboss.quickstarts.wfk.hotel.HotelRepository;
 import org.jboss.quickstarts.wfk.hotel.HotelValidator;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.jboss.quickstarts.wfk.travelagent.supplier.RequestHedger;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierCache;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierClient;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierPayload;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRegistry;
 
 /**
  * <p>This Service assumes the Control responsibility in the ECB pattern.</p>
@@ -60,55 +58,54 @@ public class TaxiService {
     private @Named("logger") Logger log;
 	
     @Inject
-    private @Named("httpClient") CloseableHttpClient httpClient;
-    
+    private SupplierClient supplier;
+
+    /** The taxis change rarely, so the supplier's responses are cached for every request. */
+    private static final SupplierCache<String, SupplierPayload> CATALOG =
+            new SupplierCache<String, SupplierPayload>("taxis", 1);
+    private static final SupplierCache<Long, SupplierPayload> BY_ID =
+            new SupplierCache<Long, SupplierPayload>("taxis by id");
+    /** A single taxi is fetched while a user waits, so a slow answer is hedged. */
+    private static final RequestHedger HEDGER = RequestHedger.forName("taxis by id");
+
     /**
-     * <p>Returns a List of all persisted {@link Contact} objects, sorted alphabetically by last name.<p/>
+     * <p>Fetches all taxis without blocking the calling thread, answering from the cache when it can.<p/>
      * 
-     * @return List of Contact objects
+     * @param callback Notified with the Taxis, as sent by the supplier, once it has answered
+     * @return A Future holding the Taxis as sent by the supplier
      */
-    JSONArray findAllOrderedByName() {
-    	try
-    	{
-        URI uri = new URIBuilder()
-                .setScheme("http")
-                .setHost("jbosscontactsangularjs-110060653.rhcloud.com")
-                .setPath("/rest/taxis")
-                .build();
-        HttpGet req = new HttpGet(uri);
-        CloseableHttpResponse response = httpClient.execute(req);
-        String responseBody = EntityUtils.toString(response.getEntity());
-        JSONArray responseJson = new JSONArray(responseBody);
-        
-        HttpClientUtils.closeQuietly(response);
-        return responseJson;
-    	} catch (Exception e) {
-    	log.info(e.toString());
-    	return null;
-    	}
+    Future<SupplierPayload> findAllOrderedByName(FutureCallback<SupplierPayload> callback) {
+        return CATALOG.get("all", new SupplierCache.Loader<SupplierPayload>() {
+            @Override
+            public Future<SupplierPayload> load(SupplierPayload current, FutureCallback<SupplierPayload> loaded) {
+                return supplier.getPayload(SupplierRegistry.uri(SupplierRegistry.TAXI, "/rest/taxis"), current,
+                        loaded);
+            }
+        }, callback);
     }
 
-	JSONObject findById(Long id) {
-		
-    	try
-    	{
-        URI uri = new URIBuilder()
-                .setScheme("http")
-                .setHost("jbosscontactsangularjs-110060653.rhcloud.com")
-                .setPath("/rest/taxis/id/" + id.toString())
-                //.setParameter("id", id.toString())
-                .build();
-        HttpGet req = new HttpGet(uri);
-        CloseableHttpResponse response = httpClient.execute(req);
-        String responseBody = EntityUtils.toString(response.getEntity());
-        JSONObject responseJson = new JSONObject(responseBody);
-        
-        HttpClientUtils.closeQuietly(response);
-        return responseJson;
-    	} catch (Exception e) {
-    	log.info(e.toString());
-    	return null;
-    	}
-    	
-	}
-}
\ No newline at end of file
+    /**
+     * <p>Fetches a single Taxi, specified by a Long id, without blocking the calling thread, answering from the cache
+     * when it can.<p/>
+     * 
+     * @param id The id field of the Taxi to be returned
+     * @param callback Notified with the Taxi, as sent by the supplier, once it has answered
+     * @return A Future holding the Taxi as sent by the supplier
+     */
+    Future<SupplierPayload> findById(final Long id, FutureCallback<SupplierPayload> callback) {
+        return BY_ID.get(id, new SupplierCache.Loader<SupplierPayload>() {
+            @Override
+            public Future<SupplierPayload> load(final SupplierPayload current,
+                    FutureCallback<SupplierPayload> loaded) {
+                return HEDGER.get(new RequestHedger.Attempt<SupplierPayload>() {
+                    @Override
+                    public Future<SupplierPayload> start(FutureCallback<SupplierPayload> attempt) {
+                        // Each attempt picks its endpoint afresh, so a hedge may well go to another one.
+                        URI uri = SupplierRegistry.uri(SupplierRegistry.TAXI, "/rest/taxis/id/" + id.toString());
+                        return supplier.getPayload(uri, current, attempt);
+                    }
+                }, loaded);
+            }
+        }, callback);
+    }
+}
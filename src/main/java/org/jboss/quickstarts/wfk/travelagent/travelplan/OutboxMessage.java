@@ -0,0 +1,210 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.travelplan;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.UUID;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * <p>A supplier booking waiting to be made for a {@link TravelPlan}, written to the outbox in the same transaction as
+ * the plan itself.</p>
+ *
+ * <p>A message is PENDING until the {@link TravelPlanCompleter} claims it, DISPATCHING while its supplier call is in
+ * flight, and then SENT with the id of the booking, or FAILED with the reason. A message whose call was sent but never
+ * answered, because the deadline passed, the connection broke or the server stopped, is UNKNOWN: the supplier may or
+ * may not hold the booking, so it is handed to the {@link SagaLog} to be reconciled.</p>
+ *
+ * <p>Each message carries a reference of its own, sent to the supplier as the <code>Idempotency-Key</code> of the
+ * booking request. Sending the same request again with it gives back the booking the first one made, if it made
+ * one, rather than a second booking.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see TravelPlanOutbox
+ */
+/*
+ * The @NamedQueries included here are for searching against the table that reflects this object.  This is the most efficient
+ * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
+ */
+@Entity
+@NamedQueries({
+    @NamedQuery(name = OutboxMessage.FIND_BY_TRAVEL_PLAN_AND_STATUS, query = "SELECT m FROM OutboxMessage m"
+            + " WHERE m.travelPlanId = :travelPlanId AND m.status = :status ORDER BY m.id ASC"),
+    @NamedQuery(name = OutboxMessage.FIND_BY_TRAVEL_PLANS_AND_STATUS, query = "SELECT m FROM OutboxMessage m"
+            + " WHERE m.travelPlanId IN :travelPlanIds AND m.status = :status ORDER BY m.id ASC"),
+    @NamedQuery(name = OutboxMessage.FIND_STALLED, query = "SELECT DISTINCT m.travelPlanId FROM OutboxMessage m"
+            + " WHERE m.status = :status AND m.created <= :before"),
+    @NamedQuery(name = OutboxMessage.FIND_LOST, query = "SELECT m FROM OutboxMessage m"
+            + " WHERE m.status = :status AND m.dispatched <= :before")
+})
+@XmlRootElement
+@Table(name = "OutboxMessage")
+public class OutboxMessage implements Serializable {
+    /** Default value included to remove warning. Remove or modify at will. **/
+    private static final long serialVersionUID = 1L;
+
+    public static final String FIND_BY_TRAVEL_PLAN_AND_STATUS = "OutboxMessage.findByTravelPlanAndStatus";
+    public static final String FIND_BY_TRAVEL_PLANS_AND_STATUS = "OutboxMessage.findByTravelPlansAndStatus";
+    public static final String FIND_STALLED = "OutboxMessage.findStalled";
+    public static final String FIND_LOST = "OutboxMessage.findLost";
+
+    /** How far a message has got. */
+    public enum Status {
+        PENDING, DISPATCHING, SENT, FAILED, UNKNOWN
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE)
+    private Long id;
+
+    @NotNull
+    @Column(name = "travelPlanId")
+    private Long travelPlanId;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "leg")
+    private SagaStep.Leg leg;
+
+    /* Sent as the Idempotency-Key of the booking request, so that it can be repeated without booking twice. */
+    @NotNull
+    @Column(name = "reference", length = 36)
+    private String reference;
+
+    /* The JSON body of the booking request, as it is to be POSTed to the supplier. */
+    @NotNull
+    @Column(name = "payload", length = 1000)
+    private String payload;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status")
+    private Status status;
+
+    @NotNull
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "created")
+    private Date created;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "dispatched")
+    private Date dispatched;
+
+    @Column(name = "bookingId")
+    private Long bookingId;
+
+    @Column(name = "lastError")
+    private String lastError;
+
+    public OutboxMessage() {
+    }
+
+    public OutboxMessage(Long travelPlanId, SagaStep.Leg leg, String payload) {
+        this.travelPlanId = travelPlanId;
+        this.leg = leg;
+        this.reference = UUID.randomUUID().toString();
+        this.payload = payload;
+        this.status = Status.PENDING;
+        this.created = new Date();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getTravelPlanId() {
+        return travelPlanId;
+    }
+
+    public void setTravelPlanId(Long travelPlanId) {
+        this.travelPlanId = travelPlanId;
+    }
+
+    public SagaStep.Leg getLeg() {
+        return leg;
+    }
+
+    public void setLeg(SagaStep.Leg leg) {
+        this.leg = leg;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public void setReference(String reference) {
+        this.reference = reference;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Date getDispatched() {
+        return dispatched;
+    }
+
+    public void setDispatched(Date dispatched) {
+        this.dispatched = dispatched;
+    }
+
+    public Long getBookingId() {
+        return bookingId;
+    }
+
+    public void setBookingId(Long bookingId) {
+        this.bookingId = bookingId;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.travelplan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierException;
+import org.jboss.quickstarts.wfk.util.Deadline;
+
+/**
+ * <p>Cancels, in the background, the supplier bookings the {@link SagaLog} has marked for compensation.</p>
+ *
+ * <p>A supplier answering 204 (no content), or 404 (not found) because the booking is already gone, completes the
+ * step. Anything else is retried later with backoff. The steps of a cancelled TravelPlan are cancelled straight away
+ * in an {@link Asynchronous} call, and a timer picks up whatever is due after that. Either way the steps handed out are
+ * cancelled in parallel, and are leased by the SagaLog so that no two runs cancel the same step. The bean manages its
+ * own concurrency so that cancellations of many plans run side by side; timer runs never overlap.</p>
+ *
+ * <p>A step whose booking request had an unknown outcome, because it was lost or cut off by its deadline, has no
+ * booking id yet. When its supplier is registered as honouring the <code>Idempotency-Key</code> (see
+ * {@link org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRegistry}) it is reconciled first, by sending the
+ * request again under the reference it was first sent with: the supplier gives back the booking the first request
+ * made, or makes it now, and either way the booking is then cancelled. Any other supplier could book it a second time,
+ * so the step is never sent again but left FAILED for an operator, as is a step the supplier refuses to replay.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SagaLog
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SagaCompensator {
+
+    private static final int BATCH_SIZE = Integer.getInteger("travel.saga.batchSize", 50);
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private SagaLog sagaLog;
+
+    @Inject
+    private TravelPlanBooker booker;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * <p>Runs every 10 seconds. The timer is not persistent, the saga log itself is what survives a restart.</p>
+     */
+    @Schedule(second = "*/10", minute = "*", hour = "*", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void compensateDue() {
+        if (!running.compareAndSet(false, true)) {
+            // The last run is still waiting on the suppliers.
+            return;
+        }
+        try {
+            cancel(sagaLog.claimDue(BATCH_SIZE));
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * <p>Cancels the bookings of a TravelPlan the SagaLog has just marked for compensation, without waiting for the
+     * timer. What cannot be cancelled now is retried by the timer.</p>
+     *
+     * @param travelPlanId The id of the CANCELLING TravelPlan
+     */
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void compensate(Long travelPlanId) {
+        cancel(sagaLog.claimDue(travelPlanId));
+    }
+
+    private void cancel(List<SagaStep> steps) {
+        steps = reconcile(steps);
+        if (steps.isEmpty()) {
+            return;
+        }
+
+        List<Future<Integer>> cancellations = new ArrayList<Future<Integer>>();
+        for (SagaStep step : steps) {
+            cancellations.add(booker.cancel(step.getLeg(), step.getBookingId()));
+        }
+
+        for (int i = 0; i < steps.size(); i++) {
+            SagaStep step = steps.get(i);
+            String error;
+            try {
+                int status = cancellations.get(i).get();
+                if (status == 204 || status == 404) {
+                    sagaLog.compensated(step.getId());
+                    continue;
+                }
+                error = "Supplier responded " + status;
+            } catch (ExecutionException e) {
+                error = String.valueOf(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            log.info("SagaCompensator - Cancelling " + step.getLeg() + " booking #" + step.getBookingId()
+                    + " failed: " + error);
+            sagaLog.retryLater(step.getId(), error);
+        }
+    }
+
+    /**
+     * <p>Learns the booking id of each step whose outcome was unknown by repeating its booking request, all of them in
+     * parallel. Returns the steps that now have a booking id. A step whose supplier did not answer is retried later,
+     * one that cannot be replayed safely is left for an operator.</p>
+     */
+    private List<SagaStep> reconcile(List<SagaStep> steps) {
+        List<SagaStep> known = new ArrayList<SagaStep>();
+        List<SagaStep> uncertain = new ArrayList<SagaStep>();
+        List<Future<Long>> replays = new ArrayList<Future<Long>>();
+        for (SagaStep step : steps) {
+            if (step.getBookingId() != null) {
+                known.add(step);
+            } else if (!booker.canReplay(step.getLeg())) {
+                sagaLog.abandon(step.getId(), "The " + step.getLeg()
+                        + " supplier does not honour the Idempotency-Key, so the booking cannot be sent again");
+            } else {
+                uncertain.add(step);
+                replays.add(booker.book(step.getLeg(), step.getReference(), step.getPayload(), Deadline.NONE, null));
+            }
+        }
+
+        for (int i = 0; i < uncertain.size(); i++) {
+            SagaStep step = uncertain.get(i);
+            try {
+                Long bookingId = replays.get(i).get();
+                sagaLog.reconciled(step.getId(), bookingId);
+                step.setBookingId(bookingId);
+                known.add(step);
+            } catch (ExecutionException e) {
+                if (isRefused(e.getCause())) {
+                    // The supplier will not give back the booking under its key, a retry would be refused again.
+                    sagaLog.abandon(step.getId(), String.valueOf(e.getCause()));
+                    continue;
+                }
+                log.info("SagaCompensator - Reconciling " + step.getLeg() + " booking " + step.getReference()
+                        + " failed: " + e.getCause());
+                sagaLog.retryLater(step.getId(), String.valueOf(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return known;
+    }
+
+    /**
+     * <p>A 4xx answer, such as a 409 (conflict) because the item is held under another booking, means the supplier
+     * has read the request and turned it down, rather than failed to answer. A 408 (request timeout) or 429 (too many
+     * requests) is only a request to try again later.</p>
+     */
+    private static boolean isRefused(Throwable cause) {
+        if (!(cause instanceof SupplierException)) {
+            return false;
+        }
+        int status = ((SupplierException) cause).getStatusCode();
+        return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.travelplan;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+
+/**
+ * <p>Records the supplier bookings of each {@link TravelPlan}, and their compensation, in the durable saga log (see
+ * {@link SagaStep}).</p>
+ *
+ * <p>Compensating a plan only writes to the log, in the caller's transaction, so the caller does not wait on the
+ * suppliers. The {@link SagaCompensator} then works through the log in the background. Retries back off exponentially,
+ * tunable with the system properties <code>travel.saga.backoff</code> (ms before the first retry, default 10000),
+ * <code>travel.saga.maxBackoff</code> (ms, default 3600000) and <code>travel.saga.maxAttempts</code> (default 10).</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SagaCompensator
+ */
+@Stateless
+public class SagaLog {
+
+    private static final long BACKOFF = Long.getLong("travel.saga.backoff", 10000L);
+    private static final long MAX_BACKOFF = Long.getLong("travel.saga.maxBackoff", 3600000L);
+    private static final int MAX_ATTEMPTS = Integer.getInteger("travel.saga.maxAttempts", 10);
+
+    /** How long, in ms, steps handed out for cancellation are held before they may be handed out again. */
+    private static final long LEASE = 60000L;
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private EntityManager em;
+
+    /**
+     * <p>Records the three bookings of a TravelPlan that has just been created.</p>
+     *
+     * @param travelPlan The persisted TravelPlan
+     */
+    public void booked(TravelPlan travelPlan) {
+        for (SagaStep step : steps(travelPlan, SagaStep.Status.BOOKED)) {
+            em.persist(step);
+        }
+    }
+
+    /**
+     * <p>Marks the bookings of a TravelPlan to be cancelled. A plan that was never booked has no steps yet, so they
+     * are recorded from the booking ids it holds.</p>
+     *
+     * @param travelPlan The TravelPlan being deleted, or that could not be created
+     */
+    public void compensate(TravelPlan travelPlan) {
+        log.info("SagaLog.compensate() - Compensating the bookings of TravelPlan #" + travelPlan.getId());
+        List<SagaStep> steps = new ArrayList<SagaStep>();
+        if (travelPlan.getId() != null) {
+            steps = em.createNamedQuery(SagaStep.FIND_BY_TRAVEL_PLAN, SagaStep.class)
+                    .setParameter("travelPlanId", travelPlan.getId())
+                    .getResultList();
+        }
+        if (steps.isEmpty()) {
+            steps = steps(travelPlan, SagaStep.Status.BOOKED);
+            for (SagaStep step : steps) {
+                em.persist(step);
+            }
+        }
+
+        Date now = new Date();
+        for (SagaStep step : steps) {
+            if (step.getStatus() == SagaStep.Status.BOOKED) {
+                step.setStatus(SagaStep.Status.COMPENSATING);
+                step.setNextAttempt(now);
+            }
+        }
+    }
+
+    /**
+     * <p>Marks the bookings of a TravelPlan to be cancelled, as {@link #compensate(TravelPlan)} does, together with the
+     * booking requests whose outcome is unknown. Those are recorded without a booking id, to be reconciled with their
+     * supplier before they are cancelled.</p>
+     *
+     * @param travelPlan The TravelPlan that could not be booked, or is being cancelled
+     * @param uncertain The UNKNOWN messages of the plan, whose supplier may or may not hold the booking
+     */
+    public void compensate(TravelPlan travelPlan, List<OutboxMessage> uncertain) {
+        compensate(travelPlan);
+        if (uncertain.isEmpty()) {
+            return;
+        }
+        Set<String> recorded = new HashSet<String>();
+        for (SagaStep step : em.createNamedQuery(SagaStep.FIND_BY_TRAVEL_PLAN, SagaStep.class)
+                .setParameter("travelPlanId", uncertain.get(0).getTravelPlanId())
+                .getResultList()) {
+            recorded.add(step.getReference());
+        }
+        for (OutboxMessage message : uncertain) {
+            if (!recorded.add(message.getReference())) {
+                // Already recorded, by whichever of the dispatch or the recovery settled it first.
+                continue;
+            }
+            log.warning("SagaLog.compensate() - The outcome of the " + message.getLeg() + " booking of TravelPlan #"
+                    + message.getTravelPlanId() + " is unknown, reconciling it with the supplier");
+            SagaStep step = new SagaStep(message.getTravelPlanId(), message.getLeg(), null,
+                    SagaStep.Status.COMPENSATING);
+            step.setReference(message.getReference());
+            step.setPayload(message.getPayload());
+            step.setNextAttempt(new Date());
+            em.persist(step);
+        }
+    }
+
+    /**
+     * <p>Hands out the steps whose cancellation is due, oldest first. They are not handed out again until their
+     * outcome is recorded or, should that never happen, a lease of a minute has run out.</p>
+     *
+     * @param max The most steps to return
+     * @return List of SagaStep objects
+     */
+    public List<SagaStep> claimDue(int max) {
+        return lease(em.createNamedQuery(SagaStep.FIND_DUE, SagaStep.class)
+                .setParameter("status", SagaStep.Status.COMPENSATING)
+                .setParameter("now", new Date())
+                .setMaxResults(max)
+                .getResultList());
+    }
+
+    /**
+     * <p>Hands out the steps of one TravelPlan whose cancellation is due, as {@link #claimDue(int)} does.</p>
+     *
+     * @param travelPlanId The id of the TravelPlan
+     * @return List of SagaStep objects
+     */
+    public List<SagaStep> claimDue(Long travelPlanId) {
+        return lease(em.createNamedQuery(SagaStep.FIND_DUE_FOR_TRAVEL_PLAN, SagaStep.class)
+                .setParameter("travelPlanId", travelPlanId)
+                .setParameter("status", SagaStep.Status.COMPENSATING)
+                .setParameter("now", new Date())
+                .getResultList());
+    }
+
+    /**
+     * <p>Checks whether every booking of a TravelPlan has been cancelled. A plan with no bookings has nothing left to
+     * cancel.</p>
+     *
+     * @param travelPlanId The id of the TravelPlan
+     * @return true if no step of the plan is still to be cancelled
+     */
+    public boolean isCompensated(Long travelPlanId) {
+        for (SagaStep step : em.createNamedQuery(SagaStep.FIND_BY_TRAVEL_PLAN, SagaStep.class)
+                .setParameter("travelPlanId", travelPlanId)
+                .getResultList()) {
+            if (step.getStatus() != SagaStep.Status.COMPENSATED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>Records the booking a step whose outcome was unknown turned out to have, so that it can be cancelled.</p>
+     *
+     * @param id The id of the SagaStep
+     * @param bookingId The id of the booking the supplier holds under the step's reference
+     */
+    public void reconciled(Long id, Long bookingId) {
+        SagaStep step = em.find(SagaStep.class, id);
+        log.info("SagaLog.reconciled() - The " + step.getLeg() + " booking of TravelPlan #" + step.getTravelPlanId()
+                + " is #" + bookingId);
+        step.setBookingId(bookingId);
+    }
+
+    /**
+     * <p>Marks a step as cancelled with its supplier. A CANCELLING TravelPlan is CANCELLED once its last step is. The
+     * plan is locked first, so that of two steps compensated at once the second sees the first and cancels the
+     * plan.</p>
+     *
+     * @param id The id of the SagaStep
+     */
+    public void compensated(Long id) {
+        SagaStep step = em.find(SagaStep.class, id);
+        step.setStatus(SagaStep.Status.COMPENSATED);
+        step.setAttempts(step.getAttempts() + 1);
+        step.setNextAttempt(null);
+        step.setLastError(null);
+
+        TravelPlan travelPlan = em.find(TravelPlan.class, step.getTravelPlanId(), LockModeType.PESSIMISTIC_WRITE);
+        if (travelPlan != null && travelPlan.getStatus() == TravelPlan.Status.CANCELLING
+                && isCompensated(travelPlan.getId())) {
+            log.info("SagaLog.compensated() - TravelPlan #" + travelPlan.getId() + " is cancelled");
+            travelPlan.setStatus(TravelPlan.Status.CANCELLED);
+        }
+    }
+
+    /**
+     * <p>Records a failed cancellation and schedules the next attempt, or gives up on the step once it has had
+     * <code>travel.saga.maxAttempts</code>.</p>
+     *
+     * @param id The id of the SagaStep
+     * @param error Why the cancellation failed
+     */
+    public void retryLater(Long id, String error) {
+        SagaStep step = em.find(SagaStep.class, id);
+        int attempts = step.getAttempts() + 1;
+        step.setAttempts(attempts);
+        step.setLastError(error != null && error.length() > 255 ? error.substring(0, 255) : error);
+        if (attempts >= MAX_ATTEMPTS) {
+            log.severe("SagaLog.retryLater() - Giving up cancelling " + step.getLeg() + " booking #"
+                    + step.getBookingId() + " after " + attempts + " attempts: " + error);
+            step.setStatus(SagaStep.Status.FAILED);
+            step.setNextAttempt(null);
+        } else {
+            long backoff = Math.min(BACKOFF << Math.min(attempts - 1, 30), MAX_BACKOFF);
+            step.setNextAttempt(new Date(System.currentTimeMillis() + backoff));
+        }
+    }
+
+    /**
+     * <p>Gives up on a step without further attempts, leaving it FAILED for an operator. Used when the booking cannot
+     * be learned safely, as retrying would not help and sending it again could book it twice.</p>
+     *
+     * @param id The id of the SagaStep
+     * @param reason Why the step is left for an operator
+     */
+    public void abandon(Long id, String reason) {
+        SagaStep step = em.find(SagaStep.class, id);
+        log.severe("SagaLog.abandon() - Leaving the " + step.getLeg() + " booking " + step.getReference()
+                + " of TravelPlan #" + step.getTravelPlanId() + " for an operator: " + reason);
+        step.setAttempts(step.getAttempts() + 1);
+        step.setLastError(reason != null && reason.length() > 255 ? reason.substring(0, 255) : reason);
+        step.setStatus(SagaStep.Status.FAILED);
+        step.setNextAttempt(null);
+    }
+
+    private static List<SagaStep> lease(List<SagaStep> steps) {
+        Date until = new Date(System.currentTimeMillis() + LEASE);
+        for (SagaStep step : steps) {
+            step.setNextAttempt(until);
+        }
+        return steps;
+    }
+
+    private static List<SagaStep> steps(TravelPlan travelPlan, SagaStep.Status status) {
+        List<SagaStep> steps = new ArrayList<SagaStep>();
+        if (travelPlan.getHotelBookingId() != null) {
+            steps.add(new SagaStep(travelPlan.getId(), SagaStep.Leg.HOTEL, travelPlan.getHotelBookingId(), status));
+        }
+        if (travelPlan.getFlightBookingId() != null) {
+            steps.add(new SagaStep(travelPlan.getId(), SagaStep.Leg.FLIGHT, travelPlan.getFlightBookingId(), status));
+        }
+        if (travelPlan.getTaxiBookingId() != null) {
+            steps.add(new SagaStep(travelPlan.getId(), SagaStep.Leg.TAXI, travelPlan.getTaxiBookingId(), status));
+        }
+        return steps;
+    }
+}
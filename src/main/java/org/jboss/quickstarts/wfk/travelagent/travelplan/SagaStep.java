@@ -0,0 +1,204 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.travelplan;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * <p>One supplier booking made for a {@link TravelPlan}, and the progress of its compensation (cancellation), as
+ * recorded in the saga log.</p>
+ *
+ * <p>A step is written as BOOKED with its plan. When the plan is deleted, or could not be booked, its steps are moved
+ * to COMPENSATING in the same transaction. The {@link SagaCompensator} then cancels them with the supplier, retrying
+ * with backoff, until each is COMPENSATED or has run out of attempts and is left FAILED for an operator.</p>
+ *
+ * <p>A booking request whose outcome is unknown is written straight to COMPENSATING without a booking id, but with the
+ * reference and payload it was sent with. The SagaCompensator first reconciles it, by sending the request again under
+ * the same reference, and then cancels whatever booking that gives back.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SagaLog
+ */
+/*
+ * The @NamedQueries included here are for searching against the table that reflects this object.  This is the most efficient
+ * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
+ */
+@Entity
+@NamedQueries({
+    @NamedQuery(name = SagaStep.FIND_BY_TRAVEL_PLAN,
+            query = "SELECT s FROM SagaStep s WHERE s.travelPlanId = :travelPlanId ORDER BY s.id ASC"),
+    @NamedQuery(name = SagaStep.FIND_DUE, query = "SELECT s FROM SagaStep s WHERE s.status = :status"
+            + " AND s.nextAttempt <= :now ORDER BY s.nextAttempt ASC"),
+    @NamedQuery(name = SagaStep.FIND_DUE_FOR_TRAVEL_PLAN, query = "SELECT s FROM SagaStep s"
+            + " WHERE s.travelPlanId = :travelPlanId AND s.status = :status AND s.nextAttempt <= :now")
+})
+@XmlRootElement
+@Table(name = "SagaStep")
+public class SagaStep implements Serializable {
+    /** Default value included to remove warning. Remove or modify at will. **/
+    private static final long serialVersionUID = 1L;
+
+    public static final String FIND_BY_TRAVEL_PLAN = "SagaStep.findByTravelPlan";
+    public static final String FIND_DUE = "SagaStep.findDue";
+    public static final String FIND_DUE_FOR_TRAVEL_PLAN = "SagaStep.findDueForTravelPlan";
+
+    /** The supplier a step was booked with. */
+    public enum Leg {
+        HOTEL, FLIGHT, TAXI
+    }
+
+    /** How far a step has got. */
+    public enum Status {
+        BOOKED, COMPENSATING, COMPENSATED, FAILED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE)
+    private Long id;
+
+    /* Null when the plan could not be created, the steps then only record what has to be cancelled. */
+    @Column(name = "travelPlanId")
+    private Long travelPlanId;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "leg")
+    private Leg leg;
+
+    /* Null until a booking whose outcome was unknown has been reconciled with the supplier. */
+    @Column(name = "bookingId")
+    private Long bookingId;
+
+    /* The Idempotency-Key and body of the booking request, kept to reconcile a booking whose outcome was unknown. */
+    @Column(name = "reference", length = 36)
+    private String reference;
+
+    @Column(name = "payload", length = 1000)
+    private String payload;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status")
+    private Status status;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "nextAttempt")
+    private Date nextAttempt;
+
+    @Column(name = "lastError")
+    private String lastError;
+
+    public SagaStep() {
+    }
+
+    public SagaStep(Long travelPlanId, Leg leg, Long bookingId, Status status) {
+        this.travelPlanId = travelPlanId;
+        this.leg = leg;
+        this.bookingId = bookingId;
+        this.status = status;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getTravelPlanId() {
+        return travelPlanId;
+    }
+
+    public void setTravelPlanId(Long travelPlanId) {
+        this.travelPlanId = travelPlanId;
+    }
+
+    public Leg getLeg() {
+        return leg;
+    }
+
+    public void setLeg(Leg leg) {
+        this.leg = leg;
+    }
+
+    public Long getBookingId() {
+        return bookingId;
+    }
+
+    public void setBookingId(Long bookingId) {
+        this.bookingId = bookingId;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public void setReference(String reference) {
+        this.reference = reference;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Date nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+}
@@ -51,6 +51,11 @@ public class TravelPlan implements Serializable {
     
     public static final String FIND_ALL = "TravelPlan.findAll";
 
+    /** How far the supplier bookings of a plan, or their cancellation, have got. */
+    public enum Status {
+        PENDING, BOOKED, FAILED, CANCELLING, CANCELLED
+    }
+
     /*
      * The  error messages match the ones in the UI so that the user isn't confused by two similar error messages for
      * the same error after hitting submit. This is if the form submits while having validation errors. The only
@@ -68,18 +73,21 @@ public class TravelPlan implements Serializable {
     @JoinColumn(name="customerId")
     private Customer customer;
     
-    @NotNull
     @Column(name = "flightBookingId")
     private Long flightBookingId;
 
-    @NotNull
     @Column(name = "hotelBookingId")
     private Long hotelBookingId;
 
-    @NotNull
     @Column(name = "taxiBookingId")
     private Long taxiBookingId;
 
+    /* The booking ids are only filled in once the outbox has booked every leg with its supplier. */
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status")
+    private Status status = Status.PENDING;
+
     public Customer getCustomer() {
 		return customer;
 	}
@@ -120,4 +128,12 @@ public class TravelPlan implements Serializable {
         this.taxiBookingId = taxiBookingId;
     }
 
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
 }
@@ -0,0 +1,150 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.travelplan;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.Future;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.codehaus.jackson.JsonGenerator;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierClient;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRegistry;
+import org.jboss.quickstarts.wfk.util.Deadline;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+
+/**
+ * <p>Places and cancels the individual supplier bookings that make up a {@link TravelPlan}.</p>
+ *
+ * <p>Every call goes through the non-blocking {@link SupplierClient} and returns a {@link Future} straight away, so the
+ * hotel, flight and taxi bookings of a plan are in flight together. Bookings are made by the
+ * {@link TravelPlanCompleter} from the outbox, cancellations and reconciliations by the {@link SagaCompensator}. Each
+ * call is sent to the endpoint the {@link SupplierRegistry} picks for the supplier.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see TravelPlanService
+ */
+//@Dependent annotation designates the default scope, listed here so that you know what scope is being used.
+@Dependent
+public class TravelPlanBooker {
+
+    @Inject
+    private SupplierClient supplier;
+
+    private final Long travelAgentTaxi = (long) 10000;
+    private final Long travelAgentFlight = (long) 18181;
+    private final Long travelAgentHotel = (long) 18181;
+
+    /**
+     * <p>Builds the JSON body of the request that books one leg of the given {@link TravelSketch}.</p>
+     *
+     * <p>The body is written token by token with the application's Jackson generator, so the values are escaped and
+     * no intermediate strings are built up. It is kept as text because it is held in the outbox until sent.</p>
+     *
+     * @param leg The supplier to book with
+     * @param travelSketch The TravelSketch to book
+     * @return The JSON body to POST to the supplier
+     */
+    String payload(SagaStep.Leg leg, TravelSketch travelSketch) {
+        StringWriter json = new StringWriter(128);
+        try {
+            JsonGenerator generator = JacksonConfig.getObjectMapper().getJsonFactory().createJsonGenerator(json);
+            generator.writeStartObject();
+            switch (leg) {
+            case HOTEL:
+                generator.writeObjectFieldStart("customer");
+                generator.writeStringField("id", travelAgentHotel.toString());
+                generator.writeEndObject();
+                generator.writeObjectFieldStart("hotel");
+                generator.writeStringField("id", travelSketch.getHotelId().toString());
+                generator.writeEndObject();
+                break;
+            case FLIGHT:
+                generator.writeStringField("customerId", travelAgentFlight.toString());
+                generator.writeStringField("flightId", travelSketch.getFlightId().toString());
+                break;
+            default:
+                generator.writeStringField("customerId", travelAgentTaxi.toString());
+                generator.writeStringField("taxiId", travelSketch.getTaxiId().toString());
+                break;
+            }
+            generator.writeStringField("bookingDate", travelSketch.getBookingDate());
+            generator.writeEndObject();
+            generator.close();
+        } catch (IOException e) {
+            // A StringWriter does not throw, so this can only be a bug in building the document.
+            throw new IllegalStateException(e);
+        }
+        return json.toString();
+    }
+
+    /**
+     * <p>Books one leg of a plan. Booking it again with the same reference and payload gives back the booking the first
+     * call made, if the supplier made one and honours the Idempotency-Key (see {@link #canReplay(SagaStep.Leg)}), which
+     * is how a booking whose outcome was lost is reconciled.</p>
+     *
+     * @param leg The supplier to book with
+     * @param reference The reference of the booking, sent to the supplier as its Idempotency-Key
+     * @param payload The JSON body built by {@link #payload(SagaStep.Leg, TravelSketch)}
+     * @param deadline The time by which the supplier must have answered
+     * @param callback Notified with the id of the booking, may be null
+     * @return A Future holding the id of the booking
+     */
+    Future<Long> book(SagaStep.Leg leg, String reference, String payload, Deadline deadline,
+            FutureCallback<Long> callback) {
+        return supplier.postForId(SupplierRegistry.uri(supplier(leg), "/rest/bookings"), payload, reference, deadline,
+                callback);
+    }
+
+    /**
+     * <p>Tells whether a leg can be booked again under its reference without risk of a second booking, which is only
+     * so when its supplier honours the Idempotency-Key.</p>
+     *
+     * @param leg The supplier the booking was sent to
+     * @return true if sending the booking again gives back the one already made
+     */
+    boolean canReplay(SagaStep.Leg leg) {
+        return SupplierRegistry.honoursIdempotencyKey(supplier(leg));
+    }
+
+    /**
+     * <p>Cancels one supplier booking.</p>
+     *
+     * @param leg The supplier the booking was made with
+     * @param bookingId The id of the booking
+     * @return A Future holding the status code the supplier responded with
+     */
+    Future<Integer> cancel(SagaStep.Leg leg, Long bookingId) {
+        return supplier.delete(SupplierRegistry.uri(supplier(leg), "/rest/bookings/" + bookingId), null);
+    }
+
+    private static String supplier(SagaStep.Leg leg) {
+        switch (leg) {
+        case HOTEL:
+            return SupplierRegistry.HOTEL;
+        case FLIGHT:
+            return SupplierRegistry.FLIGHT;
+        default:
+            return SupplierRegistry.TAXI;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.travelplan;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
+import javax.ejb.EJBException;
+import javax.ejb.Schedule;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierException;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRejectedException;
+import org.jboss.quickstarts.wfk.util.Deadline;
+import org.jboss.quickstarts.wfk.util.DeadlineExceededException;
+
+/**
+ * <p>Dispatches the supplier bookings of new {@link TravelPlan}s from the {@link TravelPlanOutbox} and settles the
+ * plans once the suppliers have answered.</p>
+ *
+ * <p>Dispatch runs in this bean's {@link Asynchronous} method, outside of any transaction: the legs of a plan are
+ * claimed, booked in parallel, and the plan settled as BOOKED or FAILED in a transaction of its own. Whoever is waiting
+ * on the plan in this server, such as a suspended POST, is notified once the settled plan has been committed.</p>
+ *
+ * <p>A booking is only FAILED when it is certain the supplier made none. One whose request may have reached the
+ * supplier but was never answered, because the deadline passed or the connection broke, is settled as UNKNOWN, to be
+ * reconciled with the supplier by the {@link SagaCompensator}. A timer picks up what a stopped server left behind:
+ * plans whose messages were never dispatched are dispatched, and messages whose outcome was lost are settled as
+ * UNKNOWN in the same way.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see TravelPlanService
+ * @see TravelPlanOutbox
+ */
+@Stateless
+public class TravelPlanCompleter {
+
+    /** How long, in ms, a message may wait in the outbox, or be in flight, before it is taken to be abandoned. */
+    private static final long ABANDONED_AFTER = Long.getLong("travel.outbox.abandonedAfter", 300000L);
+
+    /** How many bookings of a batch may be in flight to one supplier at once. */
+    private static final int BATCH_PER_SUPPLIER = Integer.getInteger("travel.batch.perSupplier", 10);
+
+    private static final ConcurrentMap<Long, FutureCallback<TravelPlan>> WAITING =
+            new ConcurrentHashMap<Long, FutureCallback<TravelPlan>>();
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private TravelPlanOutbox outbox;
+
+    @Inject
+    private TravelPlanBooker booker;
+
+    @Resource
+    private SessionContext context;
+
+    /**
+     * <p>Registers a callback to be notified when a TravelPlan is settled by this server.</p>
+     *
+     * @param travelPlanId The id of the PENDING TravelPlan
+     * @param callback Notified with the BOOKED TravelPlan, or the reason it FAILED
+     */
+    void notifyWhenSettled(Long travelPlanId, FutureCallback<TravelPlan> callback) {
+        WAITING.put(travelPlanId, callback);
+    }
+
+    /**
+     * <p>Books the legs of a TravelPlan waiting in the outbox and settles it.</p>
+     *
+     * <p>The suppliers are only given what is left of the deadline. A leg that has not been answered by then is UNKNOWN,
+     * and once the plan has been settled the legs that were booked, or may have been, are compensated as with any
+     * other failure.</p>
+     *
+     * @param travelPlanId The id of the PENDING TravelPlan
+     * @param deadline The time by which whoever is waiting on the plan must be answered
+     */
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void dispatch(Long travelPlanId, Deadline deadline) {
+        List<OutboxMessage> messages = outbox.claim(travelPlanId);
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        // Send every leg at once so the plan costs the slowest round-trip rather than the sum of all three.
+        List<Future<Long>> bookings = new ArrayList<Future<Long>>();
+        for (OutboxMessage message : messages) {
+            bookings.add(booker.book(message.getLeg(), message.getReference(), message.getPayload(), deadline,
+                    null));
+        }
+        boolean timedOut = false;
+        for (int i = 0; i < messages.size(); i++) {
+            OutboxMessage message = messages.get(i);
+            try {
+                message.setBookingId(bookings.get(i).get(deadline.remaining(), TimeUnit.MILLISECONDS));
+                message.setStatus(OutboxMessage.Status.SENT);
+            } catch (ExecutionException e) {
+                timedOut |= e.getCause() instanceof DeadlineExceededException || deadline.isExpired();
+                message.setStatus(outcomeOf(e.getCause()));
+                message.setLastError(String.valueOf(e.getCause().getMessage()));
+            } catch (TimeoutException e) {
+                // The supplier may yet book it, but nobody is waiting: the outcome is reconciled later.
+                bookings.get(i).cancel(true);
+                timedOut = true;
+                message.setStatus(OutboxMessage.Status.UNKNOWN);
+                message.setLastError("The deadline passed before the supplier answered");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                bookings.get(i).cancel(true);
+                message.setStatus(OutboxMessage.Status.UNKNOWN);
+                message.setLastError("Interrupted");
+            }
+        }
+
+        TravelPlan travelPlan;
+        try {
+            travelPlan = outbox.settle(travelPlanId, messages);
+        } catch (EJBException e) {
+            log.severe("TravelPlanCompleter.dispatch() - TravelPlan #" + travelPlanId + " could not be settled: " + e);
+            notifyUnsettled(travelPlanId, e);
+            return;
+        }
+        notifySettled(travelPlanId, travelPlan, messages, timedOut);
+    }
+
+    /**
+     * <p>Books the legs of a batch of TravelPlans waiting in the outbox and settles them.</p>
+     *
+     * <p>The calls are grouped by supplier and each supplier is worked through a window of at most
+     * <code>travel.batch.perSupplier</code> (default 10) calls in flight, the next sent as soon as one is answered. The
+     * calls to one supplier then reuse the same few pooled keep-alive connections, rather than the whole batch opening
+     * a connection per call or being turned away by the supplier's {@link
+     * org.jboss.quickstarts.wfk.travelagent.supplier.Bulkhead}. The plans are claimed and settled in one transaction
+     * each way.</p>
+     *
+     * @param travelPlanIds The ids of the PENDING TravelPlans
+     * @param deadline The time by which whoever is waiting on the plans must be answered
+     */
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void dispatchAll(List<Long> travelPlanIds, Deadline deadline) {
+        List<OutboxMessage> messages = outbox.claimAll(travelPlanIds);
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        Map<SagaStep.Leg, Queue<OutboxMessage>> bySupplier =
+                new EnumMap<SagaStep.Leg, Queue<OutboxMessage>>(SagaStep.Leg.class);
+        Map<Long, List<OutboxMessage>> byPlan = new LinkedHashMap<Long, List<OutboxMessage>>();
+        for (OutboxMessage message : messages) {
+            if (!bySupplier.containsKey(message.getLeg())) {
+                bySupplier.put(message.getLeg(), new LinkedList<OutboxMessage>());
+            }
+            bySupplier.get(message.getLeg()).add(message);
+            if (!byPlan.containsKey(message.getTravelPlanId())) {
+                byPlan.put(message.getTravelPlanId(), new ArrayList<OutboxMessage>());
+            }
+            byPlan.get(message.getTravelPlanId()).add(message);
+        }
+
+        CountDownLatch answered = new CountDownLatch(messages.size());
+        List<SupplierWindow> windows = new ArrayList<SupplierWindow>();
+        for (Queue<OutboxMessage> queue : bySupplier.values()) {
+            SupplierWindow window = new SupplierWindow(queue, deadline, answered);
+            windows.add(window);
+            for (int i = 0; i < BATCH_PER_SUPPLIER; i++) {
+                window.next();
+            }
+        }
+        try {
+            if (!answered.await(deadline.remaining(), TimeUnit.MILLISECONDS)) {
+                for (SupplierWindow window : windows) {
+                    window.abandon("The deadline passed before the supplier answered");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (SupplierWindow window : windows) {
+                window.abandon("Interrupted");
+            }
+        }
+
+        Map<Long, TravelPlan> settled;
+        try {
+            settled = outbox.settleAll(byPlan);
+        } catch (EJBException e) {
+            log.severe("TravelPlanCompleter.dispatchAll() - " + byPlan.size() + " TravelPlans could not be settled: "
+                    + e);
+            for (Long travelPlanId : byPlan.keySet()) {
+                notifyUnsettled(travelPlanId, e);
+            }
+            return;
+        }
+        for (Map.Entry<Long, List<OutboxMessage>> entry : byPlan.entrySet()) {
+            boolean timedOut = false;
+            for (OutboxMessage message : entry.getValue()) {
+                timedOut |= message.getStatus() != OutboxMessage.Status.SENT && deadline.isExpired();
+            }
+            notifySettled(entry.getKey(), settled.get(entry.getKey()), entry.getValue(), timedOut);
+        }
+    }
+
+    /**
+     * <p>Runs every minute. The timer is not persistent, the outbox itself is what survives a restart.</p>
+     */
+    @Schedule(minute = "*", hour = "*", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void recover() {
+        Date before = new Date(System.currentTimeMillis() - ABANDONED_AFTER);
+        outbox.reconcileLost(before);
+        for (Long travelPlanId : outbox.findStalled(before)) {
+            log.info("TravelPlanCompleter.recover() - Dispatching stalled TravelPlan #" + travelPlanId);
+            context.getBusinessObject(TravelPlanCompleter.class).dispatch(travelPlanId, Deadline.NONE);
+        }
+    }
+
+    private void notifySettled(Long travelPlanId, TravelPlan travelPlan, List<OutboxMessage> messages,
+            boolean timedOut) {
+        FutureCallback<TravelPlan> callback = WAITING.remove(travelPlanId);
+        if (callback == null) {
+            return;
+        }
+        if (travelPlan.getStatus() == TravelPlan.Status.BOOKED) {
+            callback.completed(travelPlan);
+        } else if (timedOut) {
+            callback.failed(new DeadlineExceededException(failure(messages)));
+        } else {
+            callback.failed(new Exception(failure(messages)));
+        }
+    }
+
+    private void notifyUnsettled(Long travelPlanId, EJBException e) {
+        FutureCallback<TravelPlan> callback = WAITING.remove(travelPlanId);
+        if (callback != null) {
+            callback.failed(e.getCausedByException() != null ? e.getCausedByException() : e);
+        }
+    }
+
+    /**
+     * <p>Decides what a failed booking call leaves behind. It is FAILED only when the supplier cannot have made the
+     * booking: the call was refused or out of time before it was sent, the connection was never made, or the supplier
+     * answered with an error. Any other failure, such as a broken connection or an answer that could not be read, may
+     * have come after the supplier made the booking, so its outcome is UNKNOWN.</p>
+     *
+     * @param cause Why the call failed
+     * @return FAILED or UNKNOWN
+     */
+    static OutboxMessage.Status outcomeOf(Throwable cause) {
+        if (cause instanceof SupplierException || cause instanceof SupplierRejectedException
+                || cause instanceof DeadlineExceededException || cause instanceof ConnectException
+                || cause instanceof ConnectTimeoutException || cause instanceof UnknownHostException) {
+            return OutboxMessage.Status.FAILED;
+        }
+        return OutboxMessage.Status.UNKNOWN;
+    }
+
+    private static String failure(List<OutboxMessage> messages) {
+        for (OutboxMessage message : messages) {
+            if (message.getStatus() != OutboxMessage.Status.SENT) {
+                return "The " + message.getLeg().name().toLowerCase() + " booking failed: " + message.getLastError();
+            }
+        }
+        return "The TravelPlan could not be booked";
+    }
+
+    /**
+     * <p>The calls of a batch to one supplier, of which at most {@link #BATCH_PER_SUPPLIER} are in flight at once.
+     * Each answer records the outcome on its message and sends the next call waiting.</p>
+     */
+    private final class SupplierWindow {
+        private final Queue<OutboxMessage> waiting;
+        private final Deadline deadline;
+        private final CountDownLatch answered;
+        private final Map<OutboxMessage, Future<Long>> inFlight = new IdentityHashMap<OutboxMessage, Future<Long>>();
+        private boolean abandoned;
+
+        private SupplierWindow(Queue<OutboxMessage> waiting, Deadline deadline, CountDownLatch answered) {
+            this.waiting = waiting;
+            this.deadline = deadline;
+            this.answered = answered;
+        }
+
+        private synchronized void next() {
+            final OutboxMessage message = abandoned ? null : waiting.poll();
+            if (message == null) {
+                return;
+            }
+            // Held before the call, as a call refused straight away answers on this thread.
+            inFlight.put(message, null);
+            Future<Long> booking = booker.book(message.getLeg(), message.getReference(), message.getPayload(),
+                    deadline, new FutureCallback<Long>() {
+                        @Override
+                        public void completed(Long bookingId) {
+                            answer(message, bookingId, null, null);
+                        }
+
+                        @Override
+                        public void failed(Exception e) {
+                            answer(message, null, outcomeOf(e), String.valueOf(e.getMessage()));
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            answer(message, null, OutboxMessage.Status.UNKNOWN, "Cancelled");
+                        }
+                    });
+            if (inFlight.containsKey(message)) {
+                inFlight.put(message, booking);
+            }
+        }
+
+        private void answer(OutboxMessage message, Long bookingId, OutboxMessage.Status failure, String error) {
+            synchronized (this) {
+                if (abandoned || !inFlight.containsKey(message)) {
+                    return;
+                }
+                inFlight.remove(message);
+                if (failure == null) {
+                    message.setBookingId(bookingId);
+                    message.setStatus(OutboxMessage.Status.SENT);
+                } else {
+                    message.setStatus(failure);
+                    message.setLastError(error);
+                }
+            }
+            answered.countDown();
+            next();
+        }
+
+        /**
+         * <p>Gives up on the calls still in flight or waiting. The supplier may yet book one in flight, but nobody is
+         * waiting: its message is UNKNOWN, to be reconciled later. One still waiting was never sent, so it is
+         * FAILED.</p>
+         */
+        private synchronized void abandon(String reason) {
+            abandoned = true;
+            for (Map.Entry<OutboxMessage, Future<Long>> entry : inFlight.entrySet()) {
+                if (entry.getValue() != null) {
+                    entry.getValue().cancel(true);
+                }
+                entry.getKey().setStatus(OutboxMessage.Status.UNKNOWN);
+                entry.getKey().setLastError(reason);
+            }
+            for (OutboxMessage message : waiting) {
+                message.setStatus(OutboxMessage.Status.FAILED);
+                message.setLastError("Not sent: " + reason);
+            }
+            inFlight.clear();
+            waiting.clear();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.travelplan;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+
+/**
+ * <p>The transactional outbox of supplier bookings (see {@link OutboxMessage}).</p>
+ *
+ * <p>A new {@link TravelPlan} is written as PENDING together with one message per leg, in a short local transaction
+ * that makes no remote call. The {@link TravelPlanCompleter} then claims the messages, makes the supplier calls outside
+ * of any transaction, and settles the plan here in another short transaction. No database transaction or pooled
+ * connection is held while a supplier is answering, and a rollback cannot leave a booking nobody knows about.</p>
+ *
+ * <p>A booking request that was sent but never answered leaves its message UNKNOWN. Its plan is then settled as
+ * FAILED, and the request recorded in the {@link SagaLog} to be reconciled with the supplier and cancelled, so that a
+ * booking the supplier made regardless is not left behind.</p>
+ *
+ * <p>A plan may be settled and cancelled at the same time, each in a transaction of its own, so both lock the plan's
+ * row before reading its status. Whichever goes second then sees what the first did: a plan cancelled while it was
+ * being booked is not overwritten as BOOKED.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see TravelPlanCompleter
+ */
+@Stateless
+public class TravelPlanOutbox {
+
+    /** How many entities are written before a batch of them is flushed, as set by hibernate.jdbc.batch_size. */
+    private static final int BATCH_SIZE = 50;
+
+    @Inject
+    private @Named("logger") Logger log;
+
+    @Inject
+    private EntityManager em;
+
+    @Inject
+    private TravelPlanRepository crud;
+
+    @Inject
+    private TravelPlanBooker booker;
+
+    @Inject
+    private SagaLog sagaLog;
+
+    /**
+     * <p>Writes a PENDING TravelPlan and the messages that will book its legs, committing before it returns so that the
+     * messages can be dispatched straight away.</p>
+     *
+     * @param travelPlan The validated TravelPlan to persist
+     * @param travelSketch The TravelSketch describing the legs to book
+     * @return The persisted TravelPlan
+     * @throws Exception
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public TravelPlan enqueue(TravelPlan travelPlan, TravelSketch travelSketch) throws Exception {
+        travelPlan.setStatus(TravelPlan.Status.PENDING);
+        TravelPlan created = crud.create(travelPlan);
+        for (SagaStep.Leg leg : SagaStep.Leg.values()) {
+            em.persist(new OutboxMessage(created.getId(), leg, booker.payload(leg, travelSketch)));
+        }
+        return created;
+    }
+
+    /**
+     * <p>Writes a batch of PENDING TravelPlans and their messages in one transaction. The inserts are flushed in groups
+     * of {@link #BATCH_SIZE}, matching <code>hibernate.jdbc.batch_size</code>, so that they reach the database as JDBC
+     * batches rather than one statement at a time.</p>
+     *
+     * @param travelPlans The validated TravelPlans to persist
+     * @param travelSketches The TravelSketch describing the legs of each plan, in the same order
+     * @return The persisted TravelPlans, in the same order
+     * @throws Exception
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<TravelPlan> enqueueAll(List<TravelPlan> travelPlans, List<TravelSketch> travelSketches)
+            throws Exception {
+        List<TravelPlan> created = new ArrayList<TravelPlan>(travelPlans.size());
+        for (int i = 0; i < travelPlans.size(); i++) {
+            TravelPlan travelPlan = travelPlans.get(i);
+            travelPlan.setStatus(TravelPlan.Status.PENDING);
+            em.persist(travelPlan);
+            for (SagaStep.Leg leg : SagaStep.Leg.values()) {
+                em.persist(new OutboxMessage(travelPlan.getId(), leg, booker.payload(leg, travelSketches.get(i))));
+            }
+            created.add(travelPlan);
+            if ((i + 1) % BATCH_SIZE == 0) {
+                em.flush();
+            }
+        }
+        log.info("TravelPlanOutbox.enqueueAll() - Enqueued " + created.size() + " TravelPlans");
+        return created;
+    }
+
+    /**
+     * <p>Claims the PENDING messages of a TravelPlan for dispatch, so that no other dispatch sends them again.</p>
+     *
+     * @param travelPlanId The id of the TravelPlan
+     * @return The claimed messages, now DISPATCHING, or an empty List if another dispatch got there first
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<OutboxMessage> claim(Long travelPlanId) {
+        List<OutboxMessage> messages = em.createNamedQuery(OutboxMessage.FIND_BY_TRAVEL_PLAN_AND_STATUS,
+                OutboxMessage.class)
+                .setParameter("travelPlanId", travelPlanId)
+                .setParameter("status", OutboxMessage.Status.PENDING)
+                .getResultList();
+        Date now = new Date();
+        for (OutboxMessage message : messages) {
+            message.setStatus(OutboxMessage.Status.DISPATCHING);
+            message.setDispatched(now);
+        }
+        return messages;
+    }
+
+    /**
+     * <p>Claims the PENDING messages of a batch of TravelPlans for dispatch in a single query.</p>
+     *
+     * @param travelPlanIds The ids of the TravelPlans
+     * @return The claimed messages, now DISPATCHING
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<OutboxMessage> claimAll(List<Long> travelPlanIds) {
+        List<OutboxMessage> messages = em.createNamedQuery(OutboxMessage.FIND_BY_TRAVEL_PLANS_AND_STATUS,
+                OutboxMessage.class)
+                .setParameter("travelPlanIds", travelPlanIds)
+                .setParameter("status", OutboxMessage.Status.PENDING)
+                .getResultList();
+        Date now = new Date();
+        for (OutboxMessage message : messages) {
+            message.setStatus(OutboxMessage.Status.DISPATCHING);
+            message.setDispatched(now);
+        }
+        return messages;
+    }
+
+    /**
+     * <p>Settles a batch of TravelPlans in one transaction, as {@link #settle(Long, List)} does for one, so that the
+     * updates are sent to the database in JDBC batches.</p>
+     *
+     * @param messages The dispatched messages of each TravelPlan, by TravelPlan id
+     * @return The settled TravelPlans, by id
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Map<Long, TravelPlan> settleAll(Map<Long, List<OutboxMessage>> messages) {
+        Map<Long, TravelPlan> settled = new LinkedHashMap<Long, TravelPlan>();
+        for (Map.Entry<Long, List<OutboxMessage>> entry : messages.entrySet()) {
+            // A call on this rather than through the container, so each plan is settled within this transaction.
+            settled.put(entry.getKey(), settle(entry.getKey(), entry.getValue()));
+        }
+        return settled;
+    }
+
+    /**
+     * <p>Records the outcome of dispatched messages and settles their TravelPlan. A plan whose legs were all booked is
+     * BOOKED and its bookings enter the {@link SagaLog}. Otherwise it is FAILED and the legs that were booked are
+     * marked there for compensation, as they are for a plan cancelled while its legs were being booked. Legs whose
+     * outcome is unknown are marked there to be reconciled first.</p>
+     *
+     * @param travelPlanId The id of the TravelPlan
+     * @param messages The dispatched messages, each SENT with a booking id, FAILED with an error, or UNKNOWN
+     * @return The settled TravelPlan
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public TravelPlan settle(Long travelPlanId, List<OutboxMessage> messages) {
+        TravelPlan travelPlan = em.find(TravelPlan.class, travelPlanId, LockModeType.PESSIMISTIC_WRITE);
+        if (travelPlan == null) {
+            // The plan was deleted while its legs were being booked, so whatever was booked is cancelled.
+            travelPlan = new TravelPlan();
+        }
+
+        String failure = null;
+        List<OutboxMessage> uncertain = new ArrayList<OutboxMessage>();
+        for (OutboxMessage message : messages) {
+            em.merge(message);
+            if (message.getStatus() == OutboxMessage.Status.UNKNOWN) {
+                uncertain.add(message);
+            }
+            if (message.getStatus() != OutboxMessage.Status.SENT) {
+                failure = failure != null ? failure : message.getLeg() + " booking failed: " + message.getLastError();
+                continue;
+            }
+            switch (message.getLeg()) {
+            case HOTEL:
+                travelPlan.setHotelBookingId(message.getBookingId());
+                break;
+            case FLIGHT:
+                travelPlan.setFlightBookingId(message.getBookingId());
+                break;
+            default:
+                travelPlan.setTaxiBookingId(message.getBookingId());
+                break;
+            }
+        }
+
+        if (travelPlan.getId() == null) {
+            sagaLog.compensate(travelPlan, uncertain);
+        } else if (travelPlan.getStatus() == TravelPlan.Status.CANCELLING) {
+            // The plan was cancelled while its legs were being booked, so whatever was booked is cancelled.
+            sagaLog.compensate(travelPlan, uncertain);
+            if (sagaLog.isCompensated(travelPlanId)) {
+                travelPlan.setStatus(TravelPlan.Status.CANCELLED);
+            }
+        } else if (failure == null) {
+            travelPlan.setStatus(TravelPlan.Status.BOOKED);
+            sagaLog.booked(travelPlan);
+        } else {
+            log.info("TravelPlanOutbox.settle() - TravelPlan #" + travelPlanId + " failed: " + failure);
+            travelPlan.setStatus(TravelPlan.Status.FAILED);
+            sagaLog.compensate(travelPlan, uncertain);
+        }
+        return travelPlan;
+    }
+
+    /**
+     * <p>Marks a TravelPlan as CANCELLING and its bookings for compensation in the {@link SagaLog}, committing before it
+     * returns so that they can be cancelled straight away. A plan with nothing booked is CANCELLED there and then, and
+     * one already cancelling is left as it is.</p>
+     *
+     * @param travelPlanId The id of the TravelPlan to cancel
+     * @return The TravelPlan, CANCELLING or CANCELLED, or null if there is none with that id
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public TravelPlan cancel(Long travelPlanId) {
+        TravelPlan travelPlan = em.find(TravelPlan.class, travelPlanId, LockModeType.PESSIMISTIC_WRITE);
+        if (travelPlan == null || travelPlan.getStatus() == TravelPlan.Status.CANCELLING
+                || travelPlan.getStatus() == TravelPlan.Status.CANCELLED) {
+            return travelPlan;
+        }
+        TravelPlan.Status was = travelPlan.getStatus();
+        travelPlan.setStatus(TravelPlan.Status.CANCELLING);
+        if (was != TravelPlan.Status.PENDING) {
+            // A PENDING plan's legs are still being booked, they are compensated when it is settled.
+            sagaLog.compensate(travelPlan);
+            if (sagaLog.isCompensated(travelPlanId)) {
+                travelPlan.setStatus(TravelPlan.Status.CANCELLED);
+            }
+        }
+        return travelPlan;
+    }
+
+    /**
+     * <p>Returns the ids of the plans with messages that have been PENDING since before the given time, left behind
+     * when the server stopped before dispatching them.</p>
+     *
+     * @param before Messages created after this are left to their own dispatch
+     * @return List of TravelPlan ids
+     */
+    public List<Long> findStalled(Date before) {
+        return em.createNamedQuery(OutboxMessage.FIND_STALLED, Long.class)
+                .setParameter("status", OutboxMessage.Status.PENDING)
+                .setParameter("before", before)
+                .getResultList();
+    }
+
+    /**
+     * <p>Settles the plans of the messages that have been DISPATCHING since before the given time, whose outcome was
+     * lost when the server stopped. The supplier may or may not hold each booking, so the messages are marked UNKNOWN
+     * and the plans settled with them: they are FAILED, or CANCELLED once cancelled, and the lost bookings are
+     * reconciled with the suppliers and cancelled through the {@link SagaLog}.</p>
+     *
+     * @param before Messages dispatched after this are still in flight
+     */
+    public void reconcileLost(Date before) {
+        List<OutboxMessage> lost = em.createNamedQuery(OutboxMessage.FIND_LOST, OutboxMessage.class)
+                .setParameter("status", OutboxMessage.Status.DISPATCHING)
+                .setParameter("before", before)
+                .getResultList();
+        Map<Long, List<OutboxMessage>> byPlan = new LinkedHashMap<Long, List<OutboxMessage>>();
+        for (OutboxMessage message : lost) {
+            message.setStatus(OutboxMessage.Status.UNKNOWN);
+            message.setLastError("The outcome of the booking was lost");
+            if (!byPlan.containsKey(message.getTravelPlanId())) {
+                byPlan.put(message.getTravelPlanId(), new ArrayList<OutboxMessage>());
+            }
+            byPlan.get(message.getTravelPlanId()).add(message);
+        }
+        for (Map.Entry<Long, List<OutboxMessage>> entry : byPlan.entrySet()) {
+            log.warning("TravelPlanOutbox.reconcileLost() - The outcome of " + entry.getValue().size()
+                    + " bookings of TravelPlan #" + entry.getKey() + " was lost");
+            // A call on this rather than through the container, so each plan is settled within this transaction.
+            settle(entry.getKey(), entry.getValue());
+        }
+    }
+}
@@ -18,10 +18,13 @@
  */
 package org.jboss.quickstarts.wfk.travelagent.travelplan;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.ejb.Stateless;
@@ -33,6 +36,7 @@ import javax.validation.ValidationException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -41,6 +45,14 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.WebApplicationException;
 
+import org.apache.http.concurrent.FutureCallback;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierClient;
+import org.jboss.quickstarts.wfk.util.Deadline;
+import org.jboss.quickstarts.wfk.util.DeadlineExceededException;
+import org.jboss.quickstarts.wfk.util.IdempotencyStore;
+import org.jboss.resteasy.annotations.Suspend;
+import org.jboss.resteasy.spi.AsynchronousResponse;
+
 /**
  * <p>This class exposes the functionality of {@link TravelPlanService} over HTTP endpoints as a RESTful resource via
  * JAX-RS.</p>
@@ -68,6 +80,10 @@ import javax.ws.rs.WebApplicationException;
 @Produces(MediaType.APPLICATION_JSON)
 @Stateless
 public class TravelPlanRESTService {
+    private static final String CREATE_SCOPE = "POST /travelagent/travelplans";
+
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("travel.batch.maxSize", 100);
+
     @Inject
     private @Named("logger") Logger log;
     
@@ -104,41 +120,176 @@ public class TravelPlanRESTService {
     }
 
     /**
-     * <p>Creates a new travelPlan from the values provided. Performs validation and will return a JAX-RS response with either 200 (ok)
+     * <p>Creates a new travelPlan from the values provided. Performs validation and will return a JAX-RS response with either 201 (created)
      * or with a map of fields, and related errors.</p>
+     *
+     * <p>The request is suspended while the suppliers are booked, so no request thread is held waiting on them. The
+     * plan is stored as PENDING before any supplier is called, so if the request times out its outcome can still be
+     * read from the status of the plan.</p>
      * 
-     * @param travelPlan The TravelPlan object, constructed automatically from JSON input, to be <i>created</i> via {@link TravelPlanService#create(TravelPlan)}
-     * @return A Response indicating the outcome of the create operation
+     * <p>Every step of the request, including the supplier calls, must be done within the client's deadline (see
+     * {@link Deadline}), or it is answered 504 (gateway timeout).</p>
+     * 
+     * <p>A request sent again with the same Idempotency-Key header as one that created a travelPlan is given the
+     * original 201 (created) response, without booking the suppliers again (see {@link IdempotencyStore}). The same
+     * key sent with a different sketch is answered 422 (unprocessable entity).</p>
+     * 
+     * @param travelSketch The TravelSketch object, constructed automatically from JSON input, to be <i>created</i> via {@link TravelPlanService#create(TravelSketch, Deadline, FutureCallback)}
+     * @param idempotencyKey The optional Idempotency-Key header, identifying retries of the same request
+     * @param timeout The optional X-Request-Timeout header, the ms the client will wait (see {@link Deadline})
+     * @param response The suspended response, resumed with the outcome of the create operation
      */
-    @SuppressWarnings("unused")
     @POST
-    public Response createTravelPlan(TravelSketch travelSketch) {
-        log.info("createTravelPlan started. TravelPlan for Customer " + travelSketch.getCustomerId());
+    public void createTravelPlan(TravelSketch travelSketch,
+            @HeaderParam(IdempotencyStore.HEADER) final String idempotencyKey,
+            @HeaderParam(Deadline.HEADER) String timeout,
+            @Suspend(SupplierClient.SUSPEND_TIMEOUT) final AsynchronousResponse response) {
         if (travelSketch == null) {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
-        
+
+        Response replay = IdempotencyStore.claim(CREATE_SCOPE, idempotencyKey, IdempotencyStore.fingerprint(
+                travelSketch.getCustomerId(), travelSketch.getFlightId(), travelSketch.getHotelId(),
+                travelSketch.getTaxiId(), travelSketch.getBookingDate()));
+        if (replay != null) {
+            log.info("createTravelPlan repeated. Idempotency-Key = " + idempotencyKey);
+            response.setResponse(replay);
+            return;
+        }
+        log.info("createTravelPlan started. TravelPlan for Customer " + travelSketch.getCustomerId());
+
+        // Go add the new TravelPlan, within the time the client will wait, which can be no longer than it is suspended.
+        Deadline deadline = Deadline.fromHeader(timeout, SupplierClient.SUSPEND_TIMEOUT);
+        service.create(travelSketch, deadline, new FutureCallback<TravelPlan>() {
+            @Override
+            public void completed(TravelPlan travelPlan) {
+                // Create a "Resource Created" 201 Response and pass the travelPlan back in case it is needed.
+                resume(Response.status(Response.Status.CREATED).entity(travelPlan).build());
+
+                log.info("createTravelPlan completed. TravelPlan #" + travelPlan.getId());
+            }
+
+            @Override
+            public void failed(Exception e) {
+                resume(createErrorResponse(e).build());
+            }
+
+            @Override
+            public void cancelled() {
+                resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+            }
+
+            private void resume(Response outcome) {
+                IdempotencyStore.complete(CREATE_SCOPE, idempotencyKey, outcome);
+                response.setResponse(outcome);
+            }
+        });
+    }
+
+    /**
+     * <p>Creates a batch of travelPlans, one for each TravelSketch provided, booking their suppliers together.</p>
+     *
+     * <p>Every item is validated and booked on its own, so one that fails does not fail the others. The response is a
+     * 200 (OK) holding a result for each item, in the order they were sent: its status, 201 (created) with the
+     * travelPlan, or the status and errors it would have been given alone. A batch may hold at most
+     * <code>travel.batch.maxSize</code> (default 100) items.</p>
+     *
+     * @param travelSketches The TravelSketches, constructed automatically from a JSON array, to be <i>created</i> via
+     *        {@link TravelPlanService#createAll(List, Deadline, List)}
+     * @param timeout The optional X-Request-Timeout header, the ms the client will wait (see {@link Deadline})
+     * @param response The suspended response, resumed with the results once every item has one
+     */
+    @POST
+    @Path("/batch")
+    public void createTravelPlans(List<TravelSketch> travelSketches, @HeaderParam(Deadline.HEADER) String timeout,
+            @Suspend(SupplierClient.SUSPEND_TIMEOUT) final AsynchronousResponse response) {
+        if (travelSketches == null || travelSketches.isEmpty()) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        if (travelSketches.size() > MAX_BATCH_SIZE) {
+            Map<String, String> responseObj = new HashMap<String, String>();
+            responseObj.put("error", "A batch may hold at most " + MAX_BATCH_SIZE + " travel plans");
+            response.setResponse(Response.status(Response.Status.BAD_REQUEST).entity(responseObj).build());
+            return;
+        }
+        log.info("createTravelPlans started. " + travelSketches.size() + " TravelPlans");
+
+        final List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(travelSketches.size());
+        final AtomicInteger outstanding = new AtomicInteger(travelSketches.size());
+        List<FutureCallback<TravelPlan>> callbacks = new ArrayList<FutureCallback<TravelPlan>>();
+        for (int i = 0; i < travelSketches.size(); i++) {
+            final Map<String, Object> result = new LinkedHashMap<String, Object>();
+            results.add(result);
+            callbacks.add(new FutureCallback<TravelPlan>() {
+                @Override
+                public void completed(TravelPlan travelPlan) {
+                    result(Response.Status.CREATED.getStatusCode(), "travelPlan", travelPlan);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    Response outcome = createErrorResponse(e).build();
+                    result(outcome.getStatus(), "errors", outcome.getEntity());
+                }
+
+                @Override
+                public void cancelled() {
+                    result(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), "errors", null);
+                }
+
+                private void result(int status, String key, Object entity) {
+                    synchronized (results) {
+                        result.put("status", status);
+                        result.put(key, entity);
+                    }
+                    if (outstanding.decrementAndGet() == 0) {
+                        synchronized (results) {
+                            response.setResponse(Response.ok(results).build());
+                        }
+                        log.info("createTravelPlans completed. " + results.size() + " TravelPlans");
+                    }
+                }
+            });
+        }
+
+        // Go add the new TravelPlans, within the time the client will wait.
+        service.createAll(travelSketches, Deadline.fromHeader(timeout, SupplierClient.SUSPEND_TIMEOUT), callbacks);
+    }
+
+    /**
+     * <p>Creates the JAX-RS response for a travelPlan that could not be created.</p>
+     *
+     * @param e The reason the travelPlan could not be created
+     * @return A Response describing the error
+     */
+    private Response.ResponseBuilder createErrorResponse(Exception e) {
         Response.ResponseBuilder builder = null;
 
-        try {
-            // Go add the new TravelPlan.
-            TravelPlan travelPlan = service.create(travelSketch);
-
-            // Create a "Resource Created" 201 Response and pass the travelPlan back in case it is needed.
-            builder = Response.status(Response.Status.CREATED).entity(travelPlan);
-            
-            log.info("createTravelPlan completed. TravelPlan #" + travelPlan.getId());
-        } catch (ConstraintViolationException ce) {
+        if (e instanceof ConstraintViolationException) {
+            ConstraintViolationException ce = (ConstraintViolationException) e;
             log.info("ConstraintViolationException - " + ce.toString());
             // Handle bean validation issues
             builder = createViolationResponse(ce.getConstraintViolations());
-        } catch (ValidationException e) {
+        } else if (e instanceof DeadlineExceededException) {
+            log.info("DeadlineExceededException - " + e.toString());
+            // Handle the request running out of time
+            Map<String, String> responseObj = new HashMap<String, String>();
+            responseObj.put("error", e.getMessage());
+            builder = Response.status(DeadlineExceededException.STATUS).entity(responseObj);
+        } else if (e instanceof ValidationException && String.valueOf(e.getMessage()).startsWith("Customer ID")) {
+            log.info("ValidationException - " + e.toString());
+            // Handle a customer that does not exist
+            Map<String, String> responseObj = new HashMap<String, String>();
+            responseObj.put("customerId",
+                    "That Customer ID provided does not match a corresponding record in the Customer database");
+            builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
+        } else if (e instanceof ValidationException) {
             log.info("ValidationException - " + e.toString());
             // Handle the unique constrain violation
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("error", "The booking failed to save, transaction rolled back");
             builder = Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(responseObj);
-        } catch (Exception e) {
+        } else {
             log.info("Exception - " + e.toString());
             // Handle generic exceptions
             Map<String, String> responseObj = new HashMap<String, String>();
@@ -146,16 +297,18 @@ public class TravelPlanRESTService {
             builder = Response.status(Response.Status.BAD_REQUEST).entity(responseObj);
         }
 
-        return builder.build();
+        return builder;
     }
 
     /**
-     * <p>Deletes a travelPlan using the ID provided. If the ID is not present then nothing can be deleted.</p>
+     * <p>Cancels a travelPlan using the ID provided. If the ID is not present then nothing can be cancelled.</p>
      *
-     * <p>Will return a JAX-RS response with either 200 OK or with a map of fields, and related errors.</p>
+     * <p>The supplier bookings are cancelled in the background, so this returns 202 (accepted) straight away with the
+     * travelPlan, CANCELLING or, if there was nothing booked, CANCELLED. Its status can be polled with a GET of the same
+     * path until it is CANCELLED. Otherwise a JAX-RS response with a map of fields, and related errors.</p>
      * 
-     * @param id The Long parameter value provided as the id of the TravelPlan to be deleted
-     * @return A Response indicating the outcome of the delete operation
+     * @param id The Long parameter value provided as the id of the TravelPlan to be cancelled
+     * @return A Response indicating the outcome of the cancel operation
      */
     @DELETE
     @Path("/{id:[0-9][0-9]*}")
@@ -166,13 +319,13 @@ public class TravelPlanRESTService {
         try {
             TravelPlan travelPlan = service.findById(id);
             if (travelPlan != null) {
-                service.delete(travelPlan);
+                travelPlan = service.cancel(travelPlan);
             } else {
                 log.info("TravelPlanRESTService - deleteTravelPlan - No travelPlan with matching ID was found so can't Delete.");
                 throw new WebApplicationException(Response.Status.NOT_FOUND);
             }
 
-            builder = Response.noContent();
+            builder = Response.status(Response.Status.ACCEPTED).entity(travelPlan);
             log.info("deleteTravelPlan completed. TravelPlan #" + travelPlan.getId());
         } catch (Exception e) {
             log.info("Exception - " + e.toString());
@@ -25,6 +25,8 @@ import javax.persistence.TypedQuery;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
+import org.jboss.quickstarts.wfk.customer.Customer;
+
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -67,6 +69,16 @@ public class TravelPlanRepository {
         return em.find(TravelPlan.class, id);
     }
 
+    /**
+     * <p>Checks whether a Customer exists, by a Long id.<p/>
+     *
+     * @param customerId The id of the Customer
+     * @return true if there is a Customer with that id
+     */
+    boolean customerExists(Long customerId) {
+        return em.find(Customer.class, customerId) != null;
+    }
+
     /**
      * <p>Persists the provided TravelPlan object to the application database using the EntityManager.</p>
      *
@@ -18,26 +18,16 @@
  */
 package org.jboss.quickstarts.wfk.travelagent.travelplan;
 
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.concurrent.FutureCallback;
 import org.jboss.quickstarts.wfk.customer.Customer;
-import org.json.JSONObject;
+import org.jboss.quickstarts.wfk.util.Deadline;
 
+import javax.ejb.EJBException;
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.validation.ConstraintViolationException;
-import javax.validation.ValidationException;
 
-import java.io.IOException;
-import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -60,6 +50,9 @@ import java.util.logging.Logger;
  * @author Geoffrey Prytherch
  * @see TravelPlanValidator
  * @see TravelPlanRepository
+ * @see TravelPlanOutbox
+ * @see TravelPlanCompleter
+ * @see SagaLog
  */
 
 // @Dependent annotation designates the default scope, listed here so that you
@@ -70,18 +63,20 @@ public class TravelPlanService {
 	@Inject
 	private @Named("logger") Logger log;
 
+	@Inject
+	private TravelPlanRepository crud;
+
 	@Inject
 	private TravelPlanValidator validator;
 
 	@Inject
-	private TravelPlanRepository crud;
+	private TravelPlanOutbox outbox;
 
 	@Inject
-	private @Named("httpClient") CloseableHttpClient httpClient;
+	private TravelPlanCompleter completer;
 
-	private final Long travelAgentTaxi = (long) 10000;
-	private final Long travelAgentFlight = (long) 18181;
-	private final Long travelAgentHotel = (long) 18181;
+	@Inject
+	private SagaCompensator compensator;
 
 	/**
 	 * <p>
@@ -110,24 +105,34 @@ public class TravelPlanService {
 
 	/**
 	 * <p>
-	 * Writes the provided TravelPlan object to the application database.
+	 * Writes a new TravelPlan for the provided TravelSketch to the
+	 * application database, together with the outbox messages that book its
+	 * hotel, flight and taxi, and then has them dispatched.
 	 * <p/>
 	 *
 	 * <p>
-	 * Validates the data in the provided TravelPlan object using a
-	 * {@link TravelPlanValidator} object.
+	 * The plan is validated using a {@link TravelPlanValidator} object and
+	 * written as PENDING by the {@link TravelPlanOutbox} in a short
+	 * transaction of its own. The {@link TravelPlanCompleter} then books the
+	 * legs outside of any transaction and settles the plan as BOOKED or
+	 * FAILED, which can be read from its status at any time.
 	 * <p/>
 	 * 
-	 * @param travelPlan
-	 *            The TravelPlan object to be written to the database using a
-	 *            {@link TravelPlanRepository} object
-	 * @return The TravelPlan object that has been successfully written to the
-	 *         application database
-	 * @throws ConstraintViolationException
-	 *             , ValidationException, Exception
+	 * <p>
+	 * Each step only goes ahead while there is time left before the
+	 * deadline, and the suppliers are only given what is left of it.
+	 * <p/>
+	 * 
+	 * @param travelSketch
+	 *            The TravelSketch describing the plan to be booked
+	 * @param deadline
+	 *            The time by which the caller must be answered
+	 * @param callback
+	 *            Notified with the BOOKED TravelPlan object, or with the
+	 *            ConstraintViolationException, ValidationException,
+	 *            DeadlineExceededException or Exception that prevented it
 	 */
-	TravelPlan create(TravelSketch travelSketch)
-			throws ConstraintViolationException, ValidationException, Exception {
+	void create(TravelSketch travelSketch, Deadline deadline, FutureCallback<TravelPlan> callback) {
 		TravelPlan travelPlan = new TravelPlan();// validate travelsketch?
 		Customer c = new Customer();
 		c.setId(travelSketch.getCustomerId());
@@ -135,217 +140,130 @@ public class TravelPlanService {
 		log.info("TravelPlanService.create() - Creating travelplan for customer #"
 				+ travelPlan.getCustomer().getId());
 
+		TravelPlan created;
 		try {
-			travelPlan.setHotelBookingId(bookHotel(travelSketch));
-
-			travelPlan.setFlightBookingId(bookFlight(travelSketch));
-
-			travelPlan.setTaxiBookingId(bookTaxi(travelSketch));
-
 			// Check to make sure the data fits with the parameters in the
 			// TravelPlan model and passes validation.
+			deadline.check("validating the travel plan");
+			validator.validateTravelSketch(travelSketch);
 			validator.validateTravelPlan(travelPlan);
 
-			// Write the travelPlan to the database.
-			TravelPlan rtn = crud.create(travelPlan);
-			return rtn;
+			// Write the travelPlan and its outbox messages to the database,
+			// the transaction has committed once this returns.
+			deadline.check("storing the travel plan");
+			created = outbox.enqueue(travelPlan, travelSketch);
+		} catch (EJBException e) {
+			callback.failed(e.getCausedByException() != null ? e.getCausedByException() : e);
+			return;
 		} catch (Exception e) {
-			revert(travelPlan);
-
-			throw e;
+			callback.failed(e);
+			return;
 		}
 
+		completer.notifyWhenSettled(created.getId(), callback);
+		completer.dispatch(created.getId(), deadline);
 	}
 
-	private Long bookTaxi(TravelSketch travelSketch) throws Exception {
-		URI uri = new URIBuilder().setScheme("http")
-				.setHost("jbosscontactsangularjs-110060653.rhcloud.com")
-				.setPath("/rest/bookings").build();
-		HttpPost req = new HttpPost(uri);
-		StringEntity params = new StringEntity("{\"customerId\":\""
-				+ travelAgentTaxi.toString() + "\",\"taxiId\":\""
-				+ travelSketch.getTaxiId().toString() + "\",\"bookingDate\":\""
-				+ travelSketch.getBookingDate() + "\"}");
-		req.addHeader("Content-Type", "application/json");
-		req.setEntity(params);
-		CloseableHttpResponse response = httpClient.execute(req);
-		if (response.getStatusLine().getStatusCode() != 201) {
-			throw new Exception("Failed to create a flight booking");
-		}
-		String responseBody = EntityUtils.toString(response.getEntity());
-		JSONObject responseJson = new JSONObject(responseBody);
-		long rtn = responseJson.getLong("id");
-		HttpClientUtils.closeQuietly(response);
-		return rtn;
-	}
-
-	private long bookHotel(TravelSketch travelSketch) throws Exception {
-		URI uri = new URIBuilder().setScheme("http")
-				.setHost("travel.gsp8181.co.uk").setPath("/rest/bookings")
-				// .setHost("localhost")
-				// .setPort(8080)
-				// .setPath("/travel/rest/bookings")
-				.build();
-		HttpPost req = new HttpPost(uri);
-		StringEntity params = new StringEntity("{\"customer\":{\"id\":\""
-				+ travelAgentFlight.toString() + "\"},\"hotel\":{\"id\":\""
-				+ travelSketch.getHotelId().toString()
-				+ "\"},\"bookingDate\":\"" + travelSketch.getBookingDate()
-				+ "\"}");
-		req.addHeader("Content-Type", "application/json");
-		req.setEntity(params);
-		CloseableHttpResponse response = httpClient.execute(req);
-		if (response.getStatusLine().getStatusCode() != 201) {
-			throw new Exception("Failed to create a hotel booking");
-		}
-		String responseBody = EntityUtils.toString(response.getEntity());
-		JSONObject responseJson = new JSONObject(responseBody);
-		long rtn = responseJson.getLong("id");
-		HttpClientUtils.closeQuietly(response);
-		return rtn;
-	}
-
-	private long bookFlight(TravelSketch travelSketch) throws Exception {
-		URI uri = new URIBuilder().setScheme("http")
-				.setHost("jbosscontactsangularjs-110336260.rhcloud.com")
-				.setPath("/rest/bookings").build();
-		HttpPost req = new HttpPost(uri);
-		StringEntity params = new StringEntity("{\"customerId\":\""
-				+ travelAgentFlight.toString() + "\",\"flightId\":\""
-				+ travelSketch.getFlightId().toString()
-				+ "\",\"bookingDate\":\"" + travelSketch.getBookingDate()
-				+ "\"}");
-		req.addHeader("Content-Type", "application/json");
-		req.setEntity(params);
-		CloseableHttpResponse response = httpClient.execute(req);
-		if (response.getStatusLine().getStatusCode() != 201) {
-			throw new Exception("Failed to create a flight booking");
-		}
-		String responseBody = EntityUtils.toString(response.getEntity());
-		JSONObject responseJson = new JSONObject(responseBody);
-		long rtn = responseJson.getLong("id");
-		HttpClientUtils.closeQuietly(response);
-		return rtn;
-	}
-
-	private void revert(TravelPlan travelPlan) throws Exception {
-		// do independently
-		if (travelPlan.getHotelBookingId() != null) {
-			URI uri = new URIBuilder()
-					.setScheme("http")
-					.setHost("travel.gsp8181.co.uk")
-					.setPath("/rest/bookings/" + travelPlan.getHotelBookingId())
-					// .setHost("localhost")
-					// .setPort(8080)
-					// .setPath("/travel/rest/bookings/" +
-					// travelPlan.getHotelBookingId())
-					.build();
-			HttpDelete req = new HttpDelete(uri);
-			CloseableHttpResponse response = httpClient.execute(req);
-			if (response.getStatusLine().getStatusCode() != 204) {
-
+	/**
+	 * <p>
+	 * Writes a batch of new TravelPlans, one for each of the provided
+	 * TravelSketches, and has them dispatched together.
+	 * <p/>
+	 *
+	 * <p>
+	 * Each plan is validated on its own and one that fails validation does
+	 * not stop the others. The valid plans are written by the
+	 * {@link TravelPlanOutbox} in one transaction, using JDBC batching, and
+	 * their legs booked by the {@link TravelPlanCompleter} with the calls
+	 * grouped by supplier.
+	 * <p/>
+	 *
+	 * @param travelSketches
+	 *            The TravelSketches describing the plans to be booked
+	 * @param deadline
+	 *            The time by which the caller must be answered
+	 * @param callbacks
+	 *            One for each TravelSketch, in the same order, notified as
+	 *            for {@link #create(TravelSketch, Deadline, FutureCallback)}
+	 */
+	void createAll(List<TravelSketch> travelSketches, Deadline deadline,
+			List<FutureCallback<TravelPlan>> callbacks) {
+		log.info("TravelPlanService.createAll() - Creating "
+				+ travelSketches.size() + " travelplans");
+
+		List<TravelPlan> valid = new ArrayList<TravelPlan>();
+		List<TravelSketch> validSketches = new ArrayList<TravelSketch>();
+		List<FutureCallback<TravelPlan>> validCallbacks = new ArrayList<FutureCallback<TravelPlan>>();
+		for (int i = 0; i < travelSketches.size(); i++) {
+			TravelSketch travelSketch = travelSketches.get(i);
+			TravelPlan travelPlan = new TravelPlan();
+			Customer c = new Customer();
+			c.setId(travelSketch.getCustomerId());
+			travelPlan.setCustomer(c);
+			try {
+				deadline.check("validating the travel plans");
+				validator.validateTravelSketch(travelSketch);
+				validator.validateTravelPlan(travelPlan);
+			} catch (Exception e) {
+				callbacks.get(i).failed(e);
+				continue;
 			}
-			// String responseBody = EntityUtils.toString(response.getEntity());
-			HttpClientUtils.closeQuietly(response);
+			valid.add(travelPlan);
+			validSketches.add(travelSketch);
+			validCallbacks.add(callbacks.get(i));
+		}
+		if (valid.isEmpty()) {
+			return;
 		}
 
-		if (travelPlan.getFlightBookingId() != null) {
-			URI uri = new URIBuilder()
-					.setScheme("http")
-					.setHost("jbosscontactsangularjs-110336260.rhcloud.com")
-					.setPath(
-							"/rest/bookings/" + travelPlan.getFlightBookingId())
-					.build();
-			HttpDelete req = new HttpDelete(uri);
-			CloseableHttpResponse response = httpClient.execute(req);
-			if (response.getStatusLine().getStatusCode() != 204) {
-
+		List<TravelPlan> created;
+		try {
+			deadline.check("storing the travel plans");
+			created = outbox.enqueueAll(valid, validSketches);
+		} catch (Exception e) {
+			Exception cause = e instanceof EJBException
+					&& ((EJBException) e).getCausedByException() != null
+					? ((EJBException) e).getCausedByException() : e;
+			for (FutureCallback<TravelPlan> callback : validCallbacks) {
+				callback.failed(cause);
 			}
-			// String responseBody = EntityUtils.toString(response.getEntity());
-			HttpClientUtils.closeQuietly(response);
+			return;
 		}
-		if (travelPlan.getTaxiBookingId() != null) {
-			URI uri = new URIBuilder().setScheme("http")
-					.setHost("jbosscontactsangularjs-110060653.rhcloud.com")
-					.setPath("/rest/bookings/" + travelPlan.getTaxiBookingId())
-					.build();
-			HttpDelete req = new HttpDelete(uri);
-			CloseableHttpResponse response = httpClient.execute(req);
-			if (response.getStatusLine().getStatusCode() != 204) {
 
-			}
-			// String responseBody = EntityUtils.toString(response.getEntity());
-			HttpClientUtils.closeQuietly(response);
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < created.size(); i++) {
+			ids.add(created.get(i).getId());
+			completer.notifyWhenSettled(created.get(i).getId(), validCallbacks.get(i));
 		}
+		completer.dispatchAll(ids, deadline);
 	}
 
 	/**
 	 * <p>
-	 * Deletes the provided TravelPlan object from the application database if
-	 * found there.
+	 * Cancels the provided TravelPlan. The plan is marked CANCELLING and its
+	 * supplier bookings are marked for cancellation in the saga log, which is
+	 * committed before this returns. The three bookings are then cancelled
+	 * together in the background, and the plan becomes CANCELLED once all of
+	 * them are; until then its status can be polled.
 	 * <p/>
 	 * 
 	 * @param travelPlan
-	 *            The TravelPlan object to be removed from the application
-	 *            database
-	 * @return The TravelPlan object that has been successfully removed from the
-	 *         application database; or null
+	 *            The TravelPlan object to be cancelled
+	 * @return The TravelPlan object, CANCELLING or CANCELLED; or null
 	 * @throws Exception
 	 */
-	TravelPlan delete(TravelPlan travelPlan) throws Exception {
-		// log.info("TravelPlanService.delete() - Deleting " +
-		// travelPlan.getFirstName() + " " + travelPlan.getLastName());
-
+	TravelPlan cancel(TravelPlan travelPlan) throws Exception {
 		if (travelPlan.getId() == null) {
 
-			log.info("TravelPlanService.delete() - No ID was found so can't Delete.");
+			log.info("TravelPlanService.cancel() - No ID was found so can't Cancel.");
 			return null;
 		}
 
-		URI uriH = new URIBuilder().setScheme("http")
-				.setHost("travel.gsp8181.co.uk")
-				.setPath("/rest/bookings/" + travelPlan.getHotelBookingId())
-				// .setHost("localhost")
-				// .setPort(8080)
-				// .setPath("/travel/rest/bookings/" +
-				// travelPlan.getHotelBookingId())
-				.build();
-		HttpDelete reqH = new HttpDelete(uriH);
-		CloseableHttpResponse responseH = httpClient.execute(reqH);
-		if (responseH.getStatusLine().getStatusCode() != 204) {
-
-		}
-		// String responseBody = EntityUtils.toString(response.getEntity());
-		HttpClientUtils.closeQuietly(responseH);
-
-		URI uriF = new URIBuilder().setScheme("http")
-				.setHost("jbosscontactsangularjs-110336260.rhcloud.com")
-				.setPath("/rest/bookings/" + travelPlan.getFlightBookingId())
-				.build();
-		HttpDelete reqF = new HttpDelete(uriF);
-		CloseableHttpResponse responseF = httpClient.execute(reqF);
-		if (responseF.getStatusLine().getStatusCode() != 204) {
-
+		TravelPlan cancelled = outbox.cancel(travelPlan.getId());
+		if (cancelled != null && cancelled.getStatus() == TravelPlan.Status.CANCELLING) {
+			compensator.compensate(cancelled.getId());
 		}
-		// String responseBody = EntityUtils.toString(response.getEntity());
-		HttpClientUtils.closeQuietly(responseF);
-
-		URI uri = new URIBuilder().setScheme("http")
-				.setHost("jbosscontactsangularjs-110060653.rhcloud.com")
-				.setPath("/rest/bookings/" + travelPlan.getTaxiBookingId())
-				.build();
-		HttpDelete req = new HttpDelete(uri);
-		CloseableHttpResponse response = httpClient.execute(req);
-		if (response.getStatusLine().getStatusCode() != 204) {
-
-		}
-		// String responseBody = EntityUtils.toString(response.getEntity());
-		HttpClientUtils.closeQuietly(response);
-
-		TravelPlan deletedTravelPlan = null;
-		deletedTravelPlan = crud.delete(travelPlan);
-		return deletedTravelPlan;
-
+		return cancelled;
 	}
 
 }
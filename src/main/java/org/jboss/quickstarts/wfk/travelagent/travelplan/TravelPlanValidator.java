@@ -69,6 +69,27 @@ public class TravelPlanValidator {
         //}
     }
 
+    /**
+     * <p>Validates the TravelSketch a TravelPlan is to be booked from, so that a sketch missing a leg or naming a
+     * Customer that does not exist is turned away before anything is written or booked. In a batch it then fails on its
+     * own, rather than failing the write of every plan in it.</p>
+     *
+     * @param travelSketch The TravelSketch to be validated
+     * @throws ConstraintViolationException If Bean Validation errors exist
+     * @throws ValidationException If the Customer does not exist
+     */
+    void validateTravelSketch(TravelSketch travelSketch) throws ConstraintViolationException, ValidationException {
+        Set<ConstraintViolation<TravelSketch>> violations = validator.validate(travelSketch);
+
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
+        }
+
+        if (!crud.customerExists(travelSketch.getCustomerId())) {
+            throw new ValidationException("Customer ID " + travelSketch.getCustomerId() + " does not exist");
+        }
+    }
+
     /**
      * <p>Checks if a travelPlan with the same email address is already registered. This is the only way to easily capture the
      * "@UniqueConstraint(columnNames = "email")" constraint from the TravelPlan class.</p>
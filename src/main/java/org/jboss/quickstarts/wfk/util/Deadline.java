@@ -0,0 +1,106 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.io.Serializable;
+
+/**
+ * <p>The time by which a request must be answered, carried with it from the REST resource through the service, the
+ * database steps and every supplier call it makes, so that each of them gets only what is left of the budget.</p>
+ *
+ * <p>A client sets its budget, in ms, with the <code>X-Request-Timeout</code> header. Without one the request gets
+ * <code>travel.deadline.default</code> ms (default 25000). Once the budget is spent the request fails with a
+ * {@link DeadlineExceededException} instead of going on to the next step, which the REST resources answer with a 504
+ * (gateway timeout).</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see DeadlineExceededException
+ */
+public final class Deadline implements Serializable {
+    /** Default value included to remove warning. Remove or modify at will. **/
+    private static final long serialVersionUID = 1L;
+
+    /** The request header carrying the budget. */
+    public static final String HEADER = "X-Request-Timeout";
+
+    private static final long DEFAULT_TIMEOUT = Long.getLong("travel.deadline.default", 25000L);
+
+    /** No deadline, for work that no client is waiting on, such as recovery. */
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private final long expires;
+
+    private Deadline(long expires) {
+        this.expires = expires;
+    }
+
+    /**
+     * @param timeout The budget, in ms, from now
+     * @return A Deadline that many ms from now
+     */
+    public static Deadline after(long timeout) {
+        return new Deadline(System.currentTimeMillis() + timeout);
+    }
+
+    /**
+     * <p>Reads the budget a client asked for. A missing or unreadable header gets the default budget, and neither may
+     * be longer than the request can be held for.</p>
+     *
+     * @param header The value of the X-Request-Timeout header, may be null
+     * @param max The longest budget, in ms, the request may have
+     * @return The Deadline of the request
+     */
+    public static Deadline fromHeader(String header, long max) {
+        long timeout = DEFAULT_TIMEOUT;
+        if (header != null) {
+            try {
+                timeout = Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                // fall back to the default
+            }
+        }
+        return after(Math.max(0, Math.min(timeout, max)));
+    }
+
+    /**
+     * @return The ms left before the deadline, 0 once it has passed
+     */
+    public long remaining() {
+        return Math.max(0, expires - System.currentTimeMillis());
+    }
+
+    /**
+     * @return true once the deadline has passed
+     */
+    public boolean isExpired() {
+        return remaining() == 0;
+    }
+
+    /**
+     * <p>Checks there is time left before starting a step of the request.</p>
+     *
+     * @param step What is about to be done, for the message of the exception
+     * @throws DeadlineExceededException If the deadline has passed
+     */
+    public void check(String step) throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException("The request ran out of time before " + step);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Thrown when a request's {@link Deadline} passes before it has been answered.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see Deadline
+ */
+public class DeadlineExceededException extends TimeoutException {
+    /** Default value included to remove warning. Remove or modify at will. **/
+    private static final long serialVersionUID = 1L;
+
+    /** The status code a REST resource answers with, 504 (gateway timeout), which JAX-RS 1.1 has no constant for. */
+    public static final int STATUS = 504;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
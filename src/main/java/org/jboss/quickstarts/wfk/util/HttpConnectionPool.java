@@ -0,0 +1,273 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * <p>Holds the pooled connection managers behind the shared {@link CloseableHttpClient} and non-blocking
+ * {@link CloseableHttpAsyncClient} produced by {@link Resources}.</p>
+ *
+ * <p>Each client has its own pool. Both are sized and timed out from the same system properties so they can be tuned
+ * on the server without a rebuild, for example in standalone.xml:</p>
+ *
+ * <ul>
+ * <li><code>travel.http.maxTotal</code> - connections across all routes (default 200)</li>
+ * <li><code>travel.http.defaultMaxPerRoute</code> - connections to any one host (default 20)</li>
+ * <li><code>travel.http.maxPerRoute.&lt;host&gt;</code> - connections to a supplier host (default 50)</li>
+ * <li><code>travel.http.connectTimeout</code> - ms to establish a connection (default 5000)</li>
+ * <li><code>travel.http.socketTimeout</code> - ms to wait for data (default 15000)</li>
+ * <li><code>travel.http.connectionRequestTimeout</code> - ms to wait for a pooled connection (default 2000)</li>
+ * <li><code>travel.http.keepAlive</code> - ms to keep a connection when the server does not say (default 30000)</li>
+ * <li><code>travel.http.idleTimeout</code> - ms before an idle connection is evicted (default 60000)</li>
+ * <li><code>travel.http.ioThreads</code> - I/O dispatch threads of the non-blocking client (default one per core)</li>
+ * </ul>
+ *
+ * @author Geoffrey Prytherch
+ * @see HttpConnectionPoolEvictor
+ * @see HttpConnectionPoolRESTService
+ */
+public final class HttpConnectionPool {
+
+    /** The remote hosts the application calls by default, each is given its own route limit. */
+    public static final String[] SUPPLIER_HOSTS = {
+        "travel.gsp8181.co.uk",
+        "jbosscontactsangularjs-110336260.rhcloud.com",
+        "jbosscontactsangularjs-110060653.rhcloud.com"
+    };
+
+    /** The routes given their own limit, including those registered by the supplier registry. */
+    private static final List<HttpRoute> ROUTES = new CopyOnWriteArrayList<HttpRoute>();
+
+    private static final int MAX_TOTAL = Integer.getInteger("travel.http.maxTotal", 200);
+    private static final int DEFAULT_MAX_PER_ROUTE = Integer.getInteger("travel.http.defaultMaxPerRoute", 20);
+    private static final int SUPPLIER_MAX_PER_ROUTE = 50;
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("travel.http.connectTimeout", 5000);
+    private static final int SOCKET_TIMEOUT = Integer.getInteger("travel.http.socketTimeout", 15000);
+    private static final int CONNECTION_REQUEST_TIMEOUT = Integer.getInteger("travel.http.connectionRequestTimeout", 2000);
+    private static final long KEEP_ALIVE = Long.getLong("travel.http.keepAlive", 30000L);
+    private static final long IDLE_TIMEOUT = Long.getLong("travel.http.idleTimeout", 60000L);
+    private static final int IO_THREADS = Integer.getInteger("travel.http.ioThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final RequestConfig REQUEST_CONFIG = RequestConfig.custom()
+            .setConnectTimeout(CONNECT_TIMEOUT)
+            .setSocketTimeout(SOCKET_TIMEOUT)
+            .setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT)
+            .build();
+
+    private static final ConnectionKeepAliveStrategy KEEP_ALIVE_STRATEGY = new ConnectionKeepAliveStrategy() {
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            // Honour the Keep-Alive header when the supplier sends one, otherwise fall back to our default.
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : KEEP_ALIVE;
+        }
+    };
+
+    private static final PoolingHttpClientConnectionManager CONNECTION_MANAGER = createConnectionManager();
+
+    private static final CloseableHttpClient HTTP_CLIENT = HttpClients.custom()
+            .setConnectionManager(CONNECTION_MANAGER)
+            .setDefaultRequestConfig(REQUEST_CONFIG)
+            .setKeepAliveStrategy(KEEP_ALIVE_STRATEGY)
+            .build();
+
+    private static final PoolingNHttpClientConnectionManager ASYNC_CONNECTION_MANAGER = createAsyncConnectionManager();
+
+    private static final CloseableHttpAsyncClient HTTP_ASYNC_CLIENT = HttpAsyncClients.custom()
+            .setConnectionManager(ASYNC_CONNECTION_MANAGER)
+            .setDefaultRequestConfig(REQUEST_CONFIG)
+            .setKeepAliveStrategy(KEEP_ALIVE_STRATEGY)
+            .build();
+
+    static {
+        HTTP_ASYNC_CLIENT.start();
+    }
+
+    private HttpConnectionPool() {
+    }
+
+    private static PoolingHttpClientConnectionManager createConnectionManager() {
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        configure(cm);
+        return cm;
+    }
+
+    private static PoolingNHttpClientConnectionManager createAsyncConnectionManager() {
+        try {
+            PoolingNHttpClientConnectionManager cm = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                            .setIoThreadCount(IO_THREADS)
+                            .setConnectTimeout(CONNECT_TIMEOUT)
+                            .setSoTimeout(SOCKET_TIMEOUT)
+                            .build()));
+            configure(cm);
+            return cm;
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Could not start the I/O reactor of the async HTTP client", e);
+        }
+    }
+
+    private static void configure(ConnPoolControl<HttpRoute> cm) {
+        cm.setMaxTotal(MAX_TOTAL);
+        cm.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
+        for (String host : SUPPLIER_HOSTS) {
+            HttpRoute route = new HttpRoute(new HttpHost(host, 80, "http"));
+            if (!ROUTES.contains(route)) {
+                ROUTES.add(route);
+            }
+            configure(cm, route);
+        }
+    }
+
+    private static void configure(ConnPoolControl<HttpRoute> cm, HttpRoute route) {
+        String host = route.getTargetHost().getHostName();
+        cm.setMaxPerRoute(route, Integer.getInteger("travel.http.maxPerRoute." + host, SUPPLIER_MAX_PER_ROUTE));
+    }
+
+    /**
+     * <p>Gives a supplier host that is not one of the defaults its own route limit in both pools, as for the
+     * defaults.</p>
+     *
+     * @param host The supplier host, with the scheme and port it is called on
+     */
+    public static synchronized void registerRoute(HttpHost host) {
+        HttpRoute route = new HttpRoute(host);
+        if (!ROUTES.contains(route)) {
+            ROUTES.add(route);
+            configure(CONNECTION_MANAGER, route);
+            configure(ASYNC_CONNECTION_MANAGER, route);
+        }
+    }
+
+    /**
+     * <p>Returns the shared, pooled HTTP client.</p>
+     *
+     * @return The CloseableHttpClient backed by the pooled connection manager
+     */
+    public static CloseableHttpClient getHttpClient() {
+        return HTTP_CLIENT;
+    }
+
+    /**
+     * <p>Returns the shared, pooled non-blocking HTTP client. It is started when the pool is first used.</p>
+     *
+     * @return The CloseableHttpAsyncClient backed by the pooled NIO connection manager
+     */
+    public static CloseableHttpAsyncClient getHttpAsyncClient() {
+        return HTTP_ASYNC_CLIENT;
+    }
+
+    /**
+     * <p>Returns the request settings to use for a call that must be over within a time budget: the usual timeouts,
+     * each cut down to the budget where it is longer.</p>
+     *
+     * @param budget The ms the call has left
+     * @return The RequestConfig to set on the request
+     */
+    public static RequestConfig requestConfigWithin(long budget) {
+        // A timeout of 0 would mean no timeout at all.
+        int within = (int) Math.max(1, Math.min(budget, Integer.MAX_VALUE));
+        return RequestConfig.copy(REQUEST_CONFIG)
+                .setConnectTimeout(Math.min(CONNECT_TIMEOUT, within))
+                .setSocketTimeout(Math.min(SOCKET_TIMEOUT, within))
+                .setConnectionRequestTimeout(Math.min(CONNECTION_REQUEST_TIMEOUT, within))
+                .build();
+    }
+
+    /**
+     * <p>Closes expired connections and those that have been idle for longer than <code>travel.http.idleTimeout</code>,
+     * so that a supplier dropping a kept-alive connection is not discovered on the next request.</p>
+     */
+    public static void evictIdleConnections() {
+        CONNECTION_MANAGER.closeExpiredConnections();
+        CONNECTION_MANAGER.closeIdleConnections(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        ASYNC_CONNECTION_MANAGER.closeExpiredConnections();
+        ASYNC_CONNECTION_MANAGER.closeIdleConnections(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Closes both clients and every pooled connection.</p>
+     */
+    public static void shutdown() {
+        HttpClientUtils.closeQuietly(HTTP_CLIENT);
+        CONNECTION_MANAGER.shutdown();
+        try {
+            HTTP_ASYNC_CLIENT.close();
+        } catch (IOException e) {
+            // ignore, we are shutting down
+        }
+    }
+
+    /**
+     * <p>Returns the current statistics of both pools, in total and for each supplier route, to help size them.</p>
+     *
+     * @return A Map of pool name to the leased, pending, available and max connection counts of each route
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("blocking", getStats(CONNECTION_MANAGER));
+        stats.put("async", getStats(ASYNC_CONNECTION_MANAGER));
+        return stats;
+    }
+
+    private static Map<String, Object> getStats(ConnPoolControl<HttpRoute> cm) {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("total", toMap(cm.getTotalStats()));
+        for (HttpRoute route : ROUTES) {
+            stats.put(route.getTargetHost().toHostString(), toMap(cm.getStats(route)));
+        }
+        return stats;
+    }
+
+    private static Map<String, Integer> toMap(PoolStats poolStats) {
+        Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+        map.put("leased", poolStats.getLeased());
+        map.put("pending", poolStats.getPending());
+        map.put("available", poolStats.getAvailable());
+        map.put("max", poolStats.getMax());
+        return map;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.annotation.PreDestroy;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+
+/**
+ * <p>Periodically evicts stale connections from the {@link HttpConnectionPool}, and closes the pool when the
+ * application is undeployed.</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see HttpConnectionPool
+ */
+@Singleton
+public class HttpConnectionPoolEvictor {
+
+    /**
+     * <p>Runs every 30 seconds. The timer is not persistent, a missed run is simply picked up by the next one.</p>
+     */
+    @Schedule(second = "*/30", minute = "*", hour = "*", persistent = false)
+    public void evict() {
+        HttpConnectionPool.evictIdleConnections();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        HttpConnectionPool.shutdown();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.ejb.Stateless;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Exposes the statistics of the {@link HttpConnectionPool} so the pool can be sized against real traffic.</p>
+ *
+ * <p>Full path for accessing the statistics is rest/management/httpclient .</p>
+ *
+ * @author Geoffrey Prytherch
+ * @see HttpConnectionPool
+ */
+@Path("/management/httpclient")
+@Produces(MediaType.APPLICATION_JSON)
+@Stateless
+public class HttpConnectionPoolRESTService {
+
+    /**
+     * <p>Returns the leased, pending, available and max connections of the pool, in total and for each supplier.</p>
+     *
+     * @return A Response containing the pool statistics
+     */
+    @GET
+    public Response retrievePoolStats() {
+        return Response.ok(HttpConnectionPool.getStats()).build();
+    }
+}
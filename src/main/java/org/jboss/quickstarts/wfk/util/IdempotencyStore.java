@@ -0,0 +1,189 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Remembers the outcome of recent POSTs made with an <code>Idempotency-Key</code> header, so that a client retrying
+ * one after a timeout is given the original 201 (created) instead of creating the resource, or booking, again.</p>
+ *
+ * <p>Keys are scoped to the endpoint they were sent to, and tied to the request first sent with them by a hash of its
+ * fields (see {@link #fingerprint}). A key sent again with a different request is answered 422 (unprocessable entity),
+ * rather than given the outcome of a request the client did not make. Only a 201 is remembered: any other outcome
+ * releases the key, so the client may retry it. While the first request with a key is still running, a retry with the
+ * same key is answered 409 (conflict) rather than run alongside it.</p>
+ *
+ * <p>The store is held in memory and bounded, dropping the least recently used keys beyond
+ * <code>travel.idempotency.maxKeys</code> (default 10000) and forgetting keys after <code>travel.idempotency.ttl</code>
+ * ms (default 86400000, a day).</p>
+ *
+ * @author Geoffrey Prytherch
+ */
+public final class IdempotencyStore {
+
+    /** The request header carrying the key. */
+    public static final String HEADER = "Idempotency-Key";
+
+    private static final int MAX_KEYS = Integer.getInteger("travel.idempotency.maxKeys", 10000);
+    private static final long TTL = Long.getLong("travel.idempotency.ttl", 86400000L);
+
+    /** How long, in ms, a request may hold its key before it is taken to have been abandoned. */
+    private static final long IN_PROGRESS_TTL = 120000L;
+
+    /** The status for a key sent again with a different request, which JAX-RS 1.1 has no constant for. */
+    private static final int UNPROCESSABLE_ENTITY = 422;
+
+    private static final Map<String, Outcome> OUTCOMES = new LinkedHashMap<String, Outcome>(16, 0.75f, true) {
+        /** Default value included to remove warning. Remove or modify at will. **/
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Outcome> eldest) {
+            return size() > MAX_KEYS;
+        }
+    };
+
+    private IdempotencyStore() {
+    }
+
+    /**
+     * <p>Hashes the fields of a request, so that a key can be tied to the request it was first sent with. The fields
+     * are those that decide what the request creates; two requests with equal fields are taken to be the same.</p>
+     *
+     * @param fields The fields of the request, in a fixed order, any of which may be null
+     * @return The SHA-256 hash of the fields, in hex
+     */
+    public static String fingerprint(Object... fields) {
+        StringBuilder request = new StringBuilder();
+        for (Object field : fields) {
+            // The length prefix keeps ("ab", "c") apart from ("a", "bc").
+            String value = String.valueOf(field);
+            request.append(value.length()).append(':').append(value).append(';');
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(request.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM must provide SHA-256.
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            // Every JVM must provide UTF-8.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * <p>Claims a key for a new request, or returns the response to give a repeated one.</p>
+     *
+     * @param scope The endpoint the key was sent to, such as "POST /bookings"
+     * @param key The value of the Idempotency-Key header, may be null
+     * @param fingerprint The {@link #fingerprint} of the request
+     * @return null if the request is to go ahead, which must then be followed by {@link #complete} or {@link #release};
+     *         otherwise the Response to return without running it
+     */
+    public static Response claim(String scope, String key, String fingerprint) {
+        if (key == null || key.isEmpty()) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (OUTCOMES) {
+            Outcome outcome = OUTCOMES.get(scope + " " + key);
+            if (outcome == null || outcome.expires < now) {
+                OUTCOMES.put(scope + " " + key, new Outcome(now + IN_PROGRESS_TTL, fingerprint));
+                return null;
+            }
+            if (!outcome.fingerprint.equals(fingerprint)) {
+                Map<String, String> responseObj = new HashMap<String, String>();
+                responseObj.put("error", "This " + HEADER + " was already used with a different request");
+                return Response.status(UNPROCESSABLE_ENTITY).entity(responseObj).build();
+            }
+            if (outcome.entity == null) {
+                Map<String, String> responseObj = new HashMap<String, String>();
+                responseObj.put("error", "A request with this " + HEADER + " is still in progress");
+                return Response.status(Response.Status.CONFLICT).entity(responseObj).build();
+            }
+            return Response.status(Response.Status.CREATED).entity(outcome.entity).build();
+        }
+    }
+
+    /**
+     * <p>Records the response to a request that claimed its key. A 201 is kept for repeats, anything else releases the
+     * key.</p>
+     *
+     * @param scope The endpoint the key was sent to
+     * @param key The value of the Idempotency-Key header, may be null
+     * @param response The Response given to the request
+     */
+    public static void complete(String scope, String key, Response response) {
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        if (response.getStatus() != Response.Status.CREATED.getStatusCode() || response.getEntity() == null) {
+            release(scope, key);
+            return;
+        }
+        synchronized (OUTCOMES) {
+            Outcome claimed = OUTCOMES.get(scope + " " + key);
+            if (claimed != null) {
+                Outcome outcome = new Outcome(System.currentTimeMillis() + TTL, claimed.fingerprint);
+                outcome.entity = response.getEntity();
+                OUTCOMES.put(scope + " " + key, outcome);
+            }
+        }
+    }
+
+    /**
+     * <p>Releases a key claimed by a request that did not create anything, such as one whose transaction was rolled
+     * back, so the client may retry it.</p>
+     *
+     * @param scope The endpoint the key was sent to
+     * @param key The value of the Idempotency-Key header, may be null
+     */
+    public static void release(String scope, String key) {
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        synchronized (OUTCOMES) {
+            OUTCOMES.remove(scope + " " + key);
+        }
+    }
+
+    private static final class Outcome {
+        private final long expires;
+        private final String fingerprint;
+        private Object entity;
+
+        private Outcome(long expires, String fingerprint) {
+            this.expires = expires;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
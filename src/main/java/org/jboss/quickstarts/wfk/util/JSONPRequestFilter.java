@@ -21,6 +21,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.regex.Pattern;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -43,7 +45,7 @@ import javax.servlet.http.HttpServletResponseWrapper;
  * @author balunasj
  * @see javax.servlet.Filter
  */
-@WebFilter("/rest/*")
+@WebFilter(urlPatterns = "/rest/*", asyncSupported = true)
 public class JSONPRequestFilter implements Filter {
     // The callback method to use
     private static final String CALLBACK_METHOD = "jsonpcallback";
@@ -101,22 +103,73 @@ public class JSONPRequestFilter implements Filter {
                 public PrintWriter getWriter() throws IOException {
                     return new PrintWriter(byteStream);
                 }
+
+                // The padding changes the length of the body, so any length set by the JAX-RS request is dropped.
+                @Override
+                public void setContentLength(int len) {
+                    // Nothing needed
+                }
+
+                @Override
+                public void setHeader(String name, String value) {
+                    if (!"Content-Length".equalsIgnoreCase(name)) {
+                        super.setHeader(name, value);
+                    }
+                }
+
+                @Override
+                public void addHeader(String name, String value) {
+                    if (!"Content-Length".equalsIgnoreCase(name)) {
+                        super.addHeader(name, value);
+                    }
+                }
             };
 
             // Process the rest of the filter chain, including the JAX-RS request
             chain.doFilter(request, responseWrapper);
 
-            // Override response content and encoding
-            response.setContentType(CONTENT_TYPE);
-            response.setCharacterEncoding("UTF-8");
-
-            // Write the padded updates to the output stream.
-            response.getOutputStream().write((callback + "(").getBytes());
-            response.getOutputStream().write(byteStream.toByteArray());
-            response.getOutputStream().write(");".getBytes());
+            if (request.isAsyncStarted()) {
+                // The JAX-RS resource suspended the request, so the body is only written once it is resumed.
+                final String paddingCallback = callback;
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) throws IOException {
+                        writePadded(httpResponse, paddingCallback, byteStream);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) throws IOException {
+                        // Nothing needed
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) throws IOException {
+                        // Nothing needed
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) throws IOException {
+                        // Nothing needed
+                    }
+                });
+            } else {
+                writePadded(response, callback, byteStream);
+            }
         }
     }
 
+    private void writePadded(ServletResponse response, String callback, ByteArrayOutputStream byteStream)
+        throws IOException {
+        // Override response content and encoding
+        response.setContentType(CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+
+        // Write the padded updates to the output stream.
+        response.getOutputStream().write((callback + "(").getBytes());
+        response.getOutputStream().write(byteStream.toByteArray());
+        response.getOutputStream().write(");".getBytes());
+    }
+
     private String getCallbackMethod(HttpServletRequest httpRequest) {
         return httpRequest.getParameter(CALLBACK_METHOD);
     }
@@ -35,16 +35,25 @@ import org.codehaus.jackson.map.ObjectMapper;
 @Provider
 @Produces(MediaType.APPLICATION_JSON)
 public class JacksonConfig implements ContextResolver<ObjectMapper> {
-    private ObjectMapper objectMapper;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
     // Configure the Date coming from the client to be in ISO-8601 instead of milliseconds from the epoch. 
-    public JacksonConfig() throws Exception {
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.setDateFormat(new SimpleDateFormat("yyyy-MM-dd"));
+    static {
+        OBJECT_MAPPER.setDateFormat(new SimpleDateFormat("yyyy-MM-dd"));
+    }
+
+    /**
+     * <p>Returns the ObjectMapper shared by JAX-RS and the application's own JSON handling, such as the calls to the
+     * suppliers. It is thread safe once configured, and building one is costly, so there is only the one.</p>
+     *
+     * @return The configured ObjectMapper
+     */
+    public static ObjectMapper getObjectMapper() {
+        return OBJECT_MAPPER;
     }
 
     @Override
     public ObjectMapper getContext(Class<?> objectType) {
-        return objectMapper;
+        return OBJECT_MAPPER;
     }
 }
\ No newline at end of file
@@ -17,7 +17,7 @@
 package org.jboss.quickstarts.wfk.util;
 
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import java.util.logging.Logger;
 import javax.enterprise.inject.Produces;
 import javax.enterprise.inject.spi.InjectionPoint;
@@ -44,18 +44,28 @@ public class Resources {
     @PersistenceContext(unitName = "travel_pu")
     private EntityManager em;
 
-    private static final CloseableHttpClient HTTP_CLIENT = HttpClients.createDefault();
-
     @Produces
     @Named("logger")
     public Logger produceLog(InjectionPoint injectionPoint) {
         return Logger.getLogger(injectionPoint.getMember().getDeclaringClass().getName());
     }
 
+    /**
+     * <p>Produces the shared HTTP client, backed by the tunable connection pool in {@link HttpConnectionPool}.</p>
+     */
     @Produces
     @Named("httpClient")
     public CloseableHttpClient produceHttpClient() {
-        return HTTP_CLIENT;
+        return HttpConnectionPool.getHttpClient();
+    }
+
+    /**
+     * <p>Produces the shared non-blocking HTTP client used to call the travel agent's suppliers.</p>
+     */
+    @Produces
+    @Named("httpAsyncClient")
+    public CloseableHttpAsyncClient produceHttpAsyncClient() {
+        return HttpConnectionPool.getHttpAsyncClient();
     }
 
 }
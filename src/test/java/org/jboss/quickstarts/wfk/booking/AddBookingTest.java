@@ -20,20 +20,32 @@ package org.jboss.quickstarts.wfk.booking;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.EntityManager;
 import javax.ws.rs.core.Response;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.util.EntityUtils;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
@@ -47,6 +59,8 @@ import org.jboss.quickstarts.wfk.hotel.HotelRESTService;
 import org.jboss.quickstarts.wfk.hotel.HotelRepository;
 import org.jboss.quickstarts.wfk.hotel.HotelService;
 import org.jboss.quickstarts.wfk.hotel.HotelValidator;
+import org.jboss.quickstarts.wfk.util.HttpConnectionPool;
+import org.jboss.quickstarts.wfk.util.IdempotencyStore;
 import org.jboss.quickstarts.wfk.util.Resources;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -54,7 +68,6 @@ import org.jboss.shrinkwrap.api.asset.EmptyAsset;
 import org.jboss.shrinkwrap.api.spec.WebArchive;
 import org.jboss.shrinkwrap.resolver.api.maven.Maven;
 import org.json.JSONArray;
-import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -62,7 +75,8 @@ import org.junit.runner.RunWith;
  * <p>
  * A suite of tests, run with {@link org.jboss.arquillian Arquillian} to test
  * the JAX-RS endpoint for Booking creation functionality (see
- * {@link BookingRESTService#createBooking(Booking) createBooking(Booking)}).
+ * {@link BookingRESTService#createBooking(Booking, String)
+ * createBooking(Booking, String)}).
  * <p/>
  *
  * 
@@ -95,13 +109,14 @@ public class AddBookingTest {
 				.resolver()
 				.loadPomFromFile("pom.xml")
 				.resolve("org.apache.httpcomponents:httpclient:4.3.2",
+						"org.apache.httpcomponents:httpasyncclient:4.0.1",
 						"org.json:json:20140107").withTransitivity().asFile();
 
 		Archive<?> archive = ShrinkWrap
 				.create(WebArchive.class, "test.war")
 				.addClasses(Booking.class, BookingRESTService.class,
-						BookingRepository.class, BookingValidator.class,
-						BookingService.class, Customer.class, CustomerRESTService.class, CustomerRepository.class, CustomerValidator.class, CustomerService.class,Hotel.class, HotelRESTService.class, HotelRepository.class, HotelValidator.class, HotelService.class, Resources.class)
+						BookingRepository.class, BookingValidator.class, BookingIndex.class, BookingLocks.class,
+						BookingService.class, Customer.class, CustomerRESTService.class, CustomerRepository.class, CustomerValidator.class, CustomerService.class,Hotel.class, HotelRESTService.class, HotelRepository.class, HotelValidator.class, HotelService.class, Resources.class, HttpConnectionPool.class, IdempotencyStore.class)
 				.addAsLibraries(libs)
 				.addAsResource("META-INF/test-persistence.xml",
 						"META-INF/persistence.xml")
@@ -120,6 +135,12 @@ public class AddBookingTest {
 	@Inject
 	HotelRESTService hotelRESTService;
 
+	@Inject
+	BookingValidator bookingValidator;
+
+	@Inject
+	EntityManager em;
+
 	@Inject
 	@Named("logger")
 	Logger log;
@@ -129,7 +150,7 @@ public class AddBookingTest {
 	public void testRegister() throws Exception {
 		Booking booking = createBookingInstance(createTestCustomer(),
 				createTestHotel(), "2020-05-1");
-		Response response = bookingRESTService.createBooking(booking);
+		Response response = bookingRESTService.createBooking(booking, null);
 
 		assertEquals("Unexpected response status", 201, response.getStatus());
 		log.info(" New booking was persisted and returned status "
@@ -141,7 +162,7 @@ public class AddBookingTest {
 	@InSequence(2)
 	public void testInvalidRegister() throws Exception {
 		Booking booking = createBookingInstance(0L, 0L, "2020-06-01");
-		Response response = bookingRESTService.createBooking(booking);
+		Response response = bookingRESTService.createBooking(booking, null);
 
 		assertEquals("Unexpected response status", 400, response.getStatus());
 		assertNotNull("response.getEntity() should not be null",
@@ -160,7 +181,7 @@ public class AddBookingTest {
 	public void testDateInPast() throws Exception {
 		Booking booking = createBookingInstance(createTestCustomer(),
 				createTestHotel(), "2010-05-02");
-		Response response = bookingRESTService.createBooking(booking);
+		Response response = bookingRESTService.createBooking(booking, null);
 
 		assertEquals("Unexpected response status", 400, response.getStatus());
 		assertNotNull("response.getEntity() should not be null",
@@ -211,7 +232,7 @@ public class AddBookingTest {
 				createTestHotel(), "2010-05-02");
 		Booking booking2 = createBookingInstance(createTestCustomer(),
 				createTestHotel(), "2010-05-02");
-		Response response = bookingRESTService.createBooking(booking2);
+		Response response = bookingRESTService.createBooking(booking2, null);
 
 		assertEquals("Unexpected response status", 400, response.getStatus());
 		assertNotNull("response.getEntity() should not be null",
@@ -230,7 +251,7 @@ public class AddBookingTest {
 	public void testChangeId() throws Exception {
 		Booking booking = createBookingInstance(createTestCustomer(),
 				createTestHotel(), "2020-05-1");
-		Response response = bookingRESTService.createBooking(booking);
+		Response response = bookingRESTService.createBooking(booking, null);
 
 		assertTrue("NOT YET IMPLEMENTED", false);
 		assertEquals("Unexpected response status", 400, response.getStatus());
@@ -249,7 +270,7 @@ public class AddBookingTest {
 	public void testDelete() throws Exception {
 		Booking booking = createBookingInstance(createTestCustomer(),
 				createTestHotel(), "2010-05-06");
-		Response response = bookingRESTService.createBooking(booking);
+		Response response = bookingRESTService.createBooking(booking, null);
 		
 		assertEquals("Unexpected response status", 200, response.getStatus());
 
@@ -269,6 +290,155 @@ public class AddBookingTest {
 		
 	}
 
+	@Test
+	@InSequence(9)
+	public void testRepeatedWithIdempotencyKey() throws Exception {
+		Long customerId = createTestCustomer();
+		Long hotelId = createTestHotel();
+		Booking booking = createBookingInstance(customerId, hotelId,
+				"2030-07-01");
+		Response response = bookingRESTService.createBooking(booking,
+				"test-booking-key");
+		assertEquals("Unexpected response status", 201, response.getStatus());
+
+		// The retry is the same request, sent again as a new object
+		Booking retry = createBookingInstance(customerId, hotelId,
+				"2030-07-01");
+		Response repeated = bookingRESTService.createBooking(retry,
+				"test-booking-key");
+
+		assertEquals("Unexpected response status", 201, repeated.getStatus());
+		assertEquals("The original booking should be returned",
+				((Booking) response.getEntity()).getId(),
+				((Booking) repeated.getEntity()).getId());
+		log.info("Repeated booking with the same Idempotency-Key returned the original booking");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	@InSequence(10)
+	public void testIdempotencyKeyReusedForDifferentBooking() throws Exception {
+		Long customerId = createTestCustomer();
+		Long hotelId = createTestHotel();
+		Response response = bookingRESTService.createBooking(
+				createBookingInstance(customerId, hotelId, "2030-08-01"),
+				"test-reused-key");
+		assertEquals("Unexpected response status", 201, response.getStatus());
+
+		Response reused = bookingRESTService.createBooking(
+				createBookingInstance(customerId, hotelId, "2030-08-02"),
+				"test-reused-key");
+
+		assertEquals("Unexpected response status", 422, reused.getStatus());
+		assertTrue("The response should say why the request was refused",
+				((Map<String, String>) reused.getEntity()).containsKey("error"));
+		assertEquals("The second booking should not have been made", 0,
+				em.createNamedQuery(Booking.FIND_BY_ID_AND_DATE)
+						.setParameter("hotelId", hotelId)
+						.setParameter("bookingDate", new SimpleDateFormat("yyyy-MM-dd").parse("2030-08-02"))
+						.getResultList().size());
+		log.info("Idempotency-Key reused for a different booking was refused with status "
+				+ reused.getStatus());
+	}
+
+	/**
+	 * <p>
+	 * Times the validation of a booking and counts the statements it sends to
+	 * the database, using Hibernate's statistics. The clash check is answered
+	 * by the {@link BookingIndex} and the Customer and Hotel are checked
+	 * together, so each booking should take a single query.
+	 * </p>
+	 */
+	@Test
+	@InSequence(11)
+	public void testValidationRoundTrips() throws Exception {
+		Long customerId = createTestCustomer();
+		Long hotelId = createTestHotel();
+		int runs = 1000;
+
+		// Warm up, so that the timed runs do not include class loading and query compilation
+		for (int i = 0; i < runs; i++) {
+			bookingValidator.validateBooking(createBookingInstance(customerId, hotelId, "2030-01-01"));
+		}
+
+		Statistics statistics = em.unwrap(Session.class).getSessionFactory().getStatistics();
+		boolean enabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		try {
+			long statements = statistics.getPrepareStatementCount();
+			long started = System.nanoTime();
+			for (int i = 0; i < runs; i++) {
+				bookingValidator.validateBooking(createBookingInstance(customerId, hotelId, "2030-01-01"));
+			}
+			long elapsed = System.nanoTime() - started;
+			double perBooking = (double) (statistics.getPrepareStatementCount() - statements) / runs;
+
+			log.info("Validated " + runs + " bookings with " + perBooking + " statements and "
+					+ (elapsed / runs / 1000) + "us each");
+			assertTrue("Expected at most one statement per booking, was " + perBooking, perBooking <= 1);
+		} finally {
+			statistics.setStatisticsEnabled(enabled);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Books the same hotel on the same date from several threads at once. The
+	 * {@link BookingLocks} lock of the slot is held until each booking's
+	 * transaction has ended, so exactly one is made and every other is refused
+	 * as a clash.
+	 * </p>
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	@InSequence(12)
+	public void testConcurrentSameSlot() throws Exception {
+		final Long customerId = createTestCustomer();
+		final Long hotelId = createTestHotel();
+		int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Response> responses = new ArrayList<Response>();
+		try {
+			List<Future<Response>> done = new ArrayList<Future<Response>>();
+			for (int i = 0; i < threads; i++) {
+				done.add(executor.submit(new Callable<Response>() {
+					@Override
+					public Response call() throws Exception {
+						Booking booking = createBookingInstance(customerId, hotelId, "2030-03-01");
+						start.await();
+						return bookingRESTService.createBooking(booking, null);
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Response> future : done) {
+				responses.add(future.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		int created = 0;
+		for (Response response : responses) {
+			if (response.getStatus() == 201) {
+				created++;
+			} else {
+				assertEquals("Unexpected response status", 409, response.getStatus());
+				assertTrue("The booking should be refused as a clash",
+						((Map<String, String>) response.getEntity()).containsKey("hotelId/bookingDate"));
+			}
+		}
+		assertEquals("Exactly one booking should have been made", 1, created);
+		assertEquals("Exactly one booking should have been written", 1,
+				em.createNamedQuery(Booking.FIND_BY_ID_AND_DATE)
+						.setParameter("hotelId", hotelId)
+						.setParameter("bookingDate", new SimpleDateFormat("yyyy-MM-dd").parse("2030-03-01"))
+						.getResultList().size());
+		log.info("Concurrent bookings of the same hotel and date made one booking and refused "
+				+ (threads - created));
+	}
+
 	/**
 	 * <p>
 	 * A utility method to construct a
@@ -308,107 +478,57 @@ public class AddBookingTest {
 
 	/**
 	 * <p>
-	 * A utility method to construct a
-	 * {@link org.jboss.quickstarts.wfk.customer.Customer Customer} object for
-	 * use in testing. This object is not persisted.
+	 * A utility method to find the
+	 * {@link org.jboss.quickstarts.wfk.customer.Customer Customer} the tests
+	 * book for, creating it the first time.
 	 * </p>
 	 *
-	 * @return The ID of the created customer
+	 * @return The ID of the test customer
 	 */
 	private Long createTestCustomer() throws Exception {
+		List<Customer> found = em.createNamedQuery(Customer.FIND_BY_EMAIL, Customer.class)
+				.setParameter("email", "testbooking@ncl.ac.uk").getResultList();
+		if (!found.isEmpty()) {
+			return found.get(0).getId();
+		}
 
-		Response c1 = customerRESTService
-				.retrieveCustomersByEmail("testbooking@ncl.ac.uk");
-
-		if (c1.getStatus() == 200) {
-			String responseBody = EntityUtils.toString((HttpEntity) c1
-					.getEntity());
-			JSONObject responseJson = new JSONObject(responseBody);
-			return responseJson.getLong("id");
-		} else {
+		Customer customer = new Customer();
+		customer.setName("TEST CUSTOMER");
+		customer.setEmail("testbooking@ncl.ac.uk");
+		customer.setPhoneNumber("07419999999");
 
-			Customer customer = new Customer();
-			customer.setName("TEST CUSTOMER");
-			customer.setEmail("testbooking@ncl.ac.uk");
-			customer.setPhoneNumber("07419999999");
+		Response response = customerRESTService.createCustomer(customer);
+		if (response.getStatus() != 201) {
+			throw new Exception("Customer could not be created");
+		}
+		return customer.getId();
+	}
 
-			Response response = customerRESTService.createCustomer(customer);
+	/**
+	 * <p>
+	 * A utility method to find the
+	 * {@link org.jboss.quickstarts.wfk.hotel.Hotel Hotel} the tests book,
+	 * creating it the first time.
+	 * </p>
+	 *
+	 * @return The ID of the test hotel
+	 */
+	private Long createTestHotel() throws Exception {
+		List<Hotel> found = em.createNamedQuery(Hotel.FIND_BY_PHONE_NUMBER, Hotel.class)
+				.setParameter("phoneNumber", "07418995999").getResultList();
+		if (!found.isEmpty()) {
+			return found.get(0).getId();
+		}
 
-			if (response.getStatus() != 201) {
-				throw new Exception("Customer could not be created");
-			} else {
-				Response c2 = customerRESTService
-						.retrieveCustomersByEmail("testbooking@ncl.ac.uk");
-
-				if (c2.getStatus() == 200) {
-					String responseBody = EntityUtils.toString((HttpEntity) c2
-							.getEntity());
-					JSONObject responseJson = new JSONObject(responseBody);
-					return responseJson.getLong("id");
-				} else {
-					throw new Exception("Customer could not be created");
-				}
-			}
+		Hotel hotel = new Hotel();
+		hotel.setName("TEST HOTEL");
+		hotel.setPostcode("H72 3PZ");
+		hotel.setPhoneNumber("07418995999");
 
+		Response response = hotelRESTService.createHotel(hotel);
+		if (response.getStatus() != 201) {
+			throw new Exception("Hotel could not be created");
 		}
-	}
-		
-		/**
-		 * <p>
-		 * A utility method to construct a
-		 * {@link org.jboss.quickstarts.wfk.hotel.Hotel Hotel} object for
-		 * use in testing. This object is not persisted.
-		 * </p>
-		 *
-		 * @return The ID of the created hotel
-		 */
-		private Long createTestHotel() throws Exception {
-
-			Response c1 = hotelRESTService.retrieveAllHotels();
-
-			if (c1.getStatus() == 200) {
-				String responseBody = EntityUtils.toString((HttpEntity) c1.getEntity());
-				JSONArray responseJson = new JSONArray(responseBody);
-				for(int i = 0;i<responseJson.length();i++)
-				{
-					JSONObject current = responseJson.getJSONObject(i);
-					if( current.getString("phoneNumber") == "07418995999")
-					{
-						return current.getLong("id");
-					}
-				}
-			} 
-
-				Hotel hotel = new Hotel();
-				hotel.setName("TEST HOTEL");
-				hotel.setPostcode("H72 3PZ");
-				hotel.setPhoneNumber("07418995999");
-
-				Response response = hotelRESTService.createHotel(hotel);
-
-				if (response.getStatus() != 201) {
-					throw new Exception("Hotel could not be created");
-				} else {
-					
-					Response c2 = hotelRESTService.retrieveAllHotels();
-
-					if (c2.getStatus() == 200) {
-						String responseBody = EntityUtils.toString((HttpEntity) c2.getEntity());
-						JSONArray responseJson = new JSONArray(responseBody);
-						for(int i = 0;i<responseJson.length();i++)
-						{
-							JSONObject current = responseJson.getJSONObject(i);
-							if( current.getString("phoneNumber") == "07418995999")
-							{
-								return current.getLong("id");
-							}
-						}
-					} 
-					throw new Exception("Hotel could not be created");
-					
-				}
-
-			
-
+		return hotel.getId();
 	}
 }
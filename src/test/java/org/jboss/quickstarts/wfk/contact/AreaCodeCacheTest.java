@@ -0,0 +1,141 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests that the {@link AreaCodeCache} looks each area code up once, looks
+ * an unknown one up again only once its negative entry has expired, never
+ * remembers a lookup that failed, and drops the least recently used entries
+ * when full.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see AreaCodeCache
+ */
+public class AreaCodeCacheTest {
+
+	private static final long NOW = 1000000000000L;
+	private static final long HOUR = 3600000L;
+
+	@Before
+	public void clear() {
+		AreaCodeCache.clear();
+	}
+
+	@Test
+	public void testKnownAreaCodeLookedUpOnce() throws Exception {
+		CountingLoader loader = new CountingLoader("NY");
+
+		assertEquals("NY", AreaCodeCache.get(212, loader, NOW));
+		assertEquals("NY", AreaCodeCache.get(212, loader, NOW + 1));
+		assertEquals("A known area code should be remembered however old",
+				"NY", AreaCodeCache.get(212, loader, NOW + 100 * HOUR));
+		assertEquals(1, loader.loads);
+	}
+
+	@Test
+	public void testUnknownAreaCodeRememberedUntilExpired() throws Exception {
+		CountingLoader loader = new CountingLoader(null);
+
+		assertNull(AreaCodeCache.get(211, loader, NOW));
+		assertNull(AreaCodeCache.get(211, loader, NOW + HOUR - 1));
+		assertEquals("An unknown area code should be remembered for an hour", 1, loader.loads);
+
+		assertNull(AreaCodeCache.get(211, loader, NOW + HOUR));
+		assertEquals("An unknown area code should be looked up again after an hour", 2, loader.loads);
+
+		loader.state = "XX";
+		assertEquals("A newly opened area code should be picked up once the entry expires",
+				"XX", AreaCodeCache.get(211, loader, NOW + 2 * HOUR));
+		assertEquals(3, loader.loads);
+	}
+
+	@Test
+	public void testFailedLookupNotRemembered() throws Exception {
+		CountingLoader loader = new CountingLoader("NY");
+		loader.failure = new IOException("unreachable");
+		try {
+			AreaCodeCache.get(212, loader, NOW);
+			fail("The failure should be passed on");
+		} catch (IOException e) {
+			// Expected.
+		}
+
+		loader.failure = null;
+		assertEquals("NY", AreaCodeCache.get(212, loader, NOW + 1));
+		assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws Exception {
+		CountingLoader loader = new CountingLoader("XX");
+		int maxSize = (Integer) AreaCodeCache.getStats().get("maxSize");
+		long evictions = (Long) AreaCodeCache.getStats().get("evictions");
+
+		for (int npa = 0; npa < maxSize; npa++) {
+			AreaCodeCache.get(npa, loader, NOW);
+		}
+		// Use the eldest again, so that the second eldest is the least recently used.
+		AreaCodeCache.get(0, loader, NOW);
+		AreaCodeCache.get(maxSize, loader, NOW);
+
+		assertEquals(maxSize, AreaCodeCache.getStats().get("size"));
+		assertEquals(evictions + 1, AreaCodeCache.getStats().get("evictions"));
+		assertEquals(maxSize + 1, loader.loads);
+
+		AreaCodeCache.get(0, loader, NOW);
+		assertEquals("A recently used entry should be kept", maxSize + 1, loader.loads);
+		AreaCodeCache.get(1, loader, NOW);
+		assertEquals("The least recently used entry should have been dropped", maxSize + 2, loader.loads);
+	}
+
+	/**
+	 * <p>
+	 * Answers every lookup with the same state, or failure, and counts them.
+	 * </p>
+	 */
+	private static final class CountingLoader implements AreaCodeCache.Loader {
+		private String state;
+		private Exception failure;
+		private int loads;
+
+		private CountingLoader(String state) {
+			this.state = state;
+		}
+
+		@Override
+		public String load(int npa) throws Exception {
+			loads++;
+			if (failure != null) {
+				throw failure;
+			}
+			return state;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.contact;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests that the {@link AreaCodeDirectory} reads the area code of a phone
+ * number and the state it serves from the bundled table, and that a table
+ * that cannot be read on refresh leaves the one in use in place.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see AreaCodeDirectory
+ */
+public class AreaCodeDirectoryTest {
+
+	private File file;
+
+	@After
+	public void restoreBundledTable() throws IOException {
+		System.clearProperty("contacts.areacodes.file");
+		AreaCodeDirectory.refresh();
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testNpaOf() {
+		assertEquals(212, AreaCodeDirectory.npaOf("(212) 555-1234"));
+		assertEquals(907, AreaCodeDirectory.npaOf("(907)555-1234"));
+		assertEquals(-1, AreaCodeDirectory.npaOf("212 555-1234"));
+		assertEquals(-1, AreaCodeDirectory.npaOf("(2a2) 555-1234"));
+		assertEquals(-1, AreaCodeDirectory.npaOf("(21"));
+		assertEquals(-1, AreaCodeDirectory.npaOf(null));
+	}
+
+	@Test
+	public void testStateOfBundledTable() {
+		assertEquals("NY", AreaCodeDirectory.stateOf("(212) 555-1234"));
+		assertEquals("CA", AreaCodeDirectory.stateOf(213));
+		assertNull("211 is not an area code", AreaCodeDirectory.stateOf("(211) 555-1234"));
+		assertNull(AreaCodeDirectory.stateOf("555-1234"));
+		assertNull(AreaCodeDirectory.stateOf(-1));
+		assertNull(AreaCodeDirectory.stateOf(1000));
+		assertTrue((Integer) AreaCodeDirectory.getStats().get("areaCodes") > 300);
+	}
+
+	@Test
+	public void testRefreshFromFile() throws IOException {
+		useFile("# A comment\n\n212, XX\n 300,YY\n301,XX\n");
+
+		assertEquals(3, AreaCodeDirectory.refresh());
+		assertEquals("XX", AreaCodeDirectory.stateOf(212));
+		assertEquals("YY", AreaCodeDirectory.stateOf(300));
+		assertEquals("XX", AreaCodeDirectory.stateOf(301));
+		assertNull("An area code left out of the file should no longer be known", AreaCodeDirectory.stateOf(213));
+		assertEquals(file.getPath(), AreaCodeDirectory.getStats().get("source"));
+		assertEquals(2, AreaCodeDirectory.getStats().get("states"));
+	}
+
+	@Test
+	public void testBadFileKeepsTableInUse() throws IOException {
+		useFile("212,NY\n2l3,CA\n");
+		assertRefreshFails();
+		useFile("212,NY\n213\n");
+		assertRefreshFails();
+		useFile("212,NY\n199,XX\n");
+		assertRefreshFails();
+
+		file.delete();
+		assertRefreshFails();
+
+		assertEquals("NY", AreaCodeDirectory.stateOf(212));
+		assertEquals("The bundled table should still be in use", "CA", AreaCodeDirectory.stateOf(213));
+		assertEquals("classpath:/areacodes.csv", AreaCodeDirectory.getStats().get("source"));
+	}
+
+	private void assertRefreshFails() {
+		try {
+			AreaCodeDirectory.refresh();
+			fail("The table should not have been read");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+	private void useFile(String content) throws IOException {
+		if (file == null) {
+			file = File.createTempFile("areacodes", ".csv");
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		System.setProperty("contacts.areacodes.file", file.getPath());
+	}
+}
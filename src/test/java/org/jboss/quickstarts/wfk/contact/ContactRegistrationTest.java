@@ -34,6 +34,7 @@ import org.jboss.quickstarts.wfk.contact.ContactRepository;
 import org.jboss.quickstarts.wfk.contact.ContactRESTService;
 import org.jboss.quickstarts.wfk.contact.ContactService;
 import org.jboss.quickstarts.wfk.contact.ContactValidator;
+import org.jboss.quickstarts.wfk.util.HttpConnectionPool;
 import org.jboss.quickstarts.wfk.util.Resources;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -69,6 +70,7 @@ public class ContactRegistrationTest {
         //HttpComponents and org.JSON are required by ContactService
         File[] libs = Maven.resolver().loadPomFromFile("pom.xml").resolve(
                 "org.apache.httpcomponents:httpclient:4.3.2",
+                "org.apache.httpcomponents:httpasyncclient:4.0.1",
                 "org.json:json:20140107"
         ).withTransitivity().asFile();
 
@@ -79,8 +81,10 @@ public class ContactRegistrationTest {
                         ContactRepository.class, 
                         ContactValidator.class, 
                         ContactService.class, 
-                        Resources.class)
+                        AreaCodeDirectory.class, AreaCodeCache.class,
+                        Resources.class, HttpConnectionPool.class)
             .addAsLibraries(libs)
+            .addAsResource("areacodes.csv")
             .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
             .addAsWebInfResource("arquillian-ds.xml")
             .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
@@ -140,6 +144,20 @@ public class ContactRegistrationTest {
         log.info("Duplicate contact register attempt failed with return code " + response.getStatus());
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    @InSequence(4)
+    public void testUnknownAreaCode() throws Exception {
+        // 211 fits the pattern of a phone number but is not an area code.
+        Contact contact = createContactInstance("Jim", "Doe", "jim@mailinator.com", "(211) 555-1234", date);
+        Response response = contactRESTService.createContact(contact);
+
+        assertEquals("Unexpected response status", 400, response.getStatus());
+        assertEquals("Unknown area code in (211) 555-1234",
+            ((Map<String, String>) response.getEntity()).get("error"));
+        log.info("Contact with an unknown area code failed with return code " + response.getStatus());
+    }
+
     /**
      * <p>A utility method to construct a {@link org.jboss.quickstarts.wfk.contact.Contact Contact} object for use in
      * testing. This object is not persisted.</p>
@@ -31,6 +31,7 @@ import javax.ws.rs.core.Response;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
+import org.jboss.quickstarts.wfk.util.HttpConnectionPool;
 import org.jboss.quickstarts.wfk.util.Resources;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -66,6 +67,7 @@ public class AddCustomerTest {
         //HttpComponents and org.JSON are required by CustomerService
         File[] libs = Maven.resolver().loadPomFromFile("pom.xml").resolve(
                 "org.apache.httpcomponents:httpclient:4.3.2",
+                "org.apache.httpcomponents:httpasyncclient:4.0.1",
                 "org.json:json:20140107"
         ).withTransitivity().asFile();
 
@@ -76,7 +78,7 @@ public class AddCustomerTest {
                         CustomerRepository.class, 
                         CustomerValidator.class, 
                         CustomerService.class, 
-                        Resources.class)
+                        Resources.class, HttpConnectionPool.class)
             .addAsLibraries(libs)
             .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
             .addAsWebInfResource("arquillian-ds.xml")
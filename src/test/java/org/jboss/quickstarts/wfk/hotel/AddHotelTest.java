@@ -20,7 +20,12 @@ package org.jboss.quickstarts.wfk.hotel;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -31,6 +36,11 @@ import javax.ws.rs.core.Response;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
+import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.booking.BookingIndex;
+import org.jboss.quickstarts.wfk.booking.BookingLocks;
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.util.HttpConnectionPool;
 import org.jboss.quickstarts.wfk.util.Resources;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -66,6 +76,7 @@ public class AddHotelTest {
         //HttpComponents and org.JSON are required by ContactService
         File[] libs = Maven.resolver().loadPomFromFile("pom.xml").resolve(
                 "org.apache.httpcomponents:httpclient:4.3.2",
+                "org.apache.httpcomponents:httpasyncclient:4.0.1",
                 "org.json:json:20140107"
         ).withTransitivity().asFile();
 
@@ -76,7 +87,8 @@ public class AddHotelTest {
             			HotelRepository.class, 
             			HotelValidator.class, 
             			HotelService.class, 
-                        Resources.class)
+            			Booking.class, BookingIndex.class, BookingLocks.class, Customer.class,
+                        Resources.class, HttpConnectionPool.class)
             .addAsLibraries(libs)
             .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
             .addAsWebInfResource("arquillian-ds.xml")
@@ -88,6 +100,9 @@ public class AddHotelTest {
     @Inject
     HotelRESTService hotelRESTService;
     
+    @Inject
+    BookingIndex bookingIndex;
+
     @Inject
     @Named("logger") Logger log;
 
@@ -248,6 +263,128 @@ public class AddHotelTest {
     
     
 
+    @Test
+    @InSequence(12)
+    public void testAvailableLeavesOutBookedHotels() throws Exception {
+        Hotel first = createHotelInstance("Available Hotel A", "Z99 9ZZ", "01910501234");
+        Hotel second = createHotelInstance("Available Hotel B", "Z99 9ZZ", "01910501235");
+        Hotel third = createHotelInstance("Available Hotel C", "Z99 9ZZ", "01910501236");
+        for (Hotel hotel : new Hotel[] {first, second, third}) {
+            assertEquals("Unexpected response status", 201, hotelRESTService.createHotel(hotel).getStatus());
+        }
+
+        // The index is what the search reads, so the booking need not be persisted.
+        Booking booking = new Booking();
+        booking.setId(-second.getId());
+        booking.setHotel(second);
+        booking.setBookingDate(new SimpleDateFormat("yyyy-MM-dd").parse("2030-06-02"));
+        bookingIndex.booked(booking);
+        try {
+            assertEquals("Hotel B is booked on one of the dates",
+                    names(first, third), names(available("2030-06-01", "2030-06-03", "Z99 9ZZ", 0, 20)));
+            assertEquals("Hotel B is booked on the only date",
+                    names(first, third), names(available("2030-06-02", null, "Z99 9ZZ", 0, 20)));
+            assertEquals("Every hotel is free after the booking",
+                    names(first, second, third), names(available("2030-06-03", "2030-06-10", "Z99 9ZZ", 0, 20)));
+        } finally {
+            bookingIndex.cancelled(booking);
+        }
+        assertEquals("Every hotel is free once the booking is cancelled",
+                names(first, second, third), names(available("2030-06-01", "2030-06-03", "Z99 9ZZ", 0, 20)));
+    }
+
+    @Test
+    @InSequence(13)
+    public void testAvailableByPostcode() throws Exception {
+        Map<String, Object> page = available("2030-06-01", null, "Z99 9ZZ", 0, 20);
+        assertEquals(Arrays.asList("Available Hotel A", "Available Hotel B", "Available Hotel C"), names(page));
+
+        assertEquals("A postcode with no hotels should give an empty page",
+                new ArrayList<String>(), names(available("2030-06-01", null, "Z00 0ZZ", 0, 20)));
+
+        List<String> all = names(available("2030-06-01", null, null, 0, 100));
+        assertTrue("Without a postcode every free hotel should be returned",
+                all.containsAll(names(page)) && all.size() > names(page).size());
+    }
+
+    @Test
+    @InSequence(14)
+    public void testAvailablePaged() throws Exception {
+        Map<String, Object> page = available("2030-06-01", null, "Z99 9ZZ", 0, 2);
+        assertEquals(Arrays.asList("Available Hotel A", "Available Hotel B"), names(page));
+        assertEquals(0, page.get("offset"));
+        assertEquals(2, page.get("limit"));
+        assertEquals(true, page.get("more"));
+
+        page = available("2030-06-01", null, "Z99 9ZZ", 2, 2);
+        assertEquals(Arrays.asList("Available Hotel C"), names(page));
+        assertEquals(false, page.get("more"));
+
+        page = available("2030-06-01", null, "Z99 9ZZ", 0, 3);
+        assertEquals("A page holding exactly the last hotel has no more after it", false, page.get("more"));
+
+        page = available("2030-06-01", null, "Z99 9ZZ", 3, 2);
+        assertEquals(new ArrayList<String>(), names(page));
+        assertEquals(false, page.get("more"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    @InSequence(15)
+    public void testAvailableBadRequests() throws Exception {
+        String[][] requests = {
+            // from, to, offset, limit
+            {null, null, "0", "20"},
+            {"01/06/2030", null, "0", "20"},
+            {"2030-02-30", null, "0", "20"},
+            {"2030-06-01", "2030-13-01", "0", "20"},
+            {"2030-06-02", "2030-06-01", "0", "20"},
+            {"2030-06-01", null, "-1", "20"},
+            {"2030-06-01", null, "0", "0"},
+            {"2030-06-01", null, "0", "101"},
+        };
+        for (String[] request : requests) {
+            Response response = hotelRESTService.retrieveAvailableHotels(request[0], request[1], null,
+                    Integer.parseInt(request[2]), Integer.parseInt(request[3]));
+
+            assertEquals("Unexpected response status for " + Arrays.asList(request), 400, response.getStatus());
+            assertNotNull("Expected an error for " + Arrays.asList(request),
+                    ((Map<String, String>) response.getEntity()).get("error"));
+        }
+    }
+
+    /**
+     * <p>A utility method to search for the Hotels free from one date to another, expecting a 200 (ok).</p>
+     *
+     * @return The page of Hotels
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> available(String from, String to, String postcode, int offset, int limit) {
+        Response response = hotelRESTService.retrieveAvailableHotels(from, to, postcode, offset, limit);
+        assertEquals("Unexpected response status", 200, response.getStatus());
+        return (Map<String, Object>) response.getEntity();
+    }
+
+    /**
+     * <p>A utility method to list the names of the Hotels in a page, in order.</p>
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> names(Map<String, Object> page) {
+        List<String> names = new ArrayList<String>();
+        for (Hotel hotel : (List<Hotel>) page.get("hotels")) {
+            names.add(hotel.getName());
+        }
+        return names;
+    }
+
+    private List<String> names(Hotel... hotels) {
+        List<String> names = new ArrayList<String>();
+        for (Hotel hotel : hotels) {
+            names.add(hotel.getName());
+        }
+        return names;
+    }
+
     /**
      * <p>A utility method to construct a {@link org.jboss.quickstarts.wfk.hotel.Hotel Hotel} object for use in
      * testing. This object is not persisted.</p>
@@ -0,0 +1,59 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests that a {@link Bulkhead} rejects calls beyond its bound straight away,
+ * and takes them again once a place is given back.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see Bulkhead
+ */
+public class BulkheadTest {
+
+	@Test
+	public void testRejectsCallsBeyondBound() {
+		Bulkhead bulkhead = new Bulkhead(2);
+		assertTrue(bulkhead.tryAcquire());
+		assertTrue(bulkhead.tryAcquire());
+
+		assertFalse("A third call in flight should be rejected", bulkhead.tryAcquire());
+		assertEquals(2, bulkhead.getStats().get("inFlight"));
+		assertEquals(1L, bulkhead.getStats().get("rejected"));
+
+		bulkhead.release();
+		assertTrue("A place given back should be taken again", bulkhead.tryAcquire());
+		assertEquals(1L, bulkhead.getStats().get("rejected"));
+	}
+
+	@Test
+	public void testSharedPerHost() {
+		assertSame(Bulkhead.forHost("bulkhead.test"), Bulkhead.forHost("bulkhead.test"));
+		assertEquals(50, Bulkhead.forHost("bulkhead.test").getStats().get("maxConcurrent"));
+	}
+}
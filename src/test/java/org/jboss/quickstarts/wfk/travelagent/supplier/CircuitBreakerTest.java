@@ -0,0 +1,169 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests the state machine of the {@link CircuitBreaker}: opening on the
+ * failure or slow call rate once enough calls have been made, refusing calls
+ * while open, and the limited trial calls made once half open.
+ * </p>
+ *
+ * <p>
+ * Each test uses a breaker of its own with a window of 10 calls, opening at
+ * 50% after at least 4 calls, calls of 1 s or more counted as slow, an open
+ * interval of 100 ms and 2 trial calls.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see CircuitBreaker
+ */
+public class CircuitBreakerTest {
+
+	private static final long OPEN_DURATION = 100;
+
+	private static CircuitBreaker breaker() {
+		return new CircuitBreaker("test", 10, 4, 50, 50, 1000, OPEN_DURATION, 2);
+	}
+
+	@Test
+	public void testOpensOnFailureRate() {
+		CircuitBreaker breaker = breaker();
+		call(breaker, false, 10);
+		call(breaker, false, 10);
+		call(breaker, true, 10);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		call(breaker, true, 10);
+		assertEquals("Half of the calls failing should open the circuit", CircuitBreaker.State.OPEN,
+				breaker.getState());
+		assertFalse("An open circuit should refuse calls", breaker.allowRequest());
+		assertTrue(breaker.isRefusing());
+		assertEquals(1L, breaker.getStats().get("rejected"));
+	}
+
+	@Test
+	public void testStaysClosedBelowMinimumCalls() {
+		CircuitBreaker breaker = breaker();
+		call(breaker, true, 10);
+		call(breaker, true, 10);
+		call(breaker, true, 10);
+
+		assertEquals("Too few calls have been made to judge the host", CircuitBreaker.State.CLOSED,
+				breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void testOpensOnSlowCallRate() {
+		CircuitBreaker breaker = breaker();
+		call(breaker, false, 10);
+		call(breaker, false, 10);
+		call(breaker, false, 1000);
+		call(breaker, false, 2000);
+
+		assertEquals("Half of the calls being slow should open the circuit", CircuitBreaker.State.OPEN,
+				breaker.getState());
+	}
+
+	@Test
+	public void testOldOutcomesLeaveTheWindow() {
+		CircuitBreaker breaker = breaker();
+		for (int i = 0; i < 4; i++) {
+			call(breaker, false, 10);
+			call(breaker, false, 10);
+			call(breaker, true, 10);
+		}
+		assertEquals("A third of the calls failing should not open the circuit", CircuitBreaker.State.CLOSED,
+				breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenAfterOpenInterval() throws Exception {
+		CircuitBreaker breaker = opened();
+		assertFalse(breaker.allowRequest());
+
+		Thread.sleep(OPEN_DURATION + 50);
+		assertFalse("The circuit should stop refusing once the interval is over", breaker.isRefusing());
+		assertTrue("A trial call should be let through", breaker.allowRequest());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenLimitsTrialCalls() throws Exception {
+		CircuitBreaker breaker = opened();
+		Thread.sleep(OPEN_DURATION + 50);
+
+		assertTrue(breaker.allowRequest());
+		assertTrue(breaker.allowRequest());
+		assertFalse("Only two trial calls should be let through", breaker.allowRequest());
+
+		breaker.cancelled();
+		assertTrue("A trial call abandoned should give back its place", breaker.allowRequest());
+
+		breaker.record(false, 10);
+		breaker.record(false, 10);
+		assertEquals("Every trial call succeeding should close the circuit", CircuitBreaker.State.CLOSED,
+				breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void testHalfOpenReopensOnFailedTrial() throws Exception {
+		CircuitBreaker breaker = opened();
+		Thread.sleep(OPEN_DURATION + 50);
+
+		assertTrue(breaker.allowRequest());
+		breaker.record(true, 10);
+		assertEquals("A failed trial call should open the circuit again", CircuitBreaker.State.OPEN,
+				breaker.getState());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void testHalfOpenReopensOnSlowTrial() throws Exception {
+		CircuitBreaker breaker = opened();
+		Thread.sleep(OPEN_DURATION + 50);
+
+		assertTrue(breaker.allowRequest());
+		breaker.record(false, 1500);
+		assertEquals("A slow trial call should open the circuit again", CircuitBreaker.State.OPEN,
+				breaker.getState());
+	}
+
+	private static CircuitBreaker opened() {
+		CircuitBreaker breaker = breaker();
+		for (int i = 0; i < 4; i++) {
+			call(breaker, true, 10);
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		return breaker;
+	}
+
+	private static void call(CircuitBreaker breaker, boolean failure, long duration) {
+		assertTrue(breaker.allowRequest());
+		breaker.record(failure, duration);
+	}
+}
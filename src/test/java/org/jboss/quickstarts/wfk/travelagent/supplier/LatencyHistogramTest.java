@@ -0,0 +1,104 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests the bucketing of the {@link LatencyHistogram}: that every value falls
+ * in a bucket whose top is within about 3% above it, and that percentiles are
+ * read off as the top of the right bucket.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see LatencyHistogram
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void testSmallValuesHaveBucketEach() {
+		for (long value = 0; value < 64; value++) {
+			assertEquals(value, LatencyHistogram.index(value));
+			assertEquals(value, LatencyHistogram.highestIn((int) value));
+		}
+	}
+
+	@Test
+	public void testBucketsCoverEveryValueTightly() {
+		int last = -1;
+		for (long value = 0; value < LatencyHistogram.MAX_VALUE; value += Math.max(1, value / 97)) {
+			int index = LatencyHistogram.index(value);
+			assertTrue("Buckets should not go backwards at " + value, index >= last);
+			last = index;
+
+			long top = LatencyHistogram.highestIn(index);
+			assertTrue("The bucket of " + value + " should reach it", top >= value);
+			if (index > 0) {
+				assertTrue("The bucket below " + value + " should not reach it",
+						LatencyHistogram.highestIn(index - 1) < value);
+			}
+			assertTrue("The bucket of " + value + " should be within 1/32 of it", top - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void testBucketEdges() {
+		// 64 to 127 are counted two to a bucket, 128 to 255 four to a bucket.
+		assertEquals(LatencyHistogram.index(64), LatencyHistogram.index(65));
+		assertEquals(LatencyHistogram.index(64) + 1, LatencyHistogram.index(66));
+		assertEquals(65, LatencyHistogram.highestIn(LatencyHistogram.index(64)));
+		assertEquals(127, LatencyHistogram.highestIn(LatencyHistogram.index(127)));
+		assertEquals(131, LatencyHistogram.highestIn(LatencyHistogram.index(128)));
+		assertEquals(LatencyHistogram.MAX_VALUE,
+				LatencyHistogram.highestIn(LatencyHistogram.index(LatencyHistogram.MAX_VALUE)));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals("An empty histogram should read 0", 0, histogram.getValueAtPercentile(50));
+
+		for (long value = 1; value <= 100; value++) {
+			histogram.record(value);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(50.5, histogram.getMean(), 0.001);
+		assertEquals(100, histogram.getMax());
+		assertEquals(1, histogram.getValueAtPercentile(0));
+		assertEquals(50, histogram.getValueAtPercentile(50));
+		assertEquals("The top of the bucket holding 90 and 91", 91, histogram.getValueAtPercentile(90));
+		assertEquals(99, histogram.getValueAtPercentile(99));
+		assertEquals("No percentile should read above the largest value", 100, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testOutOfRangeValuesClamped() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+
+		assertEquals(0, histogram.getValueAtPercentile(50));
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests the {@link RequestHedger}: the delay before a call is hedged is the
+ * chosen percentile of the recent latencies, hedges are limited by a token
+ * bucket, and the attempt that loses the race is cancelled.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see RequestHedger
+ */
+public class RequestHedgerTest {
+
+	private ScheduledExecutorService timer;
+
+	@Before
+	public void setUp() {
+		timer = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		timer.shutdownNow();
+	}
+
+	@Test
+	public void testDelayIsPercentileOfLatencies() {
+		RequestHedger hedger = new RequestHedger(true, 95, 0.1, timer);
+		for (long latency = 1; latency < 50; latency++) {
+			hedger.recordLatency(latency);
+		}
+		assertEquals("No call should be hedged before enough have been seen", -1, hedger.hedgeDelay());
+
+		for (long latency = 50; latency <= 100; latency++) {
+			hedger.recordLatency(latency);
+		}
+		assertEquals("The delay should be the 95th percentile of 1 to 100 ms", 96, hedger.hedgeDelay());
+	}
+
+	@Test
+	public void testDisabledNeverHedges() {
+		RequestHedger hedger = new RequestHedger(false, 95, 0.1, timer);
+		for (int i = 0; i < 100; i++) {
+			hedger.recordLatency(10);
+		}
+		assertEquals(-1, hedger.hedgeDelay());
+	}
+
+	@Test
+	public void testHedgesLimitedByTokenBucket() {
+		RequestHedger hedger = new RequestHedger(true, 95, 0.1, timer);
+		for (int i = 0; i < 10; i++) {
+			assertTrue("The saved up hedges should be allowed", hedger.tryHedge());
+		}
+		assertFalse("No hedge should be allowed once the bucket is empty", hedger.tryHedge());
+
+		for (int i = 0; i < 100; i++) {
+			hedger.recordLatency(10);
+		}
+		// Each call adds a tenth of a token, so ten calls earn one hedge; one
+		// more is made as ten tenths fall just short of 1 in floating point.
+		for (int i = 0; i < 11; i++) {
+			hedger.hedgeDelay();
+		}
+		assertTrue(hedger.tryHedge());
+		assertFalse(hedger.tryHedge());
+
+		// However long calls stay quick, no more than ten hedges are saved up.
+		for (int i = 0; i < 1000; i++) {
+			hedger.hedgeDelay();
+		}
+		for (int i = 0; i < 10; i++) {
+			assertTrue(hedger.tryHedge());
+		}
+		assertFalse(hedger.tryHedge());
+	}
+
+	@Test
+	public void testHedgeWinsAndSlowAttemptCancelled() throws Exception {
+		RequestHedger hedger = new RequestHedger(true, 95, 0.1, timer);
+		for (int i = 0; i < 100; i++) {
+			hedger.recordLatency(5);
+		}
+		final List<BasicFuture<String>> attempts = new ArrayList<BasicFuture<String>>();
+
+		Future<String> result = hedger.get(new RequestHedger.Attempt<String>() {
+			@Override
+			public Future<String> start(FutureCallback<String> callback) {
+				BasicFuture<String> attempt = new BasicFuture<String>(callback);
+				synchronized (attempts) {
+					attempts.add(attempt);
+					if (attempts.size() == 2) {
+						// The hedge answers straight away; the first attempt never does.
+						attempt.completed("hedge");
+					}
+				}
+				return attempt;
+			}
+		}, null);
+
+		assertEquals("hedge", result.get(5, TimeUnit.SECONDS));
+		assertEquals("A hedge should have been sent", 2, attempts.size());
+		// The result is given out before the loser is cancelled, on the timer's thread.
+		for (int i = 0; i < 50 && !attempts.get(0).isDone(); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue("The slow attempt should be cancelled", attempts.get(0).isCancelled());
+		assertEquals(1L, hedger.getStats().get("hedged"));
+		assertEquals(1L, hedger.getStats().get("hedgeWins"));
+	}
+
+	@Test
+	public void testQuickAnswerNotHedged() throws Exception {
+		RequestHedger hedger = new RequestHedger(true, 95, 0.1, timer);
+		for (int i = 0; i < 100; i++) {
+			hedger.recordLatency(50);
+		}
+		final List<BasicFuture<String>> attempts = new ArrayList<BasicFuture<String>>();
+
+		Future<String> result = hedger.get(new RequestHedger.Attempt<String>() {
+			@Override
+			public Future<String> start(FutureCallback<String> callback) {
+				BasicFuture<String> attempt = new BasicFuture<String>(callback);
+				synchronized (attempts) {
+					attempts.add(attempt);
+				}
+				attempt.completed("first");
+				return attempt;
+			}
+		}, null);
+
+		assertEquals("first", result.get(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals("A call answered in time should not be hedged", 1, attempts.size());
+		assertEquals(0L, hedger.getStats().get("hedged"));
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests that {@link SingleFlight} collapses concurrent lookups of a key into
+ * one call and hands its result, or its failure, to every caller waiting on
+ * it.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SingleFlight
+ */
+public class SingleFlightTest {
+
+	@Test
+	public void testConcurrentLookupsShareOneCall() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		SupplierCacheTest.StubLoader loader = new SupplierCacheTest.StubLoader();
+
+		List<Future<String>> waiters = new ArrayList<Future<String>>();
+		for (int i = 0; i < 5; i++) {
+			waiters.add(singleFlight.get("key", null, loader, null));
+		}
+		Future<String> other = singleFlight.get("other", null, loader, null);
+		assertEquals("Only one call should be made per key", 2, loader.loads());
+
+		loader.answer("value");
+		for (Future<String> waiter : waiters) {
+			assertEquals("value", waiter.get(1, TimeUnit.SECONDS));
+		}
+		assertEquals("value", other.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testFailureIsPassedToEveryWaiter() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		SupplierCacheTest.StubLoader loader = new SupplierCacheTest.StubLoader();
+		final List<Exception> notified = new ArrayList<Exception>();
+		FutureCallback<String> callback = new FutureCallback<String>() {
+			@Override
+			public void completed(String result) {
+			}
+
+			@Override
+			public void failed(Exception e) {
+				notified.add(e);
+			}
+
+			@Override
+			public void cancelled() {
+			}
+		};
+
+		List<Future<String>> waiters = new ArrayList<Future<String>>();
+		waiters.add(singleFlight.get("key", null, loader, callback));
+		waiters.add(singleFlight.get("key", null, loader, callback));
+		Exception failure = new Exception("Supplier down");
+		loader.fail(failure);
+
+		for (Future<String> waiter : waiters) {
+			try {
+				waiter.get(1, TimeUnit.SECONDS);
+				fail("The failure should be passed to every waiter");
+			} catch (ExecutionException e) {
+				assertSame(failure, e.getCause());
+			}
+		}
+		assertEquals("Every callback should be told of the failure", 2, notified.size());
+	}
+
+	@Test
+	public void testKeyIsReleasedOnceAnswered() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		SupplierCacheTest.StubLoader loader = new SupplierCacheTest.StubLoader();
+		singleFlight.get("key", null, loader, null);
+		loader.fail(new Exception("Supplier down"));
+
+		Future<String> retry = singleFlight.get("key", "held", loader, null);
+		assertFalse(retry.isDone());
+		assertEquals("A lookup after the call has answered should make a new call", 2, loader.loads());
+		assertEquals("The new call should be given the value held", "held", loader.current());
+		loader.answer("value");
+		assertEquals("value", retry.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testLoaderThrowingReleasesWaiters() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+		Future<String> future = singleFlight.get("key", null, new SupplierCache.Loader<String>() {
+			@Override
+			public Future<String> load(String current, FutureCallback<String> callback) {
+				throw new IllegalStateException("No endpoint");
+			}
+		}, null);
+
+		assertTrue(future.isDone());
+		try {
+			future.get();
+			fail("The exception thrown by the loader should fail the lookup");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests the TTL, stale-while-revalidate, stale limit and size bound of the
+ * {@link SupplierCache}, against a loader that stands in for the supplier and
+ * answers when the test tells it to.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierCache
+ */
+public class SupplierCacheTest {
+
+	@Test
+	public void testFreshEntryIsServedFromMemory() throws Exception {
+		SupplierCache<String, String> cache = new SupplierCache<String, String>("test", 10, 60000, 60000);
+		StubLoader loader = new StubLoader();
+
+		Future<String> miss = cache.get("key", loader, null);
+		loader.answer("v1");
+		assertEquals("v1", miss.get(1, TimeUnit.SECONDS));
+
+		Future<String> hit = cache.get("key", loader, null);
+		assertTrue("A fresh entry should be served straight away", hit.isDone());
+		assertEquals("v1", hit.get());
+		assertEquals("A fresh entry should not be loaded again", 1, loader.loads());
+	}
+
+	@Test
+	public void testStaleEntryIsServedWhileOneRefreshRuns() throws Exception {
+		SupplierCache<String, String> cache = new SupplierCache<String, String>("test", 10, 50, 60000);
+		StubLoader loader = new StubLoader();
+		cache.get("key", loader, null);
+		loader.answer("v1");
+		Thread.sleep(100);
+
+		Future<String> stale = cache.get("key", loader, null);
+		assertTrue("A stale entry should be served straight away", stale.isDone());
+		assertEquals("v1", stale.get());
+		assertEquals("A stale entry should be refreshed", 2, loader.loads());
+		assertEquals("The refresh should be given the value held", "v1", loader.current());
+
+		Future<String> again = cache.get("key", loader, null);
+		assertEquals("v1", again.get());
+		assertEquals("Only one refresh should run at a time", 2, loader.loads());
+
+		loader.answer("v2");
+		assertEquals("The refreshed value should replace the stale one", "v2",
+				cache.get("key", loader, null).get());
+	}
+
+	@Test
+	public void testFailedRefreshKeepsServingStaleEntry() throws Exception {
+		SupplierCache<String, String> cache = new SupplierCache<String, String>("test", 10, 50, 60000);
+		StubLoader loader = new StubLoader();
+		cache.get("key", loader, null);
+		loader.answer("v1");
+		Thread.sleep(100);
+
+		cache.get("key", loader, null);
+		loader.fail(new Exception("Supplier down"));
+
+		assertEquals("v1", cache.get("key", loader, null).get());
+		assertEquals("The next read after a failed refresh should try again", 3, loader.loads());
+	}
+
+	@Test
+	public void testEntryPastStaleLimitWaitsOnSupplier() throws Exception {
+		SupplierCache<String, String> cache = new SupplierCache<String, String>("test", 10, 20, 30);
+		StubLoader loader = new StubLoader();
+		cache.get("key", loader, null);
+		loader.answer("v1");
+		Thread.sleep(100);
+
+		Future<String> expired = cache.get("key", loader, null);
+		assertFalse("An entry past the stale limit should not be served", expired.isDone());
+		assertEquals("It should still be revalidated with the value held", "v1", loader.current());
+
+		loader.answer("v2");
+		assertEquals("v2", expired.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testExpiredEntryIsLoadedOutsideLock() throws Exception {
+		final SupplierCache<String, String> cache = new SupplierCache<String, String>("test", 10, 20, 30);
+		StubLoader loader = new StubLoader();
+		cache.get("key", loader, null);
+		loader.answer("v1");
+		Thread.sleep(100);
+
+		final boolean[] unblocked = new boolean[1];
+		Future<String> expired = cache.get("key", new SupplierCache.Loader<String>() {
+			@Override
+			public Future<String> load(String current, FutureCallback<String> callback) {
+				// Another thread should be able to use the cache while the supplier is called.
+				Thread other = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						cache.clear();
+					}
+				});
+				other.start();
+				try {
+					other.join(1000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				unblocked[0] = !other.isAlive();
+				callback.completed("v2");
+				return new BasicFuture<String>(null);
+			}
+		}, null);
+
+		assertTrue("The cache should not be locked while the supplier is called", unblocked[0]);
+		assertEquals("v2", expired.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsDropped() throws Exception {
+		SupplierCache<String, String> cache = new SupplierCache<String, String>("test", 2, 60000, 60000);
+		StubLoader loader = new StubLoader();
+		cache.get("a", loader, null);
+		loader.answer("a1");
+		cache.get("b", loader, null);
+		loader.answer("b1");
+		cache.get("a", loader, null);
+		cache.get("c", loader, null);
+		loader.answer("c1");
+		assertEquals(3, loader.loads());
+
+		assertTrue("A recently used entry should be kept", cache.get("a", loader, null).isDone());
+		assertEquals(3, loader.loads());
+		Future<String> dropped = cache.get("b", loader, null);
+		assertFalse("The least recently used entry should have been dropped", dropped.isDone());
+		assertNull("A dropped entry should be loaded afresh", loader.current());
+		assertEquals(4, loader.loads());
+	}
+
+	/**
+	 * <p>
+	 * Stands in for the supplier, holding each load until the test answers it.
+	 * </p>
+	 */
+	static class StubLoader implements SupplierCache.Loader<String> {
+		private final List<String> currents = new ArrayList<String>();
+		private final List<FutureCallback<String>> pending = new ArrayList<FutureCallback<String>>();
+
+		@Override
+		public synchronized Future<String> load(String current, FutureCallback<String> callback) {
+			currents.add(current);
+			pending.add(callback);
+			return new BasicFuture<String>(null);
+		}
+
+		synchronized int loads() {
+			return currents.size();
+		}
+
+		synchronized String current() {
+			return currents.get(currents.size() - 1);
+		}
+
+		void answer(String value) {
+			for (FutureCallback<String> callback : take()) {
+				callback.completed(value);
+			}
+		}
+
+		void fail(Exception e) {
+			for (FutureCallback<String> callback : take()) {
+				callback.failed(e);
+			}
+		}
+
+		private synchronized List<FutureCallback<String>> take() {
+			List<FutureCallback<String>> taken = new ArrayList<FutureCallback<String>>(pending);
+			pending.clear();
+			return taken;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests how {@link SupplierClient} reads a supplier's answer to a GET that
+ * may have been made conditional on the copy already held.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierClient#getPayload
+ */
+public class SupplierClientTest {
+
+	@Test
+	public void testNotModifiedReusesCachedPayload() throws Exception {
+		SupplierPayload current = new SupplierPayload("[]".getBytes("UTF-8"), null, "\"v1\"", null);
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 304, "Not Modified");
+
+		assertSame("A 304 should give back the copy held", current, SupplierClient.payload(response, current));
+	}
+
+	@Test
+	public void testNotModifiedWithoutValidatorsIsAnError() throws Exception {
+		SupplierPayload current = new SupplierPayload("[]".getBytes("UTF-8"), null);
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 304, "Not Modified");
+
+		try {
+			SupplierClient.payload(response, current);
+			fail("A 304 to a GET that was not conditional should not be taken as the copy held");
+		} catch (SupplierException e) {
+			assertEquals(304, e.getStatusCode());
+		}
+	}
+
+	@Test
+	public void testChangedResourceReplacesCachedPayload() throws Exception {
+		SupplierPayload current = new SupplierPayload("[]".getBytes("UTF-8"), null, "\"v1\"", null);
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		response.setHeader(HttpHeaders.ETAG, "\"v2\"");
+		response.setHeader(HttpHeaders.LAST_MODIFIED, "Sat, 17 Oct 2026 10:00:00 GMT");
+		response.setEntity(new StringEntity("[{\"id\":1}]", ContentType.APPLICATION_JSON));
+
+		SupplierPayload payload = SupplierClient.payload(response, current);
+		assertEquals("[{\"id\":1}]", new String(payload.getBody(), "UTF-8"));
+		assertEquals("\"v2\"", payload.getETag());
+		assertEquals("Sat, 17 Oct 2026 10:00:00 GMT", payload.getLastModified());
+	}
+
+	@Test
+	public void testResourceWithoutValidators() throws Exception {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		response.setEntity(new StringEntity("[]", ContentType.APPLICATION_JSON));
+
+		SupplierPayload payload = SupplierClient.payload(response, null);
+		assertNull(payload.getETag());
+		assertNull(payload.getLastModified());
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests that a {@link SupplierEndpoint} only takes in URIs at its own scheme,
+ * host and port, under its base path matched whole segments at a time.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierEndpoint
+ */
+public class SupplierEndpointTest {
+
+	@Test
+	public void testContainsPathsBelowBase() {
+		SupplierEndpoint endpoint = new SupplierEndpoint(URI.create("http://a.example.com/api"), 1);
+
+		assertTrue(endpoint.contains(URI.create("http://a.example.com/api")));
+		assertTrue(endpoint.contains(URI.create("http://a.example.com/api/")));
+		assertTrue(endpoint.contains(URI.create("http://a.example.com/api/rest/bookings?id=1")));
+		assertTrue("The host should be matched without regard to case",
+				endpoint.contains(URI.create("http://A.Example.com/api/rest")));
+		assertFalse("A path sharing a prefix but not a segment is not at the endpoint",
+				endpoint.contains(URI.create("http://a.example.com/api2/rest")));
+		assertFalse(endpoint.contains(URI.create("http://a.example.com/")));
+	}
+
+	@Test
+	public void testMatchesSchemeHostAndPort() {
+		SupplierEndpoint endpoint = new SupplierEndpoint(URI.create("http://a.example.com"), 1);
+
+		assertTrue(endpoint.contains(URI.create("http://a.example.com/rest/hotels")));
+		assertTrue("The default port should match an explicit one",
+				endpoint.contains(URI.create("http://a.example.com:80/rest/hotels")));
+		assertFalse(endpoint.contains(URI.create("http://a.example.com:8080/rest/hotels")));
+		assertFalse(endpoint.contains(URI.create("https://a.example.com/rest/hotels")));
+		assertFalse("A host sharing a prefix is a different host",
+				endpoint.contains(URI.create("http://a.example.com.evil.net/rest/hotels")));
+	}
+
+	@Test
+	public void testUriUnderBasePath() {
+		SupplierEndpoint endpoint = new SupplierEndpoint(URI.create("http://a.example.com/stub/hotel/"), 1);
+
+		assertEquals(URI.create("http://a.example.com/stub/hotel/rest/bookings"), endpoint.uri("/rest/bookings"));
+		assertTrue(endpoint.contains(endpoint.uri("/")));
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests that the {@link SupplierMetrics} count every call, including the
+ * rate per second when calls from many threads complete at once.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SupplierMetrics
+ */
+public class SupplierMetricsTest {
+
+	@Test
+	public void testCountsCallsAndErrors() {
+		SupplierMetrics metrics = SupplierMetrics.forOperation("test", "counts");
+		long first = metrics.start();
+		long second = metrics.start();
+		assertEquals(2, metrics.getInFlight());
+
+		metrics.stop(first, false);
+		metrics.stop(second, true);
+		metrics.rejected();
+
+		assertEquals(0, metrics.getInFlight());
+		assertEquals(2, metrics.getCalls());
+		assertEquals(1, metrics.getErrors());
+		assertEquals(1, metrics.getRejected());
+		assertEquals(2.0 / 60, metrics.getCallsPerSecond(), 0.0001);
+	}
+
+	@Test
+	public void testNoCallLostToRateWindow() throws Exception {
+		final SupplierMetrics metrics = SupplierMetrics.forOperation("test", "concurrent");
+		final int threads = 8;
+		final int calls = 20000;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> done = new ArrayList<Future<?>>();
+			for (int t = 0; t < threads; t++) {
+				done.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						for (int i = 0; i < calls; i++) {
+							metrics.stop(metrics.start(), false);
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : done) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(threads * calls, metrics.getCalls());
+		assertEquals("Every call should be counted in the rate, whichever second it fell in",
+				(double) threads * calls / 60, metrics.getCallsPerSecond(), 0.0001);
+	}
+}
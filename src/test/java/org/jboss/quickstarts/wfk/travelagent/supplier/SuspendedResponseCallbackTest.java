@@ -0,0 +1,59 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.supplier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+import org.jboss.quickstarts.wfk.util.DeadlineExceededException;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests that a failed call to a supplier is answered with a status that
+ * tells a missing resource from a supplier that is down or misbehaving.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SuspendedResponseCallback
+ */
+public class SuspendedResponseCallbackTest {
+
+	@Test
+	public void testNotFoundOnlyWhenSupplierSaysSo() {
+		assertEquals(404, SuspendedResponseCallback.statusOf(new SupplierException("Not found", 404)));
+		assertEquals(502, SuspendedResponseCallback.statusOf(new SupplierException("Server error", 500)));
+		assertEquals(502, SuspendedResponseCallback.statusOf(new SupplierException("Bad request", 400)));
+		assertEquals(503, SuspendedResponseCallback.statusOf(new SupplierException("Unavailable", 503)));
+	}
+
+	@Test
+	public void testSupplierDown() {
+		assertEquals(503, SuspendedResponseCallback.statusOf(new ConnectException("Connection refused")));
+		assertEquals(503, SuspendedResponseCallback.statusOf(new IOException("Connection reset")));
+		assertEquals(504, SuspendedResponseCallback.statusOf(new DeadlineExceededException("Out of time")));
+	}
+
+	@Test
+	public void testUnreadableAnswer() {
+		assertEquals(502, SuspendedResponseCallback.statusOf(new IllegalStateException("Not JSON")));
+	}
+}
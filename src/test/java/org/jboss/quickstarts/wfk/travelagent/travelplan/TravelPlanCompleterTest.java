@@ -0,0 +1,65 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelagent.travelplan;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.ConnectionClosedException;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierException;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRejectedException;
+import org.jboss.quickstarts.wfk.util.DeadlineExceededException;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests how the {@link TravelPlanCompleter} settles a booking call that
+ * failed: FAILED only when the supplier cannot have made the booking, and
+ * UNKNOWN, to be reconciled, whenever it may have.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see TravelPlanCompleter
+ */
+public class TravelPlanCompleterTest {
+
+	@Test
+	public void testFailedWhenNothingWasBooked() {
+		assertEquals("A call refused before it was sent books nothing", OutboxMessage.Status.FAILED,
+				TravelPlanCompleter.outcomeOf(new SupplierRejectedException("The circuit is open")));
+		assertEquals("A call out of time before it was sent books nothing", OutboxMessage.Status.FAILED,
+				TravelPlanCompleter.outcomeOf(new DeadlineExceededException("Out of time")));
+		assertEquals("A connection never made books nothing", OutboxMessage.Status.FAILED,
+				TravelPlanCompleter.outcomeOf(new ConnectException("Connection refused")));
+		assertEquals("A supplier answering with an error booked nothing", OutboxMessage.Status.FAILED,
+				TravelPlanCompleter.outcomeOf(new SupplierException("Supplier responded 409", 409)));
+	}
+
+	@Test
+	public void testUnknownWhenTheSupplierMayHaveBooked() {
+		assertEquals("A call timed out waiting on the answer may have booked", OutboxMessage.Status.UNKNOWN,
+				TravelPlanCompleter.outcomeOf(new SocketTimeoutException("Read timed out")));
+		assertEquals("A connection closed before the answer may have booked", OutboxMessage.Status.UNKNOWN,
+				TravelPlanCompleter.outcomeOf(new ConnectionClosedException("Connection closed")));
+		assertEquals(OutboxMessage.Status.UNKNOWN, TravelPlanCompleter.outcomeOf(new IOException("Broken pipe")));
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelplan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.ws.rs.core.Response;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.quickstarts.wfk.JaxRsActivator;
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.customer.CustomerRESTService;
+import org.jboss.quickstarts.wfk.customer.CustomerRepository;
+import org.jboss.quickstarts.wfk.customer.CustomerService;
+import org.jboss.quickstarts.wfk.customer.CustomerValidator;
+import org.jboss.quickstarts.wfk.travelagent.stub.StubSupplierRESTService;
+import org.jboss.quickstarts.wfk.travelagent.supplier.Bulkhead;
+import org.jboss.quickstarts.wfk.travelagent.supplier.CircuitBreaker;
+import org.jboss.quickstarts.wfk.travelagent.supplier.LatencyHistogram;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierClient;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierEndpoint;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierException;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierMetrics;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierMetricsMXBean;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierPayload;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRegistry;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRejectedException;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.OutboxMessage;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.SagaCompensator;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.SagaLog;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.SagaStep;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlan;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanBooker;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanCompleter;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanOutbox;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanRESTService;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanRepository;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanService;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanValidator;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelSketch;
+import org.jboss.quickstarts.wfk.util.Deadline;
+import org.jboss.quickstarts.wfk.util.DeadlineExceededException;
+import org.jboss.quickstarts.wfk.util.HttpConnectionPool;
+import org.jboss.quickstarts.wfk.util.IdempotencyStore;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.jboss.quickstarts.wfk.util.Resources;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * <p>
+ * Tests, run with {@link org.jboss.arquillian Arquillian}, that the
+ * {@link SagaCompensator} cancels bookings whose outcome was lost, against the
+ * {@link StubSupplierRESTService stub supplier} deployed with the tests.
+ * </p>
+ *
+ * <p>
+ * The suppliers are pointed at the stub before any of them is first used in
+ * this deployment, at the default port of the server. The hotel and flight
+ * suppliers are registered as honouring the Idempotency-Key and the taxi
+ * supplier as not.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see SagaCompensator
+ */
+@RunWith(Arquillian.class)
+public class SagaCompensatorTest {
+
+	private static final String STUB = "http://localhost:8080/test/rest/stub/";
+
+	private static final String[] PROPERTIES = { "travel.supplier.stub.enabled",
+			"travel.supplier.hotel.urls", "travel.supplier.flight.urls",
+			"travel.supplier.taxi.urls", "travel.supplier.hotel.idempotent",
+			"travel.supplier.flight.idempotent",
+			"travel.supplier.taxi.idempotent" };
+
+	static {
+		System.setProperty("travel.supplier.stub.enabled", "true");
+		System.setProperty("travel.supplier.hotel.urls", STUB + "hotel");
+		System.setProperty("travel.supplier.flight.urls", STUB + "flight");
+		System.setProperty("travel.supplier.taxi.urls", STUB + "taxi");
+		System.setProperty("travel.supplier.hotel.idempotent", "true");
+		System.setProperty("travel.supplier.flight.idempotent", "true");
+		System.setProperty("travel.supplier.taxi.idempotent", "false");
+	}
+
+	/**
+	 * <p>
+	 * Compiles an Archive using Shrinkwrap, containing those external
+	 * dependencies necessary to run the tests.
+	 * </p>
+	 *
+	 * @return Micro test war to be deployed and executed.
+	 */
+	@Deployment
+	public static Archive<?> createTestArchive() {
+		// HttpComponents and org.JSON are required by TravelPlanService
+		File[] libs = Maven
+				.resolver()
+				.loadPomFromFile("pom.xml")
+				.resolve("org.apache.httpcomponents:httpclient:4.3.2",
+						"org.apache.httpcomponents:httpasyncclient:4.0.1",
+						"org.json:json:20140107").withTransitivity().asFile();
+
+		Archive<?> archive = ShrinkWrap
+				.create(WebArchive.class, "test.war")
+				.addClasses(TravelPlan.class, TravelPlanRESTService.class,
+						TravelPlanRepository.class, TravelPlanValidator.class,
+						TravelPlanService.class, TravelPlanBooker.class,
+						TravelPlanCompleter.class, TravelSketch.class,
+						TravelPlanOutbox.class, OutboxMessage.class,
+						SagaStep.class, SagaLog.class, SagaCompensator.class,
+						SupplierClient.class, SupplierException.class,
+						SupplierPayload.class, SupplierRejectedException.class,
+						CircuitBreaker.class, Bulkhead.class,
+						SupplierRegistry.class, SupplierEndpoint.class,
+						SupplierMetrics.class, SupplierMetricsMXBean.class,
+						LatencyHistogram.class,
+						StubSupplierRESTService.class, JaxRsActivator.class,
+						Customer.class, CustomerRESTService.class,
+						CustomerRepository.class, CustomerValidator.class,
+						CustomerService.class, Resources.class, HttpConnectionPool.class,
+						IdempotencyStore.class, JacksonConfig.class,
+						Deadline.class, DeadlineExceededException.class)
+				.addAsLibraries(libs)
+				.addAsResource("META-INF/test-persistence.xml",
+						"META-INF/persistence.xml")
+				.addAsWebInfResource("arquillian-ds.xml")
+				.addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml");
+
+		return archive;
+	}
+
+	@Inject
+	CustomerRESTService customerRESTService;
+
+	@Inject
+	TravelPlanOutbox outbox;
+
+	@Inject
+	SagaCompensator sagaCompensator;
+
+	@Inject
+	EntityManager em;
+
+	@Inject
+	private @Named("httpClient") CloseableHttpClient httpClient;
+
+	@After
+	public void tearDown() {
+		// Deployments that follow should call the suppliers they are given.
+		for (String property : PROPERTIES) {
+			System.clearProperty(property);
+		}
+	}
+
+	@Test
+	public void testLostDispatchIsReconciled() throws Exception {
+		TravelSketch ts1 = new TravelSketch();
+		ts1.setFlightId(1L);
+		ts1.setHotelId(1L);
+		ts1.setTaxiId(1L);
+		ts1.setBookingDate("2030-03-30");
+		ts1.setCustomerId(createTestCustomer());
+		TravelPlan travelPlan = new TravelPlan();
+		Customer customer = new Customer();
+		customer.setId(ts1.getCustomerId());
+		travelPlan.setCustomer(customer);
+
+		// Claim the messages as a dispatch would, then lose them as if the
+		// server had stopped before the suppliers answered.
+		TravelPlan created = outbox.enqueue(travelPlan, ts1);
+		List<OutboxMessage> claimed = outbox.claim(created.getId());
+		assertEquals("Every leg should be claimed", 3, claimed.size());
+		outbox.reconcileLost(new Date(System.currentTimeMillis() + 1000));
+
+		TravelPlan settled = em.find(TravelPlan.class, created.getId());
+		assertEquals("A plan whose bookings were lost should fail",
+				TravelPlan.Status.FAILED, settled.getStatus());
+		Map<String, String> payloads = new HashMap<String, String>();
+		for (OutboxMessage message : claimed) {
+			payloads.put(message.getReference(), message.getPayload());
+		}
+		List<SagaStep> steps = steps(created.getId());
+		assertEquals("Every lost booking should be in the saga log", 3,
+				steps.size());
+		for (SagaStep step : steps) {
+			assertEquals("A lost booking should keep the reference and payload it was sent with",
+					payloads.get(step.getReference()), step.getPayload());
+		}
+
+		sagaCompensator.compensate(created.getId());
+		long until = System.currentTimeMillis() + 10000;
+		while (!settled(steps) && System.currentTimeMillis() < until) {
+			Thread.sleep(100);
+			steps = steps(created.getId());
+		}
+
+		SagaStep taxi = null;
+		for (SagaStep step : steps) {
+			if (step.getLeg() == SagaStep.Leg.TAXI) {
+				taxi = step;
+				continue;
+			}
+			assertEquals("A lost " + step.getLeg()
+					+ " booking should be replayed and cancelled",
+					SagaStep.Status.COMPENSATED, step.getStatus());
+			assertNotNull("The replay should give the booking id",
+					step.getBookingId());
+		}
+		assertEquals("A supplier not honouring the key should be left for an operator",
+				SagaStep.Status.FAILED, taxi.getStatus());
+		assertNotNull("The reason should be recorded", taxi.getLastError());
+
+		// Had the taxi booking been sent again the item would still be held.
+		HttpPost post = new HttpPost(STUB + "taxi/rest/bookings");
+		post.setEntity(new StringEntity(taxi.getPayload(),
+				ContentType.APPLICATION_JSON));
+		CloseableHttpResponse response = httpClient.execute(post);
+		try {
+			assertEquals("The taxi booking should not have been sent again",
+					Response.Status.CREATED.getStatusCode(), response
+							.getStatusLine().getStatusCode());
+		} finally {
+			HttpClientUtils.closeQuietly(response);
+		}
+	}
+
+	private List<SagaStep> steps(Long travelPlanId) {
+		return em
+				.createNamedQuery(SagaStep.FIND_BY_TRAVEL_PLAN, SagaStep.class)
+				.setParameter("travelPlanId", travelPlanId).getResultList();
+	}
+
+	private static boolean settled(List<SagaStep> steps) {
+		for (SagaStep step : steps) {
+			if (step.getStatus() == SagaStep.Status.COMPENSATING) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Long createTestCustomer() throws Exception {
+		List<Customer> found = em
+				.createNamedQuery(Customer.FIND_BY_EMAIL, Customer.class)
+				.setParameter("email", "testsaga@ncl.ac.uk").getResultList();
+		if (!found.isEmpty()) {
+			return found.get(0).getId();
+		}
+
+		Customer customer = new Customer();
+		customer.setName("TEST CUSTOMER");
+		customer.setEmail("testsaga@ncl.ac.uk");
+		customer.setPhoneNumber("07419999999");
+		Response response = customerRESTService.createCustomer(customer);
+		if (response.getStatus() != 201) {
+			throw new Exception("Customer could not be created");
+		}
+		return customer.getId();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ * 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.travelplan;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.ws.rs.core.Response;
+
+import org.jboss.resteasy.spi.AsynchronousResponse;
+
+/**
+ * <p>
+ * Stands in for the suspended response RESTEasy passes to an asynchronous
+ * JAX-RS endpoint, so that tests can call the endpoint directly and wait for
+ * it to be resumed.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ */
+public class SuspendedResponse implements AsynchronousResponse {
+
+	private final CountDownLatch resumed = new CountDownLatch(1);
+
+	private volatile Response response;
+
+	@Override
+	public void setResponse(Response response) {
+		this.response = response;
+		resumed.countDown();
+	}
+
+	@Override
+	public void setFailure(Exception failure) {
+		this.response = Response.serverError().entity(failure.getMessage())
+				.build();
+		resumed.countDown();
+	}
+
+	/**
+	 * <p>
+	 * Waits for the endpoint to resume the response.
+	 * </p>
+	 *
+	 * @return The Response the endpoint was resumed with
+	 * @throws TimeoutException
+	 *             If the endpoint was not resumed within 30 seconds
+	 */
+	public Response await() throws InterruptedException, TimeoutException {
+		if (!resumed.await(30, TimeUnit.SECONDS)) {
+			throw new TimeoutException("The response was never resumed");
+		}
+		return response;
+	}
+}
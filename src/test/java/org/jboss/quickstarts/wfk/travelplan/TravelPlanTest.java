@@ -22,17 +22,32 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.net.URI;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import javax.ejb.EJBException;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 
 import org.apache.http.HttpEntity;
@@ -56,12 +71,35 @@ import org.jboss.quickstarts.wfk.hotel.HotelRESTService;
 import org.jboss.quickstarts.wfk.hotel.HotelRepository;
 import org.jboss.quickstarts.wfk.hotel.HotelService;
 import org.jboss.quickstarts.wfk.hotel.HotelValidator;
+import org.jboss.quickstarts.wfk.travelagent.supplier.Bulkhead;
+import org.jboss.quickstarts.wfk.travelagent.supplier.CircuitBreaker;
+import org.jboss.quickstarts.wfk.travelagent.supplier.LatencyHistogram;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierClient;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierEndpoint;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierException;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierMetrics;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierMetricsMXBean;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierPayload;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRegistry;
+import org.jboss.quickstarts.wfk.travelagent.supplier.SupplierRejectedException;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.OutboxMessage;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.SagaCompensator;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.SagaLog;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.SagaStep;
 import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlan;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanBooker;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanCompleter;
+import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanOutbox;
 import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanRESTService;
 import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanRepository;
 import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanService;
 import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelPlanValidator;
 import org.jboss.quickstarts.wfk.travelagent.travelplan.TravelSketch;
+import org.jboss.quickstarts.wfk.util.HttpConnectionPool;
+import org.jboss.quickstarts.wfk.util.Deadline;
+import org.jboss.quickstarts.wfk.util.DeadlineExceededException;
+import org.jboss.quickstarts.wfk.util.IdempotencyStore;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
 import org.jboss.quickstarts.wfk.util.Resources;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -78,8 +116,8 @@ import org.junit.runner.RunWith;
  * <p>
  * A suite of tests, run with {@link org.jboss.arquillian Arquillian} to test
  * the JAX-RS endpoint for TravelPlan creation functionality (see
- * {@link TravelPlanRESTService#createTravelPlan(TravelPlan)
- * createTravelPlan(TravelPlan)}).
+ * {@link TravelPlanRESTService#createTravelPlan(TravelSketch, String, String,
+ * org.jboss.resteasy.spi.AsynchronousResponse) createTravelPlan(TravelSketch, String, String, AsynchronousResponse)}).
  * <p/>
  *
  * 
@@ -112,16 +150,29 @@ public class TravelPlanTest {
 				.resolver()
 				.loadPomFromFile("pom.xml")
 				.resolve("org.apache.httpcomponents:httpclient:4.3.2",
+						"org.apache.httpcomponents:httpasyncclient:4.0.1",
 						"org.json:json:20140107").withTransitivity().asFile();
 
 		Archive<?> archive = ShrinkWrap
 				.create(WebArchive.class, "test.war")
 				.addClasses(TravelPlan.class, TravelPlanRESTService.class,
 						TravelPlanRepository.class, TravelPlanValidator.class,
-						TravelPlanService.class, TravelSketch.class,
+						TravelPlanService.class, TravelPlanBooker.class,
+						TravelPlanCompleter.class, TravelSketch.class,
+						TravelPlanOutbox.class, OutboxMessage.class,
+						SagaStep.class, SagaLog.class, SagaCompensator.class,
+						SupplierClient.class, SupplierException.class,
+						SupplierPayload.class, SupplierRejectedException.class,
+						CircuitBreaker.class, Bulkhead.class,
+						SupplierRegistry.class, SupplierEndpoint.class,
+						SupplierMetrics.class, SupplierMetricsMXBean.class,
+						LatencyHistogram.class,
+						SuspendedResponse.class,
 						Customer.class, CustomerRESTService.class,
 						CustomerRepository.class, CustomerValidator.class,
-						CustomerService.class, Resources.class)
+						CustomerService.class, Resources.class, HttpConnectionPool.class,
+						IdempotencyStore.class, JacksonConfig.class,
+						Deadline.class, DeadlineExceededException.class)
 				.addAsLibraries(libs)
 				.addAsResource("META-INF/test-persistence.xml",
 						"META-INF/persistence.xml")
@@ -137,6 +188,12 @@ public class TravelPlanTest {
 	@Inject
 	CustomerRESTService customerRESTService;
 
+	@Inject
+	TravelPlanOutbox outbox;
+
+	@Inject
+	EntityManager em;
+
 	@Inject
 	private @Named("httpClient") CloseableHttpClient httpClient;
 
@@ -173,7 +230,7 @@ public class TravelPlanTest {
 		ts1.setBookingDate("2018-03-29");
 		ts1.setCustomerId(createTestCustomer());
 
-		Response response = travelPlanRESTService.createTravelPlan(ts1);
+		Response response = createTravelPlan(ts1);
 
 		assertEquals("Unexpected response", 201, response.getStatus());
 
@@ -186,7 +243,9 @@ public class TravelPlanTest {
 		JSONArray responseJSON = new JSONArray(responseBody);
 		for (int i = 0; i < responseJSON.length(); i++) {
 			JSONObject jo = responseJSON.getJSONObject(i);
-			if (jo.getJSONObject("customer").getLong("id") == createTestCustomer()) {
+			// Cancelled plans are kept, so only look at the one just booked.
+			if (jo.getJSONObject("customer").getLong("id") == createTestCustomer()
+					&& "BOOKED".equals(jo.optString("status"))) {
 				flightId = jo.getLong("flightBookingId");
 				hotelId = jo.getLong("hotelBookingId");
 				taxiId = jo.getLong("taxiBookingId");
@@ -236,7 +295,7 @@ public class TravelPlanTest {
 		ts1.setBookingDate("2018-03-29");
 		ts1.setCustomerId(createTestCustomer());
 
-		Response response = travelPlanRESTService.createTravelPlan(ts1);
+		Response response = createTravelPlan(ts1);
 
 		assertEquals("Unexpected response", 201, response.getStatus());
 
@@ -247,7 +306,7 @@ public class TravelPlanTest {
 		ts2.setBookingDate("2018-03-29");
 		ts2.setCustomerId(createTestCustomer());
 
-		Response response2 = travelPlanRESTService.createTravelPlan(ts2);
+		Response response2 = createTravelPlan(ts2);
 
 		assertNotEquals("Unexpected response", 201, response.getStatus());
 	}
@@ -262,7 +321,7 @@ public class TravelPlanTest {
 		ts1.setBookingDate("2018-03-29");
 		ts1.setCustomerId(createTestCustomer());
 
-		Response response = travelPlanRESTService.createTravelPlan(ts1);
+		Response response = createTravelPlan(ts1);
 
 		assertEquals("Unexpected response", 201, response.getStatus());
 
@@ -276,7 +335,9 @@ public class TravelPlanTest {
 		JSONArray responseJSON = new JSONArray(responseBody);
 		for (int i = 0; i < responseJSON.length(); i++) {
 			JSONObject jo = responseJSON.getJSONObject(i);
-			if (jo.getJSONObject("customer").getLong("id") == createTestCustomer()) {
+			// Cancelled plans are kept, so only look at the one just booked.
+			if (jo.getJSONObject("customer").getLong("id") == createTestCustomer()
+					&& "BOOKED".equals(jo.optString("status"))) {
 				bId = jo.getLong("id");
 				flightId = jo.getLong("flightBookingId");
 				hotelId = jo.getLong("hotelBookingId");
@@ -288,7 +349,20 @@ public class TravelPlanTest {
 		assertNotEquals("Hotel did not book", 0L, hotelId);
 
 		Response ree = travelPlanRESTService.deleteTravelPlan(bId);
-		assertEquals("Cancellation was not successful", 204, ree.getStatus());
+		assertEquals("Cancellation was not accepted", 202, ree.getStatus());
+
+		// The bookings are cancelled with the suppliers in the background, poll
+		// the plan until they all are.
+		long giveUp = System.currentTimeMillis() + 30000;
+		TravelPlan cancelled = (TravelPlan) ree.getEntity();
+		while (cancelled.getStatus() != TravelPlan.Status.CANCELLED
+				&& System.currentTimeMillis() < giveUp) {
+			Thread.sleep(250);
+			cancelled = (TravelPlan) travelPlanRESTService
+					.retrieveTravelPlanById(bId).getEntity();
+		}
+		assertEquals("Cancellation did not complete",
+				TravelPlan.Status.CANCELLED, cancelled.getStatus());
 
 		URI uri = new URIBuilder().setScheme("http")
 				.setHost("travel.gsp8181.co.uk")
@@ -330,7 +404,7 @@ public class TravelPlanTest {
 		ts1.setBookingDate("2018-03-29");
 		ts1.setCustomerId(createTestCustomer());
 
-		Response response = travelPlanRESTService.createTravelPlan(ts1);
+		Response response = createTravelPlan(ts1);
 		
 		assertEquals("Unexpected response", 201, response.getStatus());
 		TravelSketch ts2 = new TravelSketch();
@@ -340,10 +414,315 @@ public class TravelPlanTest {
 		ts2.setBookingDate("2018-03-29");
 		ts2.setCustomerId(createTestCustomer());
 
-		Response response2 = travelPlanRESTService.createTravelPlan(ts2);
+		Response response2 = createTravelPlan(ts2);
 		assertNotEquals("Unexpected response", 201, response2.getStatus());
 	}
 
+	@Test
+	@InSequence(6)
+	public void testRepeatedWithIdempotencyKey() throws Exception {
+		TravelSketch ts1 = new TravelSketch();
+		ts1.setFlightId(10001L);
+		ts1.setHotelId(1099L);
+		ts1.setTaxiId(101L);
+		ts1.setBookingDate("2018-04-02");
+		ts1.setCustomerId(createTestCustomer());
+
+		Response response = createTravelPlan(ts1, "test-travelplan-key", null);
+		assertEquals("Unexpected response", 201, response.getStatus());
+
+		// The retry is the same sketch, sent again as a new object
+		TravelSketch ts2 = new TravelSketch();
+		ts2.setFlightId(10001L);
+		ts2.setHotelId(1099L);
+		ts2.setTaxiId(101L);
+		ts2.setBookingDate("2018-04-02");
+		ts2.setCustomerId(ts1.getCustomerId());
+
+		Response repeated = createTravelPlan(ts2, "test-travelplan-key", null);
+		assertEquals("Unexpected response", 201, repeated.getStatus());
+		assertEquals("The original travelPlan should be returned",
+				((TravelPlan) response.getEntity()).getId(),
+				((TravelPlan) repeated.getEntity()).getId());
+
+		TravelSketch ts3 = new TravelSketch();
+		ts3.setFlightId(10001L);
+		ts3.setHotelId(1099L);
+		ts3.setTaxiId(101L);
+		ts3.setBookingDate("2018-04-03");
+		ts3.setCustomerId(ts1.getCustomerId());
+
+		Response reused = createTravelPlan(ts3, "test-travelplan-key", null);
+		assertEquals("A key reused for a different sketch should be refused",
+				422, reused.getStatus());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	@InSequence(7)
+	public void testRequestTimeoutAnswered504() throws Exception {
+		TravelSketch ts1 = new TravelSketch();
+		ts1.setFlightId(10001L);
+		ts1.setHotelId(1099L);
+		ts1.setTaxiId(101L);
+		ts1.setBookingDate("2018-04-04");
+		ts1.setCustomerId(createTestCustomer());
+
+		Response response = createTravelPlan(ts1, null, "1");
+
+		assertEquals("A request out of time should be answered 504",
+				DeadlineExceededException.STATUS, response.getStatus());
+		assertTrue("The response should say why the request failed",
+				((Map<String, String>) response.getEntity()).containsKey("error"));
+	}
+
+	/**
+	 * <p>
+	 * Gives the suppliers too little time to answer, so that their bookings
+	 * are cut off while in flight. However far each call got, a leg the
+	 * supplier may hold must not be dropped: every booking left UNKNOWN must
+	 * be in the saga log, to be reconciled and cancelled.
+	 * </p>
+	 */
+	@Test
+	@InSequence(8)
+	public void testTimedOutLegsAreReconciled() throws Exception {
+		TravelSketch ts1 = new TravelSketch();
+		ts1.setFlightId(10001L);
+		ts1.setHotelId(1099L);
+		ts1.setTaxiId(101L);
+		ts1.setBookingDate("2018-04-05");
+		ts1.setCustomerId(createTestCustomer());
+		Set<Long> before = new HashSet<Long>();
+		for (OutboxMessage message : findUnknown()) {
+			before.add(message.getId());
+		}
+
+		Response response = createTravelPlan(ts1, null, "300");
+		if (response.getStatus() == 201) {
+			// The suppliers answered within the time, there is nothing to reconcile.
+			return;
+		}
+		assertEquals("A plan out of time should be answered 504",
+				DeadlineExceededException.STATUS, response.getStatus());
+
+		for (OutboxMessage message : findUnknown()) {
+			if (before.contains(message.getId())) {
+				continue;
+			}
+			boolean logged = false;
+			for (SagaStep step : em
+					.createNamedQuery(SagaStep.FIND_BY_TRAVEL_PLAN, SagaStep.class)
+					.setParameter("travelPlanId", message.getTravelPlanId())
+					.getResultList()) {
+				logged |= message.getReference().equals(step.getReference());
+			}
+			assertTrue("A booking cut off in flight should be in the saga log",
+					logged);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	@InSequence(9)
+	public void testBatchGivesResultPerItemInOrder() throws Exception {
+		Long customerId = createTestCustomer();
+		TravelSketch first = createSketch(customerId, "2018-05-01");
+		TravelSketch missingHotel = createSketch(customerId, "2018-05-02");
+		missingHotel.setHotelId(null);
+		TravelSketch unknownCustomer = createSketch(0L, "2018-05-03");
+		TravelSketch last = createSketch(customerId, "2018-05-04");
+
+		Response response = createTravelPlans(Arrays.asList(first,
+				missingHotel, unknownCustomer, last));
+
+		assertEquals("Unexpected response status", 200, response.getStatus());
+		List<Map<String, Object>> results = (List<Map<String, Object>>) response
+				.getEntity();
+		assertEquals("Every item should have a result", 4, results.size());
+		assertEquals("The first plan should be booked", 201,
+				results.get(0).get("status"));
+		assertNotNull(results.get(0).get("travelPlan"));
+		assertEquals("A sketch missing a leg should fail on its own", 400,
+				results.get(1).get("status"));
+		assertTrue(((Map<String, String>) results.get(1).get("errors"))
+				.containsKey("hotelId"));
+		assertEquals("A sketch for no customer should fail on its own", 409,
+				results.get(2).get("status"));
+		assertTrue(((Map<String, String>) results.get(2).get("errors"))
+				.containsKey("customerId"));
+		assertEquals("The last plan should be booked", 201,
+				results.get(3).get("status"));
+		assertNotEquals("Each booked plan should be a plan of its own",
+				((TravelPlan) results.get(0).get("travelPlan")).getId(),
+				((TravelPlan) results.get(3).get("travelPlan")).getId());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	@InSequence(10)
+	public void testBatchOverSizeCapRefused() throws Exception {
+		Long customerId = createTestCustomer();
+		List<TravelSketch> sketches = new ArrayList<TravelSketch>();
+		for (int i = 0; i < 101; i++) {
+			sketches.add(createSketch(customerId, "2018-06-01"));
+		}
+
+		Response response = createTravelPlans(sketches);
+
+		assertEquals("A batch over the cap should be refused", 400,
+				response.getStatus());
+		assertTrue(((Map<String, String>) response.getEntity())
+				.containsKey("error"));
+	}
+
+	@Test
+	@InSequence(11)
+	public void testEmptyBatchRefused() throws Exception {
+		try {
+			createTravelPlans(new ArrayList<TravelSketch>());
+			fail("Expected a WebApplicationException");
+		} catch (EJBException e) {
+			// The container wraps what the bean throws; RESTEasy unwraps it into the response.
+			assertTrue(e.getCause() instanceof WebApplicationException);
+			assertEquals("Unexpected response status", 400,
+					((WebApplicationException) e.getCause()).getResponse().getStatus());
+		}
+	}
+
+	/**
+	 * <p>
+	 * Settles and cancels the same plans at the same time. Whichever goes
+	 * first, the other must see it, so every plan ends up CANCELLED rather
+	 * than the settle overwriting the cancel or the other way round. The legs
+	 * are failed, so no supplier is called.
+	 * </p>
+	 */
+	@Test
+	@InSequence(12)
+	public void testSettleAndCancelAtOnce() throws Exception {
+		Long customerId = createTestCustomer();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for (int i = 0; i < 20; i++) {
+				TravelPlan travelPlan = new TravelPlan();
+				Customer customer = new Customer();
+				customer.setId(customerId);
+				travelPlan.setCustomer(customer);
+				final Long id = outbox.enqueue(travelPlan,
+						createSketch(customerId, "2018-07-01")).getId();
+				final List<OutboxMessage> messages = outbox.claim(id);
+				for (OutboxMessage message : messages) {
+					message.setStatus(OutboxMessage.Status.FAILED);
+					message.setLastError("Failed by the test");
+				}
+
+				final CountDownLatch start = new CountDownLatch(1);
+				Future<?> settled = executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						outbox.settle(id, messages);
+						return null;
+					}
+				});
+				Future<?> cancelled = executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						outbox.cancel(id);
+						return null;
+					}
+				});
+				start.countDown();
+				settled.get(30, TimeUnit.SECONDS);
+				cancelled.get(30, TimeUnit.SECONDS);
+
+				assertEquals("A plan settled and cancelled at once should end cancelled",
+						TravelPlan.Status.CANCELLED,
+						em.find(TravelPlan.class, id).getStatus());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Creates a batch of TravelPlans through the suspended REST endpoint and
+	 * waits for it to be resumed.
+	 * </p>
+	 *
+	 * @return The Response the endpoint was resumed with
+	 */
+	private Response createTravelPlans(List<TravelSketch> travelSketches)
+			throws Exception {
+		SuspendedResponse response = new SuspendedResponse();
+		travelPlanRESTService.createTravelPlans(travelSketches, null, response);
+		return response.await();
+	}
+
+	/**
+	 * <p>
+	 * A utility method to construct a TravelSketch of the test flight, hotel
+	 * and taxi.
+	 * </p>
+	 */
+	private TravelSketch createSketch(Long customerId, String bookingDate) {
+		TravelSketch travelSketch = new TravelSketch();
+		travelSketch.setFlightId(10001L);
+		travelSketch.setHotelId(1099L);
+		travelSketch.setTaxiId(101L);
+		travelSketch.setBookingDate(bookingDate);
+		travelSketch.setCustomerId(customerId);
+		return travelSketch;
+	}
+
+	/**
+	 * <p>
+	 * Returns every booking whose outcome is UNKNOWN.
+	 * </p>
+	 */
+	private List<OutboxMessage> findUnknown() {
+		return em.createNamedQuery(OutboxMessage.FIND_LOST, OutboxMessage.class)
+				.setParameter("status", OutboxMessage.Status.UNKNOWN)
+				.setParameter("before", new Date(System.currentTimeMillis() + 1000))
+				.getResultList();
+	}
+
+	/**
+	 * <p>
+	 * Creates a TravelPlan through the suspended REST endpoint and waits for
+	 * it to be resumed.
+	 * </p>
+	 *
+	 * @return The Response the endpoint was resumed with
+	 */
+	private Response createTravelPlan(TravelSketch travelSketch)
+			throws Exception {
+		return createTravelPlan(travelSketch, null, null);
+	}
+
+	/**
+	 * <p>
+	 * Creates a TravelPlan through the suspended REST endpoint with the given
+	 * headers and waits for it to be resumed.
+	 * </p>
+	 *
+	 * @param idempotencyKey
+	 *            The Idempotency-Key header to send, may be null
+	 * @param timeout
+	 *            The X-Request-Timeout header to send, may be null
+	 * @return The Response the endpoint was resumed with
+	 */
+	private Response createTravelPlan(TravelSketch travelSketch,
+			String idempotencyKey, String timeout) throws Exception {
+		SuspendedResponse response = new SuspendedResponse();
+		travelPlanRESTService.createTravelPlan(travelSketch, idempotencyKey,
+				timeout, response);
+		return response.await();
+	}
+
 	/**
 	 * <p>
 	 * A utility method to construct a
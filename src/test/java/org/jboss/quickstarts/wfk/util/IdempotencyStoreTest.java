@@ -0,0 +1,84 @@
+/*
+ * Geoffrey Prytherch - Adapted from JBoss Examples, with the licence given below
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests that the {@link IdempotencyStore} ties a key to the request first sent
+ * with it: the same request is given the original response, a different one
+ * is refused, and a key released by a failed request may be used again.
+ * </p>
+ *
+ * @author Geoffrey Prytherch
+ * @see IdempotencyStore
+ */
+public class IdempotencyStoreTest {
+
+	private static final String SCOPE = "POST /test";
+
+	@Test
+	public void testRepeatGivenOriginalResponse() {
+		String fingerprint = IdempotencyStore.fingerprint(1L, 2L, "2020-01-01");
+		assertNull(IdempotencyStore.claim(SCOPE, "repeat", fingerprint));
+		assertEquals("A request still running should not be run again", 409,
+				IdempotencyStore.claim(SCOPE, "repeat", fingerprint).getStatus());
+
+		IdempotencyStore.complete(SCOPE, "repeat", Response.status(Response.Status.CREATED).entity("created").build());
+		Response repeated = IdempotencyStore.claim(SCOPE, "repeat", IdempotencyStore.fingerprint(1L, 2L, "2020-01-01"));
+		assertEquals(201, repeated.getStatus());
+		assertEquals("created", repeated.getEntity());
+	}
+
+	@Test
+	public void testDifferentRequestRefused() {
+		assertNull(IdempotencyStore.claim(SCOPE, "reused", IdempotencyStore.fingerprint(1L, 2L, "2020-01-01")));
+		IdempotencyStore.complete(SCOPE, "reused", Response.status(Response.Status.CREATED).entity("created").build());
+
+		assertEquals("A key sent with a different request should be refused", 422,
+				IdempotencyStore.claim(SCOPE, "reused", IdempotencyStore.fingerprint(1L, 3L, "2020-01-01"))
+						.getStatus());
+	}
+
+	@Test
+	public void testReleasedKeyMayBeUsedAgain() {
+		assertNull(IdempotencyStore.claim(SCOPE, "released", IdempotencyStore.fingerprint(1L)));
+		IdempotencyStore.release(SCOPE, "released");
+		assertNull("A released key should be free for any request",
+				IdempotencyStore.claim(SCOPE, "released", IdempotencyStore.fingerprint(2L)));
+
+		IdempotencyStore.complete(SCOPE, "released", Response.status(Response.Status.CONFLICT).build());
+		assertNull("A key whose request failed should be free again",
+				IdempotencyStore.claim(SCOPE, "released", IdempotencyStore.fingerprint(3L)));
+	}
+
+	@Test
+	public void testFingerprintKeepsFieldsApart() {
+		assertEquals(IdempotencyStore.fingerprint(1L, null), IdempotencyStore.fingerprint(1L, null));
+		assertNotEquals(IdempotencyStore.fingerprint("ab", "c"), IdempotencyStore.fingerprint("a", "bc"));
+		assertNotEquals(IdempotencyStore.fingerprint(1L, 2L), IdempotencyStore.fingerprint(2L, 1L));
+	}
+}